@@ -0,0 +1,388 @@
+package org.ncgr.pangenomics.genotype;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Importer for PLINK binary .bed/.bim/.fam filesets. The SNP-major .bed genotype matrix is memory-mapped and decoded in chunks of SNPs,
+ * optionally in parallel; the .bim file supplies the loci and the .fam file the samples (by individual ID).
+ * As with ListImporter, each locus has up to four nodes: homozygous A1, heterozygous, homozygous A2 and no-call (00),
+ * with genotype frequencies over all samples, and loci are filtered on their largest minor genotype frequency (MGF).
+ *
+ * @author Sam Hokin
+ */
+public class BEDImporter extends Importer {
+
+    // the .bed magic number and SNP-major mode byte
+    static final byte[] MAGIC = { 0x6c, 0x1b, 0x01 };
+
+    // the most bytes of the .bed file mapped for one chunk
+    static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    // the 2-bit .bed codes in node order: homozygous A1, heterozygous, homozygous A2, missing
+    static final int HOM1 = 0;
+    static final int MISSING = 1;
+    static final int HET = 2;
+    static final int HOM2 = 3;
+    static final int[] CODE_ORDER = { HOM1, HET, HOM2, MISSING };
+
+    // the number of each 2-bit code in each byte value, so loci are tallied a byte at a time
+    static final int[][] BYTE_COUNTS = new int[256][4];
+    static {
+	for (int b=0; b<256; b++) {
+	    for (int k=0; k<4; k++) BYTE_COUNTS[b][(b>>(2*k)) & 3]++;
+	}
+    }
+
+    File bedFile;
+    File bimFile;
+    File famFile;
+
+    // the loci from the .bim file
+    String[] contigs;
+    String[] ids;
+    int[] positions;
+    String[] alleles1;
+    String[] alleles2;
+
+    // the sample (individual) IDs from the .fam file
+    String[] famSamples;
+
+    // the number of bytes per locus in the .bed file
+    int bytesPerLocus;
+
+    /**
+     * Construct for building nodes from a .bed file, with .bim and .fam files of the same name
+     */
+    public BEDImporter(File bedFile) throws IOException {
+	this.bedFile = bedFile;
+	String prefix = bedFile.getPath().endsWith(".bed") ? bedFile.getPath().substring(0, bedFile.getPath().length()-4) : bedFile.getPath();
+	bimFile = new File(prefix+".bim");
+	famFile = new File(prefix+".fam");
+	readBim();
+	readFam();
+	checkBed();
+    }
+
+    /**
+     * Construct for building paths from a .bed file and nodes
+     */
+    public BEDImporter(File bedFile, TreeMap<Long,Node> nodeIdMap, TreeMap<String,Node> nodeKeyMap) throws IOException {
+	this(bedFile);
+	this.nodeIdMap = nodeIdMap;
+	this.nodeKeyMap = nodeKeyMap;
+    }
+
+    /**
+     * Read all nodes from the .bed file.
+     */
+    @Override
+    public void readNodes() throws IOException {
+	readNodes(0.0, 1.0);
+    }
+
+    /**
+     * Read the nodes of loci with MGF within the given limits.
+     */
+    @Override
+    public void readNodes(double minMGF, double maxMGF) throws IOException {
+	read(new Sample[0], new int[0], minMGF, maxMGF, 1);
+	if (verbose) System.err.println("BEDImporter read "+nodeIdMap.size()+" nodes from "+bedFile.getName());
+    }
+
+    /**
+     * Read the paths through the loaded nodes of the samples in the labels file.
+     */
+    @Override
+    public void readPaths(File labelsFile) throws IOException {
+	if (nodeKeyMap.size()==0) {
+	    System.err.println("ERROR: BEDImporter nodeKeyMap is empty.");
+	    System.exit(1);
+	}
+	Sample[] sampleArray = Sample.readSamples(labelsFile).toArray(new Sample[0]);
+	read(sampleArray, getSampleIndexes(sampleArray), 0.0, 1.0, 1);
+	if (verbose) System.err.println("BEDImporter loaded "+sampleNodeSets.size()+" samples from "+bedFile.getName());
+    }
+
+    /**
+     * Read the nodes of loci with MGF within the given limits and the paths of the samples in the labels file in a single pass,
+     * decoding about the given number of SNP chunks in parallel.
+     */
+    public void readNodesAndPaths(File labelsFile, double minMGF, double maxMGF, int chunks) throws IOException {
+	Sample[] sampleArray = Sample.readSamples(labelsFile).toArray(new Sample[0]);
+	read(sampleArray, getSampleIndexes(sampleArray), minMGF, maxMGF, chunks);
+	if (verbose) System.err.println("BEDImporter read "+nodeIdMap.size()+" nodes and "+sampleNodeSets.size()+" sample paths from "+bedFile.getName());
+    }
+
+    /**
+     * Decode the .bed file in chunks of loci and merge them in order. New nodes are created and numbered from 1
+     * unless nodes have already been loaded, in which case each locus' nodes are looked up in nodeKeyMap.
+     */
+    void read(Sample[] sampleArray, int[] sampleIndexes, double minMGF, double maxMGF, int chunks) throws IOException {
+	boolean lookupNodes = nodeKeyMap.size()>0;
+	// chunk bounds in loci, each mapping at most MAX_CHUNK_SIZE bytes
+	long maxLoci = Math.max(1, MAX_CHUNK_SIZE/bytesPerLocus);
+	int lociPerChunk = (int) Math.min(maxLoci, Math.max(1, (contigs.length+chunks-1)/Math.max(1,chunks)));
+	int chunkCount = (contigs.length+lociPerChunk-1)/lociPerChunk;
+	FileChannel channel = FileChannel.open(bedFile.toPath(), StandardOpenOption.READ);
+	IntStream chunkStream = IntStream.range(0, chunkCount);
+	if (chunks>1) chunkStream = chunkStream.parallel();
+	List<Chunk> chunkList = chunkStream.mapToObj(c -> {
+		int first = c*lociPerChunk;
+		int last = Math.min(contigs.length, first+lociPerChunk);
+		try {
+		    ByteBuffer bed = channel.map(FileChannel.MapMode.READ_ONLY, MAGIC.length+(long)first*bytesPerLocus, (long)(last-first)*bytesPerLocus);
+		    return readChunk(bed, first, last, sampleIndexes, minMGF, maxMGF, lookupNodes);
+		} catch (IOException ex) {
+		    System.err.println("ERROR mapping "+bedFile.getName()+": "+ex);
+		    System.exit(1);
+		    return null;
+		}
+	    }).collect(Collectors.toList());
+	channel.close();
+	// merge the chunks in order
+	int minMGFCount = 0;
+	int maxMGFCount = 0;
+	int[] sampleNodeCounts = new int[sampleArray.length];
+	for (Chunk chunk : chunkList) {
+	    minMGFCount += chunk.minMGFCount;
+	    maxMGFCount += chunk.maxMGFCount;
+	    for (int s=0; s<sampleArray.length; s++) sampleNodeCounts[s] += chunk.sampleNodeCounts[s];
+	}
+	Node[][] sampleNodes = new Node[sampleArray.length][];
+	for (int s=0; s<sampleArray.length; s++) sampleNodes[s] = new Node[sampleNodeCounts[s]];
+	Arrays.fill(sampleNodeCounts, 0);
+	long nodeId = 0;
+	for (Chunk chunk : chunkList) {
+	    for (Node n : chunk.nodes) {
+		n.id = ++nodeId;
+		nodeIdMap.put(n.id, n);
+		nodeKeyMap.put(n.getKey(), n);
+	    }
+	    for (int s=0; s<sampleArray.length; s++) {
+		System.arraycopy(chunk.sampleNodes[s], 0, sampleNodes[s], sampleNodeCounts[s], chunk.sampleNodeCounts[s]);
+		sampleNodeCounts[s] += chunk.sampleNodeCounts[s];
+	    }
+	}
+	if (verbose && !lookupNodes) {
+	    System.err.println(minMGFCount+" loci were removed with MGF<"+minMGF);
+	    System.err.println(maxMGFCount+" loci were removed with MGF>"+maxMGF);
+	}
+	// new nodes are in id order; loaded nodes needn't be
+	for (int s=0; s<sampleArray.length; s++) {
+	    if (sampleNodes[s].length>0) sampleNodeSets.put(sampleArray[s], new NodeSet(sampleNodes[s], !lookupNodes));
+	}
+    }
+
+    /**
+     * Decode the loci [first,last) from their mapped .bed bytes.
+     */
+    Chunk readChunk(ByteBuffer bed, int first, int last, int[] sampleIndexes, double minMGF, double maxMGF, boolean lookupNodes) {
+	Chunk chunk = new Chunk(sampleIndexes.length);
+	byte[] bytes = new byte[bytesPerLocus];
+	// the pad bits in the last byte of each locus are zero, which reads as homozygous A1
+	int padding = 4*bytesPerLocus - famSamples.length;
+	for (int i=first; i<last; i++) {
+	    bed.get(bytes);
+	    Node[] codeNodes = new Node[4];
+	    if (lookupNodes) {
+		// the loaded nodes of this locus
+		for (int code : CODE_ORDER) codeNodes[code] = nodeKeyMap.get(Node.getKey(contigs[i], positions[i], positions[i], ids[i], getGenotype(i, code)));
+	    } else {
+		// tally the genotypes a byte at a time
+		int[] counts = new int[4];
+		for (byte b : bytes) {
+		    int[] byteCounts = BYTE_COUNTS[b & 0xff];
+		    counts[0] += byteCounts[0];
+		    counts[1] += byteCounts[1];
+		    counts[2] += byteCounts[2];
+		    counts[3] += byteCounts[3];
+		}
+		counts[HOM1] -= padding;
+		// the MGF is the largest genotype frequency below the majority's
+		int majorityCount = 0;
+		for (int count : counts) majorityCount = Math.max(majorityCount, count);
+		int minorCount = 0;
+		for (int count : counts) {
+		    if (count<majorityCount) minorCount = Math.max(minorCount, count);
+		}
+		double mgf = (double) minorCount / (double) famSamples.length;
+		if (mgf<minMGF) {
+		    chunk.minMGFCount++;
+		    continue;
+		} else if (mgf>maxMGF) {
+		    chunk.maxMGFCount++;
+		    continue;
+		}
+		// ids are assigned when chunks are merged
+		for (int code : CODE_ORDER) {
+		    if (counts[code]==0) continue;
+		    double gf = (double) counts[code] / (double) famSamples.length;
+		    codeNodes[code] = new Node(0, ids[i], contigs[i], positions[i], positions[i], getGenotype(i, code), gf);
+		    codeNodes[code].count = counts[code];
+		    chunk.nodes.add(codeNodes[code]);
+		}
+	    }
+	    for (int s=0; s<sampleIndexes.length; s++) {
+		int k = sampleIndexes[s];
+		Node n = codeNodes[(bytes[k>>2] >> ((k&3)<<1)) & 3];
+		if (n!=null) chunk.addSampleNode(s, n);
+	    }
+	}
+	return chunk;
+    }
+
+    /**
+     * Return the genotype string of a locus for a .bed code, as in a PLINK --list file.
+     */
+    String getGenotype(int i, int code) {
+	switch (code) {
+	case HOM1: return alleles1[i]+alleles1[i];
+	case HET: return alleles1[i]+alleles2[i];
+	case HOM2: return alleles2[i]+alleles2[i];
+	default: return "00";
+	}
+    }
+
+    /**
+     * Return the index in the .fam file of each of the given samples.
+     */
+    int[] getSampleIndexes(Sample[] sampleArray) {
+	Map<String,Integer> famIndexes = new HashMap<>();
+	for (int k=0; k<famSamples.length; k++) famIndexes.put(famSamples[k], k);
+	int[] sampleIndexes = new int[sampleArray.length];
+	for (int s=0; s<sampleArray.length; s++) {
+	    Integer k = famIndexes.get(sampleArray[s].name);
+	    if (k==null) {
+		System.err.println("ERROR: file "+famFile.getName()+" does not contain sample "+sampleArray[s]);
+		System.exit(1);
+	    }
+	    sampleIndexes[s] = k;
+	}
+	return sampleIndexes;
+    }
+
+    /**
+     * Read the loci from the .bim file: contig, ID, cM, position, allele 1, allele 2.
+     */
+    void readBim() throws IOException {
+	List<String[]> lines = readFields(bimFile);
+	contigs = new String[lines.size()];
+	ids = new String[lines.size()];
+	positions = new int[lines.size()];
+	alleles1 = new String[lines.size()];
+	alleles2 = new String[lines.size()];
+	Map<String,String> strings = new HashMap<>();
+	for (int i=0; i<lines.size(); i++) {
+	    String[] fields = lines.get(i);
+	    if (fields.length<6) {
+		System.err.println("ERROR: line "+(i+1)+" of "+bimFile.getName()+" has fewer than six fields.");
+		System.exit(1);
+	    }
+	    // contigs and alleles repeat, so share their strings
+	    contigs[i] = strings.computeIfAbsent(fields[0], s -> s);
+	    ids[i] = fields[1];
+	    positions[i] = Integer.parseInt(fields[3]);
+	    alleles1[i] = strings.computeIfAbsent(fields[4], s -> s);
+	    alleles2[i] = strings.computeIfAbsent(fields[5], s -> s);
+	}
+    }
+
+    /**
+     * Read the sample individual IDs from the .fam file: family ID, individual ID, father, mother, sex, phenotype.
+     */
+    void readFam() throws IOException {
+	List<String[]> lines = readFields(famFile);
+	famSamples = new String[lines.size()];
+	for (int k=0; k<lines.size(); k++) {
+	    if (lines.get(k).length<2) {
+		System.err.println("ERROR: line "+(k+1)+" of "+famFile.getName()+" has no individual ID.");
+		System.exit(1);
+	    }
+	    famSamples[k] = lines.get(k)[1];
+	}
+	bytesPerLocus = (famSamples.length+3)/4;
+    }
+
+    /**
+     * Check the .bed magic number, mode and size.
+     */
+    void checkBed() throws IOException {
+	FileChannel channel = FileChannel.open(bedFile.toPath(), StandardOpenOption.READ);
+	ByteBuffer header = ByteBuffer.allocate(MAGIC.length);
+	channel.read(header, 0);
+	long size = channel.size();
+	channel.close();
+	if (header.get(0)!=MAGIC[0] || header.get(1)!=MAGIC[1]) {
+	    System.err.println("ERROR: "+bedFile.getName()+" is not a PLINK .bed file.");
+	    System.exit(1);
+	}
+	if (header.get(2)!=MAGIC[2]) {
+	    System.err.println("ERROR: "+bedFile.getName()+" is not in SNP-major mode.");
+	    System.exit(1);
+	}
+	if (size!=MAGIC.length+(long)contigs.length*bytesPerLocus) {
+	    System.err.println("ERROR: "+bedFile.getName()+" size does not match "+contigs.length+" loci of "+famSamples.length+" samples.");
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Read the whitespace-separated fields of each line of a text file.
+     */
+    static List<String[]> readFields(File file) throws IOException {
+	List<String[]> lines = new ArrayList<>();
+	BufferedReader reader = new BufferedReader(new FileReader(file));
+	String line;
+	while ((line=reader.readLine())!=null) {
+	    line = line.trim();
+	    if (line.length()>0) lines.add(line.split("\\s+"));
+	}
+	reader.close();
+	return lines;
+    }
+
+    /**
+     * Set verbosity
+     */
+    public void setVerbose(boolean flag) {
+	verbose = flag;
+    }
+
+    /**
+     * The nodes decoded from a chunk of loci, and each desired sample's nodes.
+     */
+    static class Chunk {
+	List<Node> nodes = new ArrayList<>();
+	Node[][] sampleNodes;
+	int[] sampleNodeCounts;
+	int minMGFCount;
+	int maxMGFCount;
+
+	Chunk(int sampleCount) {
+	    sampleNodes = new Node[sampleCount][16];
+	    sampleNodeCounts = new int[sampleCount];
+	}
+
+	void addSampleNode(int s, Node n) {
+	    if (sampleNodeCounts[s]==sampleNodes[s].length) sampleNodes[s] = Arrays.copyOf(sampleNodes[s], 2*sampleNodeCounts[s]);
+	    sampleNodes[s][sampleNodeCounts[s]++] = n;
+	}
+    }
+}
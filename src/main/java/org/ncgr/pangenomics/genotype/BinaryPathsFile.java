@@ -0,0 +1,375 @@
+package org.ncgr.pangenomics.genotype;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A binary paths file, the compact alternative to paths.txt. The node ids along a path are strictly increasing, so each path is stored
+ * as its node count and the differences between successive ids (the first from zero) as unsigned LEB128 varints. Paths are grouped
+ * into blocks, which may be DEFLATE-compressed, and an index at the end of the file gives each block's position and each path's
+ * sample and offset within its block, so any path can be read without reading the ones before it.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * int magic "PGP1", int version, int flags (1=DEFLATE), int paths per block
+ * blocks: for each path, varint node count, varint id deltas
+ * index: int pathCount, per path UTF name, boolean hasLabel, [UTF label],
+ *        int blockCount, per block long position, int stored length, int raw length, per path int offset in its raw block
+ * long index position, int magic
+ * </pre>
+ *
+ * @author Sam Hokin
+ */
+public class BinaryPathsFile implements Closeable {
+
+    static final int MAGIC = 0x50475031; // "PGP1"
+    static final int VERSION = 1;
+    static final int FLAG_DEFLATE = 1;
+
+    // paths per block: enough to compress well, few enough that reading one path inflates little else
+    static final int PATHS_PER_BLOCK = 64;
+
+    File file;
+    FileChannel channel;
+    boolean deflate;
+    int pathsPerBlock;
+
+    // the index
+    Sample[] samples;
+    long[] blockPositions;
+    int[] blockStoredLengths;
+    int[] blockRawLengths;
+    int[] pathOffsets;
+    Map<String,Integer> pathIndex;
+
+    /**
+     * Open a binary paths file, reading its index.
+     */
+    public BinaryPathsFile(File file) throws IOException {
+	this.file = file;
+	channel = new RandomAccessFile(file, "r").getChannel();
+	ByteBuffer header = ByteBuffer.allocate(16);
+	ByteBuffer trailer = ByteBuffer.allocate(12);
+	channel.read(header, 0);
+	channel.read(trailer, Math.max(0, channel.size()-12));
+	if (channel.size()<28 || header.getInt(0)!=MAGIC || trailer.getInt(8)!=MAGIC) {
+	    System.err.println("ERROR: "+file.getName()+" is not a binary paths file.");
+	    System.exit(1);
+	}
+	if (header.getInt(4)!=VERSION) {
+	    System.err.println("ERROR: "+file.getName()+" has unsupported binary paths version "+header.getInt(4));
+	    System.exit(1);
+	}
+	deflate = (header.getInt(8) & FLAG_DEFLATE)!=0;
+	pathsPerBlock = header.getInt(12);
+	DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(trailer.getLong(0))), 1<<16));
+	int pathCount = in.readInt();
+	samples = new Sample[pathCount];
+	for (int j=0; j<pathCount; j++) {
+	    String name = in.readUTF();
+	    samples[j] = new Sample(name, in.readBoolean() ? in.readUTF() : null);
+	}
+	int blockCount = in.readInt();
+	blockPositions = new long[blockCount];
+	blockStoredLengths = new int[blockCount];
+	blockRawLengths = new int[blockCount];
+	for (int b=0; b<blockCount; b++) {
+	    blockPositions[b] = in.readLong();
+	    blockStoredLengths[b] = in.readInt();
+	    blockRawLengths[b] = in.readInt();
+	}
+	pathOffsets = new int[pathCount];
+	for (int j=0; j<pathCount; j++) pathOffsets[j] = in.readInt();
+    }
+
+    /**
+     * Return true if the given file is a binary paths file, from its magic number.
+     */
+    public static boolean isBinaryPathsFile(File file) throws IOException {
+	if (file.length()<4) return false;
+	try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+	    return in.readInt()==MAGIC;
+	}
+    }
+
+    /**
+     * Return the number of paths.
+     */
+    public int getPathCount() {
+	return samples.length;
+    }
+
+    /**
+     * Return the number of blocks.
+     */
+    public int getBlockCount() {
+	return blockPositions.length;
+    }
+
+    /**
+     * Return the sample of the path at index j.
+     */
+    public Sample getSample(int j) {
+	return samples[j];
+    }
+
+    /**
+     * Return the index of the path of the named sample, or -1 if there isn't one.
+     */
+    public int getPathIndex(String name) {
+	if (pathIndex==null) {
+	    pathIndex = new HashMap<>();
+	    for (int j=0; j<samples.length; j++) pathIndex.put(samples[j].name, j);
+	}
+	Integer j = pathIndex.get(name);
+	return j==null ? -1 : j;
+    }
+
+    /**
+     * Return the node ids of the path at index j, reading only its block.
+     */
+    public long[] readPath(int j) throws IOException {
+	byte[] raw = readRawBlock(j/pathsPerBlock);
+	return decodePath(raw, new int[] { pathOffsets[j] });
+    }
+
+    /**
+     * Return the node ids of the paths in block b, which are paths b*pathsPerBlock on. Safe to call from several threads.
+     */
+    public long[][] readBlock(int b) throws IOException {
+	byte[] raw = readRawBlock(b);
+	int first = b*pathsPerBlock;
+	int count = Math.min(pathsPerBlock, samples.length-first);
+	long[][] ids = new long[count][];
+	int[] pos = new int[1];
+	for (int k=0; k<count; k++) ids[k] = decodePath(raw, pos);
+	return ids;
+    }
+
+    /**
+     * Read and, if need be, inflate block b.
+     */
+    byte[] readRawBlock(int b) throws IOException {
+	ByteBuffer stored = ByteBuffer.allocate(blockStoredLengths[b]);
+	long position = blockPositions[b];
+	while (stored.hasRemaining()) {
+	    int read = channel.read(stored, position+stored.position());
+	    if (read<0) {
+		throw new IOException(file.getName()+" is truncated in block "+b);
+	    }
+	}
+	if (!deflate) return stored.array();
+	byte[] raw = new byte[blockRawLengths[b]];
+	Inflater inflater = new Inflater();
+	try {
+	    inflater.setInput(stored.array());
+	    int length = 0;
+	    while (length<raw.length && !inflater.finished()) {
+		int inflated = inflater.inflate(raw, length, raw.length-length);
+		if (inflated==0 && (inflater.needsInput() || inflater.needsDictionary())) {
+		    throw new IOException(file.getName()+" block "+b+" is truncated or corrupt");
+		}
+		length += inflated;
+	    }
+	    if (length!=raw.length) {
+		throw new IOException(file.getName()+" block "+b+" inflated to "+length+" bytes, expected "+raw.length);
+	    }
+	} catch (DataFormatException e) {
+	    throw new IOException(file.getName()+" block "+b+" is corrupt", e);
+	} finally {
+	    inflater.end();
+	}
+	return raw;
+    }
+
+    /**
+     * Decode the path starting at raw[pos[0]], advancing pos[0] past it.
+     */
+    static long[] decodePath(byte[] raw, int[] pos) {
+	int count = (int) readVarint(raw, pos);
+	long[] ids = new long[count];
+	long id = 0;
+	for (int k=0; k<count; k++) {
+	    id += readVarint(raw, pos);
+	    ids[k] = id;
+	}
+	return ids;
+    }
+
+    /**
+     * Read an unsigned LEB128 varint at raw[pos[0]], advancing pos[0] past it.
+     */
+    static long readVarint(byte[] raw, int[] pos) {
+	long value = 0;
+	int shift = 0;
+	byte b;
+	do {
+	    b = raw[pos[0]++];
+	    value |= (long) (b & 0x7f) << shift;
+	    shift += 7;
+	} while (b<0);
+	return value;
+    }
+
+    /**
+     * Close the file.
+     */
+    @Override
+    public void close() throws IOException {
+	channel.close();
+    }
+
+    /**
+     * Writes a binary paths file one path at a time, so a graph's paths are never all encoded in memory at once.
+     */
+    public static class Writer implements Closeable {
+
+	File file;
+	DataOutputStream out;
+	boolean deflate;
+	Deflater deflater;
+
+	// bytes written so far
+	long position;
+
+	// the block being encoded
+	ByteArrayOutputStream block = new ByteArrayOutputStream();
+	int blockPathCount;
+
+	// the index so far
+	DataOutputStream sampleIndex;
+	ByteArrayOutputStream sampleIndexBytes = new ByteArrayOutputStream();
+	DataOutputStream blockIndex;
+	ByteArrayOutputStream blockIndexBytes = new ByteArrayOutputStream();
+	int[] pathOffsets = new int[1024];
+	int pathCount;
+	int blockCount;
+
+	/**
+	 * Create a binary paths file, with DEFLATE-compressed blocks if deflate is true.
+	 */
+	public Writer(File file, boolean deflate) throws IOException {
+	    this.file = file;
+	    this.deflate = deflate;
+	    if (deflate) deflater = new Deflater();
+	    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16));
+	    out.writeInt(MAGIC);
+	    out.writeInt(VERSION);
+	    out.writeInt(deflate ? FLAG_DEFLATE : 0);
+	    out.writeInt(PATHS_PER_BLOCK);
+	    position = 16;
+	    sampleIndex = new DataOutputStream(sampleIndexBytes);
+	    blockIndex = new DataOutputStream(blockIndexBytes);
+	}
+
+	/**
+	 * Add the path of a sample through the given nodes, which must be in increasing id order.
+	 */
+	public void add(Sample sample, NodeSet nodes) throws IOException {
+	    long[] ids = new long[nodes.size()];
+	    int k = 0;
+	    for (Node n : nodes) ids[k++] = n.id;
+	    add(sample, ids);
+	}
+
+	/**
+	 * Add the path of a sample through the given node ids, which must be increasing.
+	 */
+	public void add(Sample sample, long[] ids) throws IOException {
+	    sampleIndex.writeUTF(sample.name);
+	    sampleIndex.writeBoolean(sample.label!=null);
+	    if (sample.label!=null) sampleIndex.writeUTF(sample.label);
+	    if (pathCount==pathOffsets.length) pathOffsets = Arrays.copyOf(pathOffsets, 2*pathCount);
+	    pathOffsets[pathCount++] = block.size();
+	    writeVarint(ids.length);
+	    long last = 0;
+	    for (long id : ids) {
+		if (id<=last) {
+		    System.err.println("ERROR: path of "+sample.name+" is not in increasing node id order at node "+id);
+		    System.exit(1);
+		}
+		writeVarint(id-last);
+		last = id;
+	    }
+	    if (++blockPathCount==PATHS_PER_BLOCK) writeBlock();
+	}
+
+	/**
+	 * Append an unsigned LEB128 varint to the block.
+	 */
+	void writeVarint(long value) {
+	    while ((value & ~0x7fL)!=0) {
+		block.write((int) ((value & 0x7f) | 0x80));
+		value >>>= 7;
+	    }
+	    block.write((int) value);
+	}
+
+	/**
+	 * Write the current block, compressing it if need be, and record it in the index.
+	 */
+	void writeBlock() throws IOException {
+	    if (blockPathCount==0) return;
+	    byte[] raw = block.toByteArray();
+	    byte[] stored = raw;
+	    if (deflate) {
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length/2+64);
+		byte[] buffer = new byte[1<<16];
+		while (!deflater.finished()) {
+		    int length = deflater.deflate(buffer);
+		    compressed.write(buffer, 0, length);
+		}
+		stored = compressed.toByteArray();
+	    }
+	    out.write(stored);
+	    blockIndex.writeLong(position);
+	    blockIndex.writeInt(stored.length);
+	    blockIndex.writeInt(raw.length);
+	    position += stored.length;
+	    blockCount++;
+	    block.reset();
+	    blockPathCount = 0;
+	}
+
+	/**
+	 * Write the last block and the index, and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+	    writeBlock();
+	    long indexPosition = position;
+	    out.writeInt(pathCount);
+	    sampleIndexBytes.writeTo(out);
+	    out.writeInt(blockCount);
+	    blockIndexBytes.writeTo(out);
+	    for (int j=0; j<pathCount; j++) out.writeInt(pathOffsets[j]);
+	    out.writeLong(indexPosition);
+	    out.writeInt(MAGIC);
+	    out.close();
+	    if (deflater!=null) deflater.end();
+	}
+    }
+}
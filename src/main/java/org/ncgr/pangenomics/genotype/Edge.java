@@ -25,8 +25,7 @@ public class Edge extends DefaultEdge {
      */
     @Override
     public int hashCode() {
-	String sourceTarget = this.getSourceNode().toString()+":"+this.getTargetNode().toString();
-	return sourceTarget.hashCode();
+	return 31*Long.hashCode(getSourceNode().id) + Long.hashCode(getTargetNode().id);
     }
 
     /**
@@ -0,0 +1,191 @@
+package org.ncgr.pangenomics.genotype;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.util.Arrays;
+
+/**
+ * Concatenates graphs stored as nodes.txt and paths.txt (or binary paths) files, such as per-gene graphs merged into a region graph,
+ * by streaming the files: nothing is loaded into a PangenomicGraph.
+ *
+ * The node tables are written one after the other with each graph's ids offset by the largest id written before it, and each
+ * sample's paths through the graphs are merged into a single path. The paths files must be in sample order, as PangenomicGraph
+ * writes them, so the paths are merged in one pass holding just the current path of each graph.
+ *
+ * @author Sam Hokin
+ */
+public class GraphConcatenator {
+
+    /**
+     * Concatenate the graphs with the given nodes files, writing the result to nodesOut, and their paths files, if not null,
+     * merging each sample's paths to pathsOut in the given format (txt, bin or deflate).
+     */
+    public static void concatenate(File[] nodesFiles, File[] pathsFiles, File nodesOut, File pathsOut, String pathsFormat, boolean verbose) throws IOException {
+	long[] offsets = new long[nodesFiles.length];
+	long lastId = 0;
+	long nodeCount = 0;
+	try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(nodesOut), 1<<16))) {
+	    for (int g=0; g<nodesFiles.length; g++) {
+		offsets[g] = lastId;
+		try (BufferedReader reader = new BufferedReader(new FileReader(nodesFiles[g]), 1<<16)) {
+		    String line;
+		    while ((line=reader.readLine())!=null) {
+			if (line.length()==0 || line.startsWith("#")) continue;
+			int tab = line.indexOf('\t');
+			if (tab<0) {
+			    System.err.println("ERROR: "+nodesFiles[g].getName()+" line has no node id: "+line);
+			    System.exit(1);
+			}
+			long id = Long.parseLong(line.substring(0, tab)) + offsets[g];
+			out.print(id);
+			out.println(line.substring(tab));
+			lastId = Math.max(lastId, id);
+			nodeCount++;
+		    }
+		}
+		if (verbose) System.err.println("Concatenated "+nodesFiles[g].getName()+" with id offset "+offsets[g]);
+	    }
+	}
+	System.err.println("Wrote "+nodeCount+" nodes from "+nodesFiles.length+" graphs to "+nodesOut.getName());
+	if (pathsFiles==null) return;
+	// merge the paths: each round takes the lowest current sample, whose paths through all the graphs are joined
+	PathStream[] streams = new PathStream[pathsFiles.length];
+	for (int g=0; g<pathsFiles.length; g++) streams[g] = new PathStream(pathsFiles[g]);
+	PrintWriter textOut = null;
+	BinaryPathsFile.Writer binaryOut = null;
+	if (pathsFormat.equals("txt")) {
+	    textOut = new PrintWriter(new BufferedWriter(new FileWriter(pathsOut), 1<<16));
+	} else {
+	    binaryOut = new BinaryPathsFile.Writer(pathsOut, pathsFormat.equals("deflate"));
+	}
+	long[] ids = new long[1024];
+	int pathCount = 0;
+	while (true) {
+	    Sample sample = null;
+	    for (PathStream stream : streams) {
+		if (stream.sample!=null && (sample==null || stream.sample.compareTo(sample)<0)) sample = stream.sample;
+	    }
+	    if (sample==null) break;
+	    int n = 0;
+	    for (int g=0; g<streams.length; g++) {
+		PathStream stream = streams[g];
+		if (stream.sample==null || !stream.sample.equals(sample)) continue;
+		if (!String.valueOf(stream.sample.label).equals(String.valueOf(sample.label))) {
+		    System.err.println("ERROR: sample "+sample.name+" is labeled "+sample.label+" but "+stream.sample.label+" in "+pathsFiles[g].getName());
+		    System.exit(1);
+		}
+		if (n+stream.count>ids.length) ids = Arrays.copyOf(ids, Math.max(2*ids.length, n+stream.count));
+		for (int k=0; k<stream.count; k++) ids[n++] = stream.ids[k] + offsets[g];
+		stream.next();
+	    }
+	    if (textOut!=null) {
+		textOut.print(sample.toString());
+		textOut.print("\t[");
+		for (int k=0; k<n; k++) {
+		    if (k>0) textOut.print(',');
+		    textOut.print(ids[k]);
+		}
+		textOut.println("]");
+	    } else {
+		binaryOut.add(sample, Arrays.copyOf(ids, n));
+	    }
+	    pathCount++;
+	}
+	for (PathStream stream : streams) stream.close();
+	if (textOut!=null) textOut.close();
+	if (binaryOut!=null) binaryOut.close();
+	System.err.println("Wrote "+pathCount+" merged paths to "+pathsOut.getName());
+    }
+
+    /**
+     * Reads a paths.txt or binary paths file one path at a time, checking that the samples are in order.
+     */
+    static class PathStream {
+	File file;
+
+	// the current path, sample null at the end
+	Sample sample;
+	long[] ids = new long[1024];
+	int count;
+
+	// text input
+	BufferedReader reader;
+
+	// binary input: the current block and the index of the next path
+	BinaryPathsFile binaryPaths;
+	long[][] block;
+	int next;
+
+	PathStream(File file) throws IOException {
+	    this.file = file;
+	    if (BinaryPathsFile.isBinaryPathsFile(file)) {
+		binaryPaths = new BinaryPathsFile(file);
+	    } else {
+		reader = new BufferedReader(new FileReader(file), 1<<16);
+	    }
+	    next();
+	}
+
+	/**
+	 * Advance to the next path, setting sample to null at the end of the file.
+	 */
+	void next() throws IOException {
+	    Sample last = sample;
+	    if (binaryPaths!=null) {
+		if (next==binaryPaths.getPathCount()) {
+		    sample = null;
+		    return;
+		}
+		if (next%binaryPaths.pathsPerBlock==0) block = binaryPaths.readBlock(next/binaryPaths.pathsPerBlock);
+		sample = binaryPaths.getSample(next);
+		ids = block[next%binaryPaths.pathsPerBlock];
+		count = ids.length;
+		next++;
+	    } else {
+		String line;
+		do {
+		    line = reader.readLine();
+		} while (line!=null && (line.length()==0 || line.startsWith("#")));
+		if (line==null) {
+		    sample = null;
+		    return;
+		}
+		int tab1 = line.indexOf('\t');
+		int tab2 = tab1<0 ? -1 : line.indexOf('\t', tab1+1);
+		if (tab2<0) {
+		    System.err.println("ERROR: "+file.getName()+" line is not a path: "+line);
+		    System.exit(1);
+		}
+		sample = new Sample(line.substring(0, tab1), line.substring(tab1+1, tab2));
+		// parse the node ids from [1,8,17,...]
+		count = 0;
+		long id = -1;
+		for (int k=line.indexOf('[', tab2)+1; k<line.length(); k++) {
+		    char c = line.charAt(k);
+		    if (c>='0' && c<='9') {
+			id = (id<0 ? 0 : 10*id) + (c-'0');
+		    } else if (id>=0) {
+			if (count==ids.length) ids = Arrays.copyOf(ids, 2*count);
+			ids[count++] = id;
+			id = -1;
+		    }
+		}
+	    }
+	    if (last!=null && sample.compareTo(last)<=0) {
+		System.err.println("ERROR: "+file.getName()+" paths are not in sample order at "+sample.name+" (after "+last.name+"); sort the file by sample name");
+		System.exit(1);
+	    }
+	}
+
+	void close() throws IOException {
+	    if (reader!=null) reader.close();
+	    if (binaryPaths!=null) binaryPaths.close();
+	}
+    }
+}
@@ -134,8 +134,7 @@ public class GraphUtils {
         // build our PangenomicGraph
         PangenomicGraph graph = new PangenomicGraph(cmd.getOptionValue("graph"));
 	graph.verbose = true;
-	graph.loadNodesFromTXT(new File(cmd.getOptionValue("nodesfile")));
-	graph.loadPathsFromTXT(new File(cmd.getOptionValue("pathsfile")));
+	graph.loadFromTXT(new File(cmd.getOptionValue("nodesfile")), new File(cmd.getOptionValue("pathsfile")));
 	graph.tallyLabelCounts();
 	System.err.println(graph.name+" has "+graph.vertexSet().size()+" nodes and "+graph.paths.size()+" paths: "+
 			   graph.labelCounts.get("case")+"/"+graph.labelCounts.get("ctrl")+" cases/controls");
@@ -297,11 +296,15 @@ public class GraphUtils {
         // data
         out.println("@DATA");
 	///////////////////////////////////////////////////////////////////////////////////////
+	List<Node> nodes = graph.getNodes();
+	IncidenceIndex incidence = graph.getIncidenceIndex();
+	PackedGraph core = incidence.getCore();
 	Set<String> arffData = ConcurrentHashMap.newKeySet();
 	graph.paths.parallelStream().forEach(path -> {
 		String arff = path.getName();
-		for (Node node : graph.getNodes()) {
-		    if (path.traverses(node)) {
+		for (Node node : nodes) {
+		    int i = core.getNodeIndex(node.id);
+		    if (i>=0 && incidence.traverses(i, path.getIndex())) {
 			arff += ",1";
 		    } else {
 			arff += ",0";
@@ -327,13 +330,17 @@ public class GraphUtils {
      */
     public static void printSvmData(PangenomicGraph graph, PrintStream out) {
 	///////////////////////////////////////////////////////////////////////////////////////
+	List<Node> nodes = graph.getNodes();
+	IncidenceIndex incidence = graph.getIncidenceIndex();
+	PackedGraph core = incidence.getCore();
 	Set<String> svmData = ConcurrentHashMap.newKeySet();
 	graph.paths.parallelStream().forEach(path -> {
 		String svm = path.getName()+"\t"+path.getLabel();
 		int n = 0;
-		for (Node node : graph.getNodes()) {
+		for (Node node : nodes) {
 		    n++;
-		    if (path.traverses(node)) {
+		    int i = core.getNodeIndex(node.id);
+		    if (i>=0 && incidence.traverses(i, path.getIndex())) {
 			svm += "\t"+n+":+1";
 		    } else {
 			svm += "\t"+n+":-1";
@@ -362,13 +369,16 @@ public class GraphUtils {
         out.println(headerBuilder.toString());
 	////////////////////////////////////////////////////////////////////////////////////////////
 	// rows are nodes and counts of path support of each node
+	IncidenceIndex incidence = graph.getIncidenceIndex();
+	PackedGraph core = incidence.getCore();
 	Map<Node,String> pcaData = new ConcurrentHashMap<>();
 	graph.getNodes().parallelStream().forEach(node -> {
 		StringBuilder lineBuilder = new StringBuilder();
 		lineBuilder.append("N"+node.id);
 		// spin through every path, printing 0/1 if path doesn't/does traverse this node
+		int i = core.getNodeIndex(node.id);
 		for (Path path : graph.paths) {
-		    if (path.traverses(node)) {
+		    if (i>=0 && incidence.traverses(i, path.getIndex())) {
 			lineBuilder.append("\t1");
 		    } else {
 			lineBuilder.append("\t0");
@@ -109,8 +109,7 @@ public class GraphViewer {
         // get the graph
         PangenomicGraph graph = new PangenomicGraph(graphName);
         graph.verbose = true;
-	graph.loadNodesFromTXT(graphFile);
-	graph.loadPathsFromTXT(pathsFile);
+	graph.loadFromTXT(graphFile, pathsFile);
         graph.tallyLabelCounts();
         graph.buildNodePaths();
 
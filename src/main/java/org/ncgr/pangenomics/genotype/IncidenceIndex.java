@@ -0,0 +1,185 @@
+package org.ncgr.pangenomics.genotype;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Node-by-path incidence index over a PackedGraph: one bitset of traversing paths per node, plus one bitset mask per path label.
+ * Bit j of a bitset is path index j in the core. Node support, label counts and the statistics derived from them
+ * come from popcounts of ANDed words rather than walks over path lists.
+ *
+ * @author Sam Hokin
+ */
+public class IncidenceIndex {
+
+    // the core this index was built over, whose path and node indices it uses
+    PackedGraph core;
+
+    // the number of paths, and the number of 64-bit words in each bitset
+    int pathCount;
+    int wordCount;
+
+    // nodeBits[i] is the bitset of paths that traverse node i
+    long[][] nodeBits;
+
+    // label to bitset of the paths with that label
+    TreeMap<String,long[]> labelMasks = new TreeMap<>();
+
+    // an all-zero bitset for labels that aren't present
+    long[] emptyMask;
+
+    /**
+     * Build the index from a packed graph core.
+     */
+    public IncidenceIndex(PackedGraph core) {
+        this.core = core;
+        pathCount = core.getPathCount();
+        wordCount = (pathCount+63) >>> 6;
+        emptyMask = new long[wordCount];
+        nodeBits = new long[core.getNodeCount()][];
+        for (int i=0; i<nodeBits.length; i++) {
+            long[] bits = new long[wordCount];
+            for (int k=core.nodePathOffsets[i]; k<core.nodePathOffsets[i+1]; k++) {
+                int j = core.nodePathIndices[k];
+                bits[j>>>6] |= 1L << j;
+            }
+            nodeBits[i] = bits;
+        }
+        for (int j=0; j<pathCount; j++) {
+            String label = core.getPathLabel(j);
+            long[] mask = labelMasks.get(label);
+            if (mask==null) {
+                mask = new long[wordCount];
+                labelMasks.put(label, mask);
+            }
+            mask[j>>>6] |= 1L << j;
+        }
+    }
+
+    /**
+     * Return the core this index was built over.
+     */
+    public PackedGraph getCore() {
+        return core;
+    }
+
+    /**
+     * Return the number of 64-bit words in each bitset.
+     */
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Return the number of paths indexed.
+     */
+    public int getPathCount() {
+        return pathCount;
+    }
+
+    /**
+     * Return the bitset of paths that traverse the node at the given core index. Do not modify.
+     */
+    public long[] getNodeBits(int i) {
+        return nodeBits[i];
+    }
+
+    /**
+     * Return the bitset of paths with the given label (all zero if no paths have it). Do not modify.
+     */
+    public long[] getLabelMask(String label) {
+        long[] mask = labelMasks.get(label);
+        return mask==null ? emptyMask : mask;
+    }
+
+    /**
+     * Return true if the path at core index j traverses the node at core index i.
+     */
+    public boolean traverses(int i, int j) {
+        return (nodeBits[i][j>>>6] & (1L << j)) != 0;
+    }
+
+    /**
+     * Return the number of paths that traverse the node at core index i.
+     */
+    public int getPathCount(int i) {
+        return cardinality(nodeBits[i]);
+    }
+
+    /**
+     * Return the number of paths with the given label that traverse the node at core index i.
+     */
+    public int getPathCount(int i, String label) {
+        return andCardinality(nodeBits[i], getLabelMask(label));
+    }
+
+    /**
+     * Return the label counts of the paths that traverse the node at core index i, omitting zero counts.
+     */
+    public Map<String,Integer> getLabelCounts(int i) {
+        Map<String,Integer> map = new HashMap<>();
+        for (String label : labelMasks.keySet()) {
+            int count = andCardinality(nodeBits[i], labelMasks.get(label));
+            if (count>0) map.put(label, count);
+        }
+        return map;
+    }
+
+    /**
+     * Return the number of set bits in a bitset.
+     */
+    public static int cardinality(long[] a) {
+        int count = 0;
+        for (long w : a) count += Long.bitCount(w);
+        return count;
+    }
+
+    /**
+     * Return the number of set bits in the AND of two bitsets of equal length.
+     */
+    public static int andCardinality(long[] a, long[] b) {
+        int count = 0;
+        for (int k=0; k<a.length; k++) count += Long.bitCount(a[k] & b[k]);
+        return count;
+    }
+
+    /**
+     * Return a new bitset which is the AND of two bitsets of equal length.
+     */
+    public static long[] and(long[] a, long[] b) {
+        long[] c = new long[a.length];
+        for (int k=0; k<a.length; k++) c[k] = a[k] & b[k];
+        return c;
+    }
+
+    /**
+     * Return a new bitset which is the OR of two bitsets of equal length.
+     */
+    public static long[] or(long[] a, long[] b) {
+        long[] c = new long[a.length];
+        for (int k=0; k<a.length; k++) c[k] = a[k] | b[k];
+        return c;
+    }
+
+    /**
+     * Return true if the given bitset has bit j set.
+     */
+    public static boolean get(long[] a, int j) {
+        return (a[j>>>6] & (1L << j)) != 0;
+    }
+
+    /**
+     * Return the index of the first set bit at or after j, or -1 if there is none.
+     */
+    public static int nextSetBit(long[] a, int j) {
+        int k = j >>> 6;
+        if (k>=a.length) return -1;
+        long w = a[k] & (-1L << j);
+        while (true) {
+            if (w!=0) return (k<<6) + Long.numberOfTrailingZeros(w);
+            if (++k==a.length) return -1;
+            w = a[k];
+        }
+    }
+}
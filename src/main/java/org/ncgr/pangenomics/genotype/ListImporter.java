@@ -1,25 +1,25 @@
 package org.ncgr.pangenomics.genotype;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Map;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
-import java.util.Set;
 import java.util.TreeSet;
 
 /**
  * Importer for PLINK --list output files.
  *
+ * The file is parsed in parallel chunks, with the sample names on each line resolved to dense indices through a byte-keyed hash table,
+ * so each line goes straight into per-sample node arrays. Genotype frequencies and MGF filtering are done when the chunks are merged,
+ * so nodes and paths are read in a single pass.
+ *
  * @author Sam Hokin
  */
 public class ListImporter extends Importer {
@@ -44,48 +44,11 @@ public class ListImporter extends Importer {
 
     /**
      * Read the nodes in from a List file that have MGF within the given limits.
-     * This is done by reading them all in and then pruning.
-     *
      */
     @Override
     public void readNodes(double minMGF, double maxMGF) throws IOException {
-	// read all nodes first
-	readNodes();
-	// place each locus' GFs in a set
-	Map<String,TreeSet<Double>> gfMap = new HashMap<>(); // keyed by rs
-	for (Node n : nodeIdMap.values()) {
-	    TreeSet<Double> gfSet = gfMap.get(n.rs);
-	    if (gfSet==null) gfSet = new TreeSet<>();
-	    gfSet.add(n.gf);
-	    gfMap.put(n.rs, gfSet);
-	}
-	// determine the MGF for each rs
-	Map<String,Double> mgfMap = new HashMap<>();
-	for (String rs : gfMap.keySet()) {
-	    TreeSet<Double> gfSet = gfMap.get(rs);
-	    gfSet.remove(gfSet.last());   // last was majority genotype
-	    mgfMap.put(rs, gfSet.last()); // last is now largest minor genotype
-	}
-	// determine nodes to remove
-	Set<Node> nodesToRemove = new TreeSet<>();
-	for (Node n : nodeIdMap.values()) {
-	    double mgf = mgfMap.get(n.rs);
-	    if (mgf<minMGF || mgf>maxMGF) {
-		nodesToRemove.add(n);
-	    }
-	}
-	// remove nodes from TreeMap<Long,Node> nodes and HashMap<String,Node> nodeKeyMap
-	for (Node n : nodesToRemove) {
-	    if (nodeIdMap.remove(n.id)==null) {
-		System.err.println("ListImporter: removal of Node "+n+" from nodes failed.");
-		System.exit(1);
-	    }
-	    if (nodeKeyMap.remove(n.getKey())==null) {
-		System.err.println("ListImporter: removal of Node "+n+" from nodeKeyMap failed.");
-		System.exit(1);
-	    }
-	}
-	if (verbose) System.err.println("Removed "+nodesToRemove.size()+" nodes with MGF<"+minMGF+" and MGF>"+maxMGF);
+	read(new Sample[0], minMGF, maxMGF);
+	if (verbose) System.err.println("ListImporter read "+nodeIdMap.size()+" nodes from "+listFile.getName());
     }
 
     /**
@@ -99,64 +62,11 @@ public class ListImporter extends Importer {
      */
     @Override
     public void readNodes() throws IOException {
-	// maps to calculate genotype frequencies
-	Map<String,Map<String,Integer>> genotypeCounts = new HashMap<>(); // counts per identifier+genotype
-	Map<String,Integer> totalCounts = new HashMap<>();                // total counts per identifier
-	// spin through the List records storing the loaded desiredSamples and nodes in local maps
-	long nodeId = 0;
-	String line = null;
-	BufferedReader listReader = new BufferedReader(new FileReader(listFile));
-	while ((line=listReader.readLine())!=null) {
-	    String[] fields = line.split("\\t");
-	    if (fields.length==3) continue; // empty no-call line
-	    String contig = fields[0];
-	    String rs = fields[1];
-	    String genotype = fields[2];    // includes "00" if any samples
-	    String nodeKey = Node.getKey(contig, 0, 0, rs, genotype);
-	    // handle possible multiple lines with same node
-	    Node n = nodeKeyMap.get(nodeKey);
-	    if (n==null) {
-		// add a new node
-		nodeId++;
-		// plink -list files do not supply start, end; GF will be updated below
-		n = new Node(nodeId, rs, contig, 0, 0, genotype, 0.0);
-		nodeIdMap.put(nodeId, n);
-		nodeKeyMap.put(nodeKey, n);
-	    }
-	    // store this node's sample count for GF calculation
-	    int sampleCount = readSamples(line).size();
-	    if (!totalCounts.containsKey(rs)) {
-		totalCounts.put(rs, sampleCount);
-	    } else {
-		int totalSampleCount = totalCounts.get(rs) + sampleCount;
-		totalCounts.put(rs, totalSampleCount);
-	    }
-	    if (!genotypeCounts.containsKey(rs)) {
-		genotypeCounts.put(rs, new HashMap<String,Integer>());
-	    }
-	    Map<String,Integer> counts = genotypeCounts.get(rs);
-	    counts.put(genotype, sampleCount);
-	}
-	listReader.close();
-	// update the nodes with their genotype frequencies
-	for (Node n : nodeIdMap.values()) {
-	    int totalCount = totalCounts.get(n.rs); // identifier is called rs from NCBI
-	    int genotypeCount = genotypeCounts.get(n.rs).get(n.genotype);
-	    n.gf = (double)genotypeCount / (double)totalCount;
-	}
-	if (verbose) {
-	    System.err.println("ListImporter read "+nodeIdMap.size()+" nodes from "+listFile.getName());
-	}
+	readNodes(0.0, 1.0);
     }
 
     /**
-     * Load paths through the desired nodes for samples given in a labels file
-     * Each locus has four lines: HOM, HET, REF, and NC with each sample listed TWICE!!
-     * contig   identifier              gtype   smp1    smp1    smp2    smp2    smp3    smp3    smp4   ...
-     * 6	AA_A_9_30018537_FS	AA	174	174	509	509	1099	1099	1360   ...
-     * 6	AA_A_9_30018537_FS	AP	42	42	58	58	76	76	107    ...
-     * 6	AA_A_9_30018537_FS	PP	45	45	55	55	57	57	59     ...
-     * 6	AA_A_9_30018537_FS	00
+     * Load paths through the loaded nodes for samples given in a labels file.
      */
     @Override
     public void readPaths(File labelsFile) throws IOException {
@@ -168,53 +78,126 @@ public class ListImporter extends Importer {
 	    System.err.println("ERROR: ListImporter nodeKeyMap is empty.");
 	    System.exit(1);
 	}
-	// load the desired samples (with labels)
-	TreeSet<Sample> desiredSamples = Sample.readSamples(labelsFile);
-	// spin through the list file
-	String line = null;
-	BufferedReader listReader = new BufferedReader(new FileReader(listFile));
-	while ((line=listReader.readLine())!=null) {
-	    String[] fields = line.split("\\t");
-	    if (fields.length==3) continue; // empty no-call line
-	    String contig = fields[0];
-	    String rs = fields[1];
-	    String genotype = fields[2];    // includes "00" if any samples
-	    String nodeKey = Node.getKey(contig, 0, 0, rs, genotype);
-	    Node n = nodeKeyMap.get(nodeKey);
-	    if (n==null) continue; // purged node
-	    TreeSet<Sample> lineSamples = readSamples(line); // these do not have labels
-	    for (Sample sample : desiredSamples) {
-		if (!lineSamples.contains(sample)) continue; // this sample isn't in this call
-		// samples per node
-		TreeSet<Sample> samples = nodeSamples.get(n);
-		if (samples==null) {
-		    samples = new TreeSet<>();
-		}
-		samples.add(sample);
-		nodeSamples.put(n, samples);
-		// nodes per sample
-		NodeSet sampleNodes = sampleNodeSets.get(sample);
-		if (sampleNodes==null) {
-		    sampleNodes = new NodeSet();
-		}
-		sampleNodes.add(n);
-		sampleNodeSets.put(sample, sampleNodes);
-	    }
-	}
-	listReader.close();
+	read(Sample.readSamples(labelsFile).toArray(new Sample[0]), 0.0, 1.0);
 	if (verbose) System.err.println("ListImporter loaded "+sampleNodeSets.size()+" samples from "+listFile.getName());
     }
 
     /**
-     * Utility to read the sample names from a list file line. (Sample.label is null, of course.)
+     * Read the nodes with MGF within the given limits and the paths of the samples in the labels file in a single pass.
      */
-    TreeSet<Sample> readSamples(String line) {
-	TreeSet<Sample> samples = new TreeSet<>();
-	String[] fields = line.split("\\t");
-	for (int i=3; i<fields.length; i++) {
-	    samples.add(new Sample(fields[i], null));
+    public void readNodesAndPaths(File labelsFile, double minMGF, double maxMGF) throws IOException {
+	read(Sample.readSamples(labelsFile).toArray(new Sample[0]), minMGF, maxMGF);
+	if (verbose) System.err.println("ListImporter read "+nodeIdMap.size()+" nodes and "+sampleNodeSets.size()+" sample paths from "+listFile.getName());
+    }
+
+    /**
+     * Parse the list file in chunks and merge them in order. New nodes are created, numbered in order of appearance, and those of loci
+     * outside the MGF limits removed, unless nodes have already been loaded, in which case each line's node is looked up in nodeKeyMap.
+     */
+    void read(Sample[] sampleArray, double minMGF, double maxMGF) throws IOException {
+	boolean lookupNodes = nodeKeyMap.size()>0;
+	long[] bounds = TXTImporter.getChunkBounds(listFile);
+	List<List<Line>> chunks = TXTImporter.parseChunks(listFile, bounds, chunk -> {
+		List<Line> lines = new ArrayList<>();
+		// the desired samples are indices 0..sampleArray.length-1, other samples are indexed as they're seen
+		NameIndex names = new NameIndex(sampleArray);
+		int[] stamps = new int[2*sampleArray.length+16];
+		int[] lineSamples = new int[16];
+		int[] tabs = new int[3];
+		int lineNumber = 0;
+		while (chunk.nextLine()) {
+		    if (chunk.length==0) continue;
+		    if (chunk.findTabs(tabs)<2) {
+			System.err.println("ERROR: "+listFile.getName()+" line has fewer than 3 fields: "+chunk.getLineString());
+			System.exit(1);
+		    }
+		    lineNumber++;
+		    Line line = new Line();
+		    line.contig = chunk.getString(0, tabs[0]);
+		    line.rs = chunk.getString(tabs[0]+1, tabs[1]);
+		    int end = chunk.nextTab(tabs[1]+1);
+		    line.genotype = chunk.getString(tabs[1]+1, end);
+		    // count the distinct samples on the line, keeping the desired ones
+		    int n = 0;
+		    while (end<chunk.length) {
+			int start = end+1;
+			end = chunk.nextTab(start);
+			int k = names.getIndex(chunk.line, start, end);
+			if (k>=stamps.length) stamps = Arrays.copyOf(stamps, 2*k);
+			if (stamps[k]==lineNumber) continue;
+			stamps[k] = lineNumber;
+			line.count++;
+			if (k<sampleArray.length) {
+			    if (n==lineSamples.length) lineSamples = Arrays.copyOf(lineSamples, 2*n);
+			    lineSamples[n++] = k;
+			}
+		    }
+		    line.samples = Arrays.copyOf(lineSamples, n);
+		    lines.add(line);
+		}
+		return lines;
+	    });
+	// merge the chunks in order: create or look up each line's node, tallying the genotype counts per locus
+	Map<String,Integer> totalCounts = new HashMap<>();                // total counts per identifier
+	Map<String,Map<String,Integer>> genotypeCounts = new HashMap<>(); // counts per identifier+genotype
+	Node[][] sampleNodes = new Node[sampleArray.length][16];
+	int[] sampleNodeCounts = new int[sampleArray.length];
+	long nodeId = 0;
+	for (List<Line> lines : chunks) {
+	    for (Line line : lines) {
+		String nodeKey = Node.getKey(line.contig, 0, 0, line.rs, line.genotype);
+		Node n = nodeKeyMap.get(nodeKey);
+		if (lookupNodes) {
+		    if (n==null) continue; // purged node
+		} else {
+		    if (line.count==0) continue; // empty no-call line
+		    if (n==null) {
+			// plink -list files do not supply start, end; GF is set below
+			n = new Node(++nodeId, line.rs, line.contig, 0, 0, line.genotype, 0.0);
+			nodeIdMap.put(n.id, n);
+			nodeKeyMap.put(nodeKey, n);
+		    }
+		    totalCounts.merge(line.rs, line.count, Integer::sum);
+		    genotypeCounts.computeIfAbsent(line.rs, rs -> new HashMap<>()).put(line.genotype, line.count);
+		}
+		for (int s : line.samples) {
+		    if (sampleNodeCounts[s]==sampleNodes[s].length) sampleNodes[s] = Arrays.copyOf(sampleNodes[s], 2*sampleNodeCounts[s]);
+		    sampleNodes[s][sampleNodeCounts[s]++] = n;
+		}
+	    }
+	}
+	if (!lookupNodes) {
+	    // set the genotype frequencies, then remove the nodes of loci outside the MGF limits
+	    Map<String,TreeSet<Double>> gfMap = new HashMap<>(); // keyed by rs
+	    for (Node n : nodeIdMap.values()) {
+		n.count = genotypeCounts.get(n.rs).get(n.genotype);
+		n.gf = (double) n.count / (double) totalCounts.get(n.rs);
+		gfMap.computeIfAbsent(n.rs, rs -> new TreeSet<>()).add(n.gf);
+	    }
+	    int removedCount = 0;
+	    if (minMGF>0.0 || maxMGF<1.0) {
+		for (Node n : new ArrayList<>(nodeIdMap.values())) {
+		    // the MGF is the largest minor genotype frequency, below the majority's
+		    Double mgf = gfMap.get(n.rs).lower(gfMap.get(n.rs).last());
+		    if (mgf==null) mgf = 0.0;
+		    if (mgf<minMGF || mgf>maxMGF) {
+			nodeIdMap.remove(n.id);
+			nodeKeyMap.remove(n.getKey());
+			removedCount++;
+		    }
+		}
+	    }
+	    if (verbose) System.err.println("Removed "+removedCount+" nodes with MGF<"+minMGF+" and MGF>"+maxMGF);
+	}
+	// form the (immutable) NodeSets from the sample nodes that remain
+	for (int s=0; s<sampleArray.length; s++) {
+	    int m = 0;
+	    for (int i=0; i<sampleNodeCounts[s]; i++) {
+		Node n = sampleNodes[s][i];
+		if (lookupNodes || nodeIdMap.get(n.id)==n) sampleNodes[s][m++] = n;
+	    }
+	    if (m>0) sampleNodeSets.put(sampleArray[s], new NodeSet(Arrays.copyOf(sampleNodes[s], m), false));
 	}
-	return samples;
     }
 
     /**
@@ -223,4 +206,78 @@ public class ListImporter extends Importer {
     public void setVerbose(boolean flag) {
 	verbose = flag;
     }
+
+    /**
+     * A parsed list file line: the locus and genotype, the number of distinct samples, and the indices of the desired samples.
+     */
+    static class Line {
+	String contig;
+	String rs;
+	String genotype;
+	int count;
+	int[] samples;
+    }
+
+    /**
+     * An open-addressing hash table from sample names, as UTF-8 bytes, to dense indices, so names are resolved without creating Strings.
+     */
+    static class NameIndex {
+	byte[][] keys = new byte[64][];
+	int[] indices = new int[64];
+	int size;
+
+	/**
+	 * Construct with the given samples as indices 0..samples.length-1.
+	 */
+	NameIndex(Sample[] samples) {
+	    for (Sample sample : samples) {
+		byte[] name = sample.name.getBytes(StandardCharsets.UTF_8);
+		getIndex(name, 0, name.length);
+	    }
+	}
+
+	/**
+	 * Return the index of the name in b[start..end), adding it with the next index if it's new.
+	 */
+	int getIndex(byte[] b, int start, int end) {
+	    int hash = 1;
+	    for (int i=start; i<end; i++) hash = 31*hash + b[i];
+	    int mask = keys.length-1;
+	    int slot = (hash ^ (hash>>>16)) & mask;
+	    while (keys[slot]!=null) {
+		byte[] key = keys[slot];
+		if (key.length==end-start && regionEquals(key, b, start)) return indices[slot];
+		slot = (slot+1) & mask;
+	    }
+	    keys[slot] = Arrays.copyOfRange(b, start, end);
+	    indices[slot] = size++;
+	    if (2*size>keys.length) rehash();
+	    return size-1;
+	}
+
+	static boolean regionEquals(byte[] key, byte[] b, int start) {
+	    for (int i=0; i<key.length; i++) {
+		if (key[i]!=b[start+i]) return false;
+	    }
+	    return true;
+	}
+
+	void rehash() {
+	    byte[][] oldKeys = keys;
+	    int[] oldIndices = indices;
+	    keys = new byte[2*oldKeys.length][];
+	    indices = new int[2*oldKeys.length];
+	    int mask = keys.length-1;
+	    for (int j=0; j<oldKeys.length; j++) {
+		if (oldKeys[j]==null) continue;
+		byte[] key = oldKeys[j];
+		int hash = 1;
+		for (byte c : key) hash = 31*hash + c;
+		int slot = (hash ^ (hash>>>16)) & mask;
+		while (keys[slot]!=null) slot = (slot+1) & mask;
+		keys[slot] = key;
+		indices[slot] = oldIndices[j];
+	    }
+	}
+    }
 }
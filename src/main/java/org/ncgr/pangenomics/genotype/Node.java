@@ -18,6 +18,7 @@ public class Node implements Comparable, Serializable {
     public String rs;        // NCBI rsID or other identifier
     public String genotype;
     public double gf;        // genotype (not allele) frequency
+    public int count;        // number of source samples with this genotype, the numerator of gf (0 if not known)
     public boolean isCalled;
 
     /**
@@ -42,10 +43,10 @@ public class Node implements Comparable, Serializable {
     }
 
     /**
-     * Construct from a nodes.txt file line.
-     * 0   1           2      3        4        5        6
-     * id  rs          contig start    end      genotype gf
-     * 1   rs112943240 6      25726329 25726329 C/CTT    0.43
+     * Construct from a nodes.txt file line, whose count column is optional.
+     * 0   1           2      3        4        5        6    7
+     * id  rs          contig start    end      genotype gf   count
+     * 1   rs112943240 6      25726329 25726329 C/CTT    0.43 43
      */
     public Node(String line) {
 	String[] parts = line.split("\t");
@@ -56,6 +57,7 @@ public class Node implements Comparable, Serializable {
 	end = Integer.parseInt(parts[4]);
 	genotype = parts[5];
 	gf = Double.parseDouble(parts[6]);
+	if (parts.length>7) count = Integer.parseInt(parts[7]);
 	if (rs.equals(".")) rs = null;
 	isCalled = !isNoCall();
     }
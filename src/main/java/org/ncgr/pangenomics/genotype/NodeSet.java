@@ -6,14 +6,12 @@ import java.io.IOException;
 
 import java.text.DecimalFormat;
 
+import java.util.AbstractSet;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.StringJoiner;
-import java.util.List;
-import java.util.LinkedList;
-import java.util.Set;
-import java.util.HashSet;
-import java.util.TreeSet;
 import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
@@ -25,75 +23,240 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 /**
- * Encapsulates a set of nodes in a Graph. NodeSets are comparable based on their content.
+ * Encapsulates an immutable set of nodes in a Graph, stored as an array of Nodes sorted by id along with their ids.
+ * A 64-bit fingerprint of the ids is computed on construction and used for hashCode() and as a fast equality check,
+ * so NodeSets can be used directly as map keys. NodeSets are comparable based on their string representation.
  *
  * @author Sam Hokin
  */
-public class NodeSet extends TreeSet<Node> implements Comparable {
+public class NodeSet extends AbstractSet<Node> implements Comparable {
     static DecimalFormat dec = new DecimalFormat("0.00");
 
+    // the nodes, ascending by id, and their ids
+    private final Node[] nodes;
+    private final long[] ids;
+
+    // 64-bit fingerprint of the ids, and the hash code derived from it
+    private final long fingerprint;
+    private final int hash;
+
+    // the string representation, cached when first needed
+    private String string;
+
     /**
      * Empty constructor.
      */
     public NodeSet() {
-        super();
+        this(new Node[0], true);
     }
 
     /**
-     * Construct given a Collection of Nodes.
+     * Construct given a Collection of Nodes. Nodes with duplicate ids are only included once.
      */
     public NodeSet(Collection<Node> nodes) {
-        this.addAll(nodes);
+        this(nodes.toArray(new Node[0]), false);
     }
 
     /**
      * Construct given a single Node.
      */
     public NodeSet(Node node) {
-	this.add(node);
+        this(new Node[]{node}, true);
     }
 
     /**
      * Construct given a string representation but no underlying graph.
      */
     public NodeSet(String str) {
-	String afterOpenBracket = str.split("\\[")[1];
-	String nodesWithCommas = afterOpenBracket.split("\\]")[0];
-        List<String> nodeIds = Arrays.asList(nodesWithCommas.split(","));
-        for (String s : nodeIds) {
-            this.add(new Node(Long.parseLong(s)));
-        }
+        this(parseNodes(str), false);
     }
 
     /**
      * Construct from a map of id to Nodes and a string representation, e.g. "[5,7,15,33]".
+     * Ids not in the map are ignored.
      */
     public NodeSet(Map<Long,Node> nodeMap, String str) {
-        Set<String> nodeStrings = new HashSet<>(Arrays.asList(str.replace("[","").replace("]","").split(",")));
-        for (String s : nodeStrings) {
-            long id = Long.parseLong(s);
-            if (nodeMap.containsKey(id)) this.add(nodeMap.get(id));
+        this(lookupNodes(nodeMap, str), false);
+    }
+
+    /**
+     * Construct from an array of Nodes, which is used as is if already sorted by id without duplicates.
+     */
+    NodeSet(Node[] array, boolean sorted) {
+        if (!sorted) {
+            Arrays.sort(array);
+            int n = 0;
+            for (int i=0; i<array.length; i++) {
+                if (n==0 || array[i].id!=array[n-1].id) array[n++] = array[i];
+            }
+            if (n<array.length) array = Arrays.copyOf(array, n);
         }
+        nodes = array;
+        ids = new long[nodes.length];
+        long fp = 0x9E3779B97F4A7C15L;
+        for (int i=0; i<nodes.length; i++) {
+            ids[i] = nodes[i].id;
+            fp = (fp ^ mix(ids[i])) * 0x100000001B3L;
+        }
+        fingerprint = mix(fp + nodes.length);
+        hash = (int) (fingerprint ^ (fingerprint>>>32));
+    }
+
+    /**
+     * The splitmix64 finalizer, used to spread the bits of the ids in the fingerprint.
+     */
+    static long mix(long z) {
+        z = (z ^ (z>>>30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z>>>27)) * 0x94D049BB133111EBL;
+        return z ^ (z>>>31);
     }
 
     /**
-     * Return the result of merging two NodeSets.
+     * Parse bare Node(id) instances from a string like "[5,7,15,33]".
+     */
+    static Node[] parseNodes(String str) {
+        int open = str.indexOf('[');
+        int close = str.indexOf(']', open+1);
+        String nodesWithCommas = str.substring(open+1, close<0 ? str.length() : close);
+        if (nodesWithCommas.length()==0) return new Node[0];
+        String[] fields = nodesWithCommas.split(",");
+        Node[] array = new Node[fields.length];
+        for (int i=0; i<fields.length; i++) {
+            array[i] = new Node(Long.parseLong(fields[i]));
+        }
+        return array;
+    }
+
+    /**
+     * Look up the Nodes in a map of id to Node given a string like "[5,7,15,33]".
+     */
+    static Node[] lookupNodes(Map<Long,Node> nodeMap, String str) {
+        String[] fields = str.replace("[","").replace("]","").split(",");
+        Node[] array = new Node[fields.length];
+        int n = 0;
+        for (String s : fields) {
+            if (s.length()==0) continue;
+            Node node = nodeMap.get(Long.parseLong(s));
+            if (node!=null) array[n++] = node;
+        }
+        return Arrays.copyOf(array, n);
+    }
+
+    /**
+     * Return the result of merging two NodeSets, a linear merge of their sorted arrays.
      * NOTE: does NOT run update() on the result!
      */
     public static NodeSet merge(NodeSet ns1, NodeSet ns2) {
-        NodeSet merged = new NodeSet();
-        merged.addAll(ns1);
-        merged.addAll(ns2);
-        return merged;
+        Node[] merged = new Node[ns1.nodes.length+ns2.nodes.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i<ns1.ids.length && j<ns2.ids.length) {
+            if (ns1.ids[i]<ns2.ids[j]) {
+                merged[n++] = ns1.nodes[i++];
+            } else if (ns1.ids[i]>ns2.ids[j]) {
+                merged[n++] = ns2.nodes[j++];
+            } else {
+                merged[n++] = ns1.nodes[i++];
+                j++;
+            }
+        }
+        while (i<ns1.ids.length) merged[n++] = ns1.nodes[i++];
+        while (j<ns2.ids.length) merged[n++] = ns2.nodes[j++];
+        if (n<merged.length) merged = Arrays.copyOf(merged, n);
+        return new NodeSet(merged, true);
+    }
+
+    /**
+     * Return the number of nodes.
+     */
+    @Override
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Return a read-only iterator over the nodes in ascending id order.
+     */
+    @Override
+    public Iterator<Node> iterator() {
+        return new Iterator<Node>() {
+            int i = 0;
+            public boolean hasNext() {
+                return i<nodes.length;
+            }
+            public Node next() {
+                if (i>=nodes.length) throw new NoSuchElementException();
+                return nodes[i++];
+            }
+        };
     }
 
     /**
-     * Equality if exactly the same nodes, meaning the same string.
+     * Return true if this NodeSet contains a node with the id of the given Node.
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Node)) return false;
+        return Arrays.binarySearch(ids, ((Node) o).id)>=0;
+    }
+
+    /**
+     * Return true if this NodeSet contains all the nodes in the given collection; a linear merge if it's a NodeSet.
+     */
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        if (!(c instanceof NodeSet)) return super.containsAll(c);
+        NodeSet that = (NodeSet) c;
+        if (that.ids.length>this.ids.length) return false;
+        int i = 0;
+        for (long id : that.ids) {
+            while (i<ids.length && ids[i]<id) i++;
+            if (i==ids.length || ids[i]!=id) return false;
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Return the node with the lowest id.
+     */
+    public Node first() {
+        if (nodes.length==0) throw new NoSuchElementException();
+        return nodes[0];
+    }
+
+    /**
+     * Return the node with the highest id.
+     */
+    public Node last() {
+        if (nodes.length==0) throw new NoSuchElementException();
+        return nodes[nodes.length-1];
+    }
+
+    /**
+     * Return a copy of the node ids, ascending.
+     */
+    public long[] getIds() {
+        return ids.clone();
+    }
+
+    /**
+     * Return the 64-bit fingerprint of the node ids.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Equality if exactly the same node ids; the fingerprints are compared first.
      */
     @Override
     public boolean equals(Object o) {
+        if (this==o) return true;
+        if (!(o instanceof NodeSet)) return false;
 	NodeSet that = (NodeSet) o;
-	return this.toString().equals(that.toString());
+	return this.fingerprint==that.fingerprint && Arrays.equals(this.ids, that.ids);
     }
 
     /**
@@ -101,7 +264,7 @@ public class NodeSet extends TreeSet<Node> implements Comparable {
      */
     @Override
     public int hashCode() {
-	return this.toString().hashCode();
+	return hash;
     }
 
     /**
@@ -109,6 +272,7 @@ public class NodeSet extends TreeSet<Node> implements Comparable {
      */
     public int compareTo(Object o) {
 	NodeSet that = (NodeSet) o;
+        if (this.equals(that)) return 0;
         return this.toString().compareTo(that.toString());
     }
 
@@ -117,14 +281,14 @@ public class NodeSet extends TreeSet<Node> implements Comparable {
      */
     @Override
     public String toString() {
-        String s = "[";
-        StringJoiner joiner = new StringJoiner(",");
-        for (Node node : this) {
-            joiner.add(String.valueOf(node.id));
+        if (string==null) {
+            StringJoiner joiner = new StringJoiner(",", "[", "]");
+            for (long id : ids) {
+                joiner.add(String.valueOf(id));
+            }
+            string = joiner.toString();
         }
-        s += joiner.toString();
-        s += "]";
-        return s;
+        return string;
     }
 
     /**
@@ -141,11 +305,11 @@ public class NodeSet extends TreeSet<Node> implements Comparable {
      * @return result distance, or -1
      */
     public int distanceFrom(NodeSet that) {
-        // copy the NodeSets into lists for indexed access
-        List<Node> left = new LinkedList<>(this);
-        List<Node> right = new LinkedList<>(that);
-        int n = left.size();
-        int m = right.size();
+        // the sorted id arrays give indexed access
+        long[] left = this.ids;
+        long[] right = that.ids;
+        int n = left.length;
+        int m = right.length;
         // trivial distance
         if (n == 0) {
             return m;
@@ -153,31 +317,31 @@ public class NodeSet extends TreeSet<Node> implements Comparable {
             return n;
         }
         if (n>m) {
-            // swap the Lists to consume less memory
-            final List<Node> tmp = left;
+            // swap the arrays to consume less memory
+            final long[] tmp = left;
             left = right;
             right = tmp;
             n = m;
-            m = right.size();
+            m = right.length;
         }
         int[] p = new int[n + 1];
-        // indexes into Lists left and right
+        // indexes into arrays left and right
         int i; // iterates through left
         int j; // iterates through right
         int upper_left;
         int upper;
-        Node rightJ; // jth Node of right
+        long rightJ; // jth id of right
         int cost; // cost
         for (i=0; i<=n; i++) {
             p[i] = i;
         }
         for (j=1; j<=m; j++) {
             upper_left = p[0];
-            rightJ = right.get(j - 1);
+            rightJ = right[j - 1];
             p[0] = j;
             for (i=1; i<=n; i++) {
                 upper = p[i];
-                cost = left.get(i-1).equals(rightJ) ? 0 : 1;
+                cost = left[i-1]==rightJ ? 0 : 1;
                 // minimum of cell to the left+1, to the top+1, diagonally left and up +cost
                 p[i] = Math.min(Math.min(p[i - 1] + 1, p[i] + 1), upper_left + cost);
                 upper_left = upper;
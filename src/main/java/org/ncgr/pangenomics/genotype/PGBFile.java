@@ -0,0 +1,399 @@
+package org.ncgr.pangenomics.genotype;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A binary snapshot of a PangenomicGraph (.pgb), read by memory-mapping the file.
+ * Nothing is parsed on open: the sections are located from their counts and Nodes, Samples and strings
+ * are materialized from the mapped columns only when asked for. The path node indices, which are most of a large graph's snapshot,
+ * are mapped in segments so the file isn't limited to the 2GB of a single buffer; the sections before them must fit in one.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * int magic "PGB1", int version
+ * long nodes.txt length, long nodes.txt lastModified, long paths.txt length, long paths.txt lastModified
+ * int stringCount, int[stringCount+1] UTF-8 byte offsets, byte[] UTF-8 string data
+ * int graph name string
+ * int nodeCount, long[] id, int[] rs string (-1=null), int[] contig string, int[] start, int[] end, int[] genotype string, double[] gf,
+ *     int[] count (version 2 on)
+ * int sampleCount, int[] name string, int[] label string (-1=null)
+ * int pathCount, int[] sample index, int[pathCount+1] offsets into node indices, int[] node indices
+ * </pre>
+ * Node indices refer to the node table, which is in ascending id order.
+ *
+ * @author Sam Hokin
+ */
+public class PGBFile {
+
+    static final int MAGIC = 0x50474231; // "PGB1"
+    static final int VERSION = 2;
+
+    // the path node indices are mapped in segments of this many bytes, a multiple of 4 so no index spans two segments
+    static final int SEGMENT_BYTES = 1<<30;
+
+    // the mapped file up to (at least) the path node indices
+    ByteBuffer buffer;
+
+    // lengths and modification times of the nodes.txt and paths.txt files the snapshot was made from (-1 if none)
+    long nodesFileLength;
+    long nodesFileModified;
+    long pathsFileLength;
+    long pathsFileModified;
+
+    // string dictionary: positions of the offsets and the data, and the strings decoded so far
+    int stringCount;
+    int stringOffsetsPos;
+    int stringDataPos;
+    String[] strings;
+
+    String name;
+
+    // node table columns
+    int nodeCount;
+    int nodeIdPos;
+    int nodeRsPos;
+    int nodeContigPos;
+    int nodeStartPos;
+    int nodeEndPos;
+    int nodeGenotypePos;
+    int nodeGfPos;
+    int nodeCountPos;   // -1 for version 1, which has no counts
+    Node[] nodes;
+
+    // sample table columns
+    int sampleCount;
+    int sampleNamePos;
+    int sampleLabelPos;
+    Sample[] samples;
+
+    // path table
+    int pathCount;
+    int pathSamplePos;
+    int pathOffsetsPos;
+
+    // the file position of the path node indices, and their mapped segments
+    long pathNodesPos;
+    ByteBuffer[] pathNodeSegments;
+
+    /**
+     * Open a .pgb file by memory-mapping it.
+     */
+    public PGBFile(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+            readTables(file);
+            // the path node indices, in segments
+            if (pathNodesPos>buffer.limit()) {
+                System.err.println("ERROR: "+file.getName()+" node, sample and path tables are too large to map ("+pathNodesPos+" bytes).");
+                System.exit(1);
+            }
+            long length = channel.size() - pathNodesPos;
+            pathNodeSegments = new ByteBuffer[(int) ((length+SEGMENT_BYTES-1)/SEGMENT_BYTES)];
+            for (int k=0; k<pathNodeSegments.length; k++) {
+                long start = (long) k*SEGMENT_BYTES;
+                pathNodeSegments[k] = channel.map(FileChannel.MapMode.READ_ONLY, pathNodesPos+start, Math.min(SEGMENT_BYTES, length-start));
+            }
+        }
+    }
+
+    /**
+     * Locate the sections from the header and table counts in the mapped buffer.
+     */
+    void readTables(File file) {
+        if (buffer.getInt(0)!=MAGIC) {
+            System.err.println("ERROR: "+file.getName()+" is not a .pgb file.");
+            System.exit(1);
+        }
+        int version = buffer.getInt(4);
+        if (version<1 || version>VERSION) {
+            System.err.println("ERROR: "+file.getName()+" has unsupported .pgb version "+version);
+            System.exit(1);
+        }
+        nodesFileLength = buffer.getLong(8);
+        nodesFileModified = buffer.getLong(16);
+        pathsFileLength = buffer.getLong(24);
+        pathsFileModified = buffer.getLong(32);
+        int pos = 40;
+        // strings
+        stringCount = buffer.getInt(pos);
+        stringOffsetsPos = pos + 4;
+        stringDataPos = stringOffsetsPos + 4*(stringCount+1);
+        strings = new String[stringCount];
+        pos = stringDataPos + buffer.getInt(stringOffsetsPos + 4*stringCount);
+        name = getString(buffer.getInt(pos));
+        pos += 4;
+        // nodes
+        nodeCount = buffer.getInt(pos);
+        nodeIdPos = pos + 4;
+        nodeRsPos = nodeIdPos + 8*nodeCount;
+        nodeContigPos = nodeRsPos + 4*nodeCount;
+        nodeStartPos = nodeContigPos + 4*nodeCount;
+        nodeEndPos = nodeStartPos + 4*nodeCount;
+        nodeGenotypePos = nodeEndPos + 4*nodeCount;
+        nodeGfPos = nodeGenotypePos + 4*nodeCount;
+        nodes = new Node[nodeCount];
+        pos = nodeGfPos + 8*nodeCount;
+        nodeCountPos = -1;
+        if (version>=2) {
+            nodeCountPos = pos;
+            pos += 4*nodeCount;
+        }
+        // samples
+        sampleCount = buffer.getInt(pos);
+        sampleNamePos = pos + 4;
+        sampleLabelPos = sampleNamePos + 4*sampleCount;
+        samples = new Sample[sampleCount];
+        pos = sampleLabelPos + 4*sampleCount;
+        // paths
+        pathCount = buffer.getInt(pos);
+        pathSamplePos = pos + 4;
+        pathOffsetsPos = pathSamplePos + 4*pathCount;
+        pathNodesPos = pathOffsetsPos + 4L*(pathCount+1);
+    }
+
+    /**
+     * Return the graph name stored in the snapshot.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the string with the given dictionary index, null for -1.
+     */
+    String getString(int s) {
+        if (s<0) return null;
+        if (strings[s]==null) {
+            int start = buffer.getInt(stringOffsetsPos + 4*s);
+            int end = buffer.getInt(stringOffsetsPos + 4*(s+1));
+            byte[] bytes = new byte[end-start];
+            ByteBuffer data = buffer.duplicate();
+            data.position(stringDataPos+start);
+            data.get(bytes);
+            strings[s] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings[s];
+    }
+
+    /**
+     * Return the number of nodes.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Return the id of the node at index i without materializing it.
+     */
+    public long getNodeId(int i) {
+        return buffer.getLong(nodeIdPos + 8*i);
+    }
+
+    /**
+     * Return the node at index i, materializing it on first request.
+     */
+    public Node getNode(int i) {
+        if (nodes[i]==null) {
+            nodes[i] = new Node(getNodeId(i),
+                                getString(buffer.getInt(nodeRsPos + 4*i)),
+                                getString(buffer.getInt(nodeContigPos + 4*i)),
+                                buffer.getInt(nodeStartPos + 4*i),
+                                buffer.getInt(nodeEndPos + 4*i),
+                                getString(buffer.getInt(nodeGenotypePos + 4*i)),
+                                buffer.getDouble(nodeGfPos + 8*i));
+            if (nodeCountPos>=0) nodes[i].count = buffer.getInt(nodeCountPos + 4*i);
+        }
+        return nodes[i];
+    }
+
+    /**
+     * Return the number of samples.
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Return the sample at index s, materializing it on first request.
+     */
+    public Sample getSample(int s) {
+        if (samples[s]==null) {
+            samples[s] = new Sample(getString(buffer.getInt(sampleNamePos + 4*s)), getString(buffer.getInt(sampleLabelPos + 4*s)));
+        }
+        return samples[s];
+    }
+
+    /**
+     * Return the number of paths.
+     */
+    public int getPathCount() {
+        return pathCount;
+    }
+
+    /**
+     * Return the sample of the path at index j.
+     */
+    public Sample getPathSample(int j) {
+        return getSample(buffer.getInt(pathSamplePos + 4*j));
+    }
+
+    /**
+     * Return the node indices of the path at index j, in order of traversal, read in bulk from the mapped segments.
+     */
+    public int[] getPathNodes(int j) {
+        int start = buffer.getInt(pathOffsetsPos + 4*j);
+        int end = buffer.getInt(pathOffsetsPos + 4*(j+1));
+        int[] indices = new int[end-start];
+        long pos = 4L*start;
+        int k = 0;
+        while (k<indices.length) {
+            ByteBuffer data = pathNodeSegments[(int) (pos/SEGMENT_BYTES)].duplicate();
+            data.position((int) (pos%SEGMENT_BYTES));
+            int n = Math.min(indices.length-k, data.remaining()/4);
+            data.asIntBuffer().get(indices, k, n);
+            k += n;
+            pos += 4L*n;
+        }
+        return indices;
+    }
+
+    /**
+     * Return true if this snapshot was made from the given nodes.txt and paths.txt files as they are now.
+     */
+    public boolean isSnapshotOf(File nodesFile, File pathsFile) {
+        return nodesFile.length()==nodesFileLength && nodesFile.lastModified()==nodesFileModified &&
+            pathsFile.length()==pathsFileLength && pathsFile.lastModified()==pathsFileModified;
+    }
+
+    /**
+     * Return the snapshot file that goes with a paths.txt file: graph.paths.txt -> graph.pgb.
+     */
+    public static File getSnapshotFile(File pathsFile) {
+        String path = pathsFile.getPath();
+        if (path.endsWith(".paths.txt")) {
+            return new File(path.substring(0, path.length()-".paths.txt".length())+".pgb");
+        } else {
+            return new File(path+".pgb");
+        }
+    }
+
+    /**
+     * Write a snapshot of the given graph, recording the nodes.txt and paths.txt files it represents (either may be null).
+     */
+    public static void write(PangenomicGraph graph, File file, File nodesFile, File pathsFile) throws IOException {
+        PackedGraph core = graph.getCore();
+        int nodeCount = core.getNodeCount();
+        int pathCount = core.getPathCount();
+        // string dictionary and sample table
+        Map<String,Integer> stringIndex = new HashMap<>();
+        List<String> stringList = new ArrayList<>();
+        Map<Sample,Integer> sampleIndex = new TreeMap<>();
+        List<Sample> sampleList = new ArrayList<>();
+        int nameString = addString(graph.name, stringIndex, stringList);
+        int[] rs = new int[nodeCount];
+        int[] contig = new int[nodeCount];
+        int[] genotype = new int[nodeCount];
+        for (int i=0; i<nodeCount; i++) {
+            Node n = core.getNodeAt(i);
+            rs[i] = addString(n.rs, stringIndex, stringList);
+            contig[i] = addString(n.contig, stringIndex, stringList);
+            genotype[i] = addString(n.genotype, stringIndex, stringList);
+        }
+        int[] pathSamples = new int[pathCount];
+        for (int j=0; j<pathCount; j++) {
+            Sample sample = core.getPathAt(j).getSample();
+            Integer s = sampleIndex.get(sample);
+            if (s==null) {
+                s = sampleList.size();
+                sampleIndex.put(sample, s);
+                sampleList.add(sample);
+            }
+            pathSamples[j] = s;
+        }
+        int[] sampleNames = new int[sampleList.size()];
+        int[] sampleLabels = new int[sampleList.size()];
+        for (int s=0; s<sampleList.size(); s++) {
+            sampleNames[s] = addString(sampleList.get(s).name, stringIndex, stringList);
+            sampleLabels[s] = addString(sampleList.get(s).label, stringIndex, stringList);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(nodesFile==null ? -1 : nodesFile.length());
+            out.writeLong(nodesFile==null ? -1 : nodesFile.lastModified());
+            out.writeLong(pathsFile==null ? -1 : pathsFile.length());
+            out.writeLong(pathsFile==null ? -1 : pathsFile.lastModified());
+            // strings
+            List<byte[]> stringBytes = new ArrayList<>();
+            for (String s : stringList) stringBytes.add(s.getBytes(StandardCharsets.UTF_8));
+            out.writeInt(stringBytes.size());
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] b : stringBytes) {
+                offset += b.length;
+                out.writeInt(offset);
+            }
+            for (byte[] b : stringBytes) out.write(b);
+            out.writeInt(nameString);
+            // nodes
+            out.writeInt(nodeCount);
+            for (int i=0; i<nodeCount; i++) out.writeLong(core.getNodeAt(i).id);
+            for (int i=0; i<nodeCount; i++) out.writeInt(rs[i]);
+            for (int i=0; i<nodeCount; i++) out.writeInt(contig[i]);
+            for (int i=0; i<nodeCount; i++) out.writeInt(core.getNodeAt(i).start);
+            for (int i=0; i<nodeCount; i++) out.writeInt(core.getNodeAt(i).end);
+            for (int i=0; i<nodeCount; i++) out.writeInt(genotype[i]);
+            for (int i=0; i<nodeCount; i++) out.writeDouble(core.getNodeAt(i).gf);
+            for (int i=0; i<nodeCount; i++) out.writeInt(core.getNodeAt(i).count);
+            // samples
+            out.writeInt(sampleList.size());
+            for (int s : sampleNames) out.writeInt(s);
+            for (int s : sampleLabels) out.writeInt(s);
+            // paths
+            out.writeInt(pathCount);
+            for (int s : pathSamples) out.writeInt(s);
+            long nodeIndexCount = 0;
+            out.writeInt(0);
+            for (int j=0; j<pathCount; j++) {
+                nodeIndexCount += core.getPathNodes(j).length;
+                if (nodeIndexCount>Integer.MAX_VALUE) {
+                    System.err.println("ERROR: "+graph.name+" has too many path nodes for a .pgb snapshot ("+nodeIndexCount+" by path "+j+")");
+                    System.exit(1);
+                }
+                out.writeInt((int) nodeIndexCount);
+            }
+            for (int j=0; j<pathCount; j++) {
+                for (int i : core.getPathNodes(j)) out.writeInt(i);
+            }
+        }
+    }
+
+    /**
+     * Return the dictionary index of a string, adding it if new; -1 for null.
+     */
+    static int addString(String s, Map<String,Integer> stringIndex, List<String> stringList) {
+        if (s==null) return -1;
+        Integer index = stringIndex.get(s);
+        if (index==null) {
+            index = stringList.size();
+            stringIndex.put(s, index);
+            stringList.add(s);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,501 @@
+package org.ncgr.pangenomics.genotype;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A compact, int-indexed core for a PangenomicGraph. Nodes and paths are referred to by dense indices:
+ * node i is the node with the i-th smallest id, path j is the j-th path in sample order.
+ * Each path's nodes are stored as an int[] of node indices, and the node-to-path and node-to-successor
+ * relations are stored CSR-style as an offsets array into a flat index array. Paths with identical node sequences
+ * are also collapsed into unique paths with label multiplicities, so per-path work can be done once per unique path.
+ *
+ * @author Sam Hokin
+ */
+public class PackedGraph {
+
+    // node ids, ascending; nodeIds[i] is the id of nodes[i]
+    long[] nodeIds;
+    Node[] nodes;
+
+    // true if the node ids are contiguous so that index = id - nodeIds[0]
+    boolean contiguous;
+
+    // the paths in their natural (sample) order
+    Path[] paths;
+
+    // the node indices of each path, in order of traversal
+    int[][] pathNodes;
+
+    // the sorted distinct path labels, and the index into labels of each path's label
+    String[] labels;
+    int[] pathLabels;
+
+    // node index -> path indices, CSR: paths of node i are nodePathIndices[nodePathOffsets[i]..nodePathOffsets[i+1])
+    int[] nodePathOffsets;
+    int[] nodePathIndices;
+
+    // node index -> successor node indices, CSR, each node's successors ascending
+    int[] successorOffsets;
+    int[] successorIndices;
+
+    // edge k is the k-th entry of successorIndices; edgePathCounts[k] is the number of paths that follow it
+    // and edgeLabelCounts[l][k] the number of those paths with label labels[l]
+    int[] edgePathCounts;
+    int[][] edgeLabelCounts;
+
+    // identical paths collapsed into unique paths: pathUniqueIndex[j] is the unique path of path j, uniquePaths[u] the first path
+    // (in path order) of unique path u, and its member paths are uniqueMemberIndices[uniqueMemberOffsets[u]..uniqueMemberOffsets[u+1])
+    int[] pathUniqueIndex;
+    int[] uniquePaths;
+    int[] uniqueMemberOffsets;
+    int[] uniqueMemberIndices;
+
+    // uniqueLabelCounts[l][u] is the number of members of unique path u with label labels[l]
+    int[][] uniqueLabelCounts;
+
+    // node index -> unique path indices, CSR, each node's unique paths ascending, with the node's position along each
+    int[] nodeUniqueOffsets;
+    int[] nodeUniqueIndices;
+    int[] nodeUniquePositions;
+
+    // the collection of paths this core was built from, to detect when it has been replaced
+    Collection<Path> pathSource;
+
+    /**
+     * Build the core from the given nodes (in ascending id order) and paths (in sample order).
+     * Path nodes are matched to graph nodes by id, so they may be bare Node(id) instances.
+     */
+    public PackedGraph(Collection<Node> nodeCollection, Collection<Path> pathCollection) {
+        pathSource = pathCollection;
+        nodes = nodeCollection.toArray(new Node[0]);
+        paths = pathCollection.toArray(new Path[0]);
+        setNodeIds();
+        // the node index arrays of the paths
+        pathNodes = new int[paths.length][];
+        for (int j=0; j<paths.length; j++) {
+            Path path = paths[j];
+            List<Node> nodeList = path.getNodes();
+            int[] indices = new int[nodeList.size()];
+            int k = 0;
+            for (Node n : nodeList) {
+                int i = getNodeIndex(n.id);
+                if (i<0) {
+                    System.err.println("ERROR: graph node missing for path "+path.getName()+" node "+n.id);
+                    System.exit(1);
+                }
+                indices[k++] = i;
+            }
+            pathNodes[j] = indices;
+        }
+        buildIndexes();
+    }
+
+    /**
+     * Build the core from nodes (in ascending id order), paths (in sample order) and the node index arrays of the paths, such as those
+     * of a .pgb snapshot, so no node lookups are needed. The paths need not have materialized their nodes.
+     * The arrays are kept, not copied; pathCollection is the collection the paths belong to.
+     */
+    public PackedGraph(Node[] nodes, Path[] paths, int[][] pathNodes, Collection<Path> pathCollection) {
+        pathSource = pathCollection;
+        this.nodes = nodes;
+        this.paths = paths;
+        this.pathNodes = pathNodes;
+        setNodeIds();
+        for (int j=0; j<paths.length; j++) {
+            for (int i : pathNodes[j]) {
+                if (i<0 || i>=nodes.length) {
+                    System.err.println("ERROR: path "+paths[j].getName()+" has node index "+i+" out of range for "+nodes.length+" nodes");
+                    System.exit(1);
+                }
+            }
+        }
+        buildIndexes();
+    }
+
+    /**
+     * Set nodeIds from nodes, checking that they ascend.
+     */
+    void setNodeIds() {
+        nodeIds = new long[nodes.length];
+        for (int i=0; i<nodes.length; i++) {
+            nodeIds[i] = nodes[i].id;
+            if (i>0 && nodeIds[i]<=nodeIds[i-1]) {
+                System.err.println("ERROR: PackedGraph nodes are not in ascending id order at node "+nodeIds[i]);
+                System.exit(1);
+            }
+        }
+        contiguous = nodes.length==0 || nodeIds[nodes.length-1]-nodeIds[0]==nodes.length-1;
+    }
+
+    /**
+     * Build the labels, the CSR relations, the edge counters and the unique paths from nodes, paths and pathNodes.
+     */
+    void buildIndexes() {
+        // labels
+        TreeSet<String> labelSet = new TreeSet<>();
+        for (Path path : paths) labelSet.add(path.getLabel());
+        labels = labelSet.toArray(new String[0]);
+        // path labels, counting node paths as we go
+        pathLabels = new int[paths.length];
+        nodePathOffsets = new int[nodes.length+1];
+        int edgeCount = 0;
+        for (int j=0; j<paths.length; j++) {
+            paths[j].index = j;
+            pathLabels[j] = Arrays.binarySearch(labels, paths[j].getLabel());
+            for (int i : pathNodes[j]) nodePathOffsets[i+1]++;
+            if (pathNodes[j].length>1) edgeCount += pathNodes[j].length - 1;
+        }
+        // node -> paths CSR; paths are added in index order so each node's paths are ascending
+        for (int i=0; i<nodes.length; i++) nodePathOffsets[i+1] += nodePathOffsets[i];
+        nodePathIndices = new int[nodePathOffsets[nodes.length]];
+        int[] fill = Arrays.copyOf(nodePathOffsets, nodes.length);
+        for (int j=0; j<paths.length; j++) {
+            for (int i : pathNodes[j]) nodePathIndices[fill[i]++] = j;
+        }
+        // node -> successors CSR, first with duplicates, then sorted and made unique in place
+        int[] offsets = new int[nodes.length+1];
+        for (int[] indices : pathNodes) {
+            for (int k=1; k<indices.length; k++) offsets[indices[k-1]+1]++;
+        }
+        for (int i=0; i<nodes.length; i++) offsets[i+1] += offsets[i];
+        int[] targets = new int[edgeCount];
+        fill = Arrays.copyOf(offsets, nodes.length);
+        for (int[] indices : pathNodes) {
+            for (int k=1; k<indices.length; k++) targets[fill[indices[k-1]]++] = indices[k];
+        }
+        successorOffsets = new int[nodes.length+1];
+        int m = 0;
+        for (int i=0; i<nodes.length; i++) {
+            Arrays.sort(targets, offsets[i], offsets[i+1]);
+            for (int k=offsets[i]; k<offsets[i+1]; k++) {
+                if (k==offsets[i] || targets[k]!=targets[k-1]) targets[m++] = targets[k];
+            }
+            successorOffsets[i+1] = m;
+        }
+        successorIndices = Arrays.copyOf(targets, m);
+        // edge path counters, total and by label
+        edgePathCounts = new int[m];
+        edgeLabelCounts = new int[labels.length][m];
+        for (int j=0; j<paths.length; j++) {
+            int[] indices = pathNodes[j];
+            int[] labelCounts = edgeLabelCounts[pathLabels[j]];
+            for (int k=1; k<indices.length; k++) {
+                int e = getEdgeIndex(indices[k-1], indices[k]);
+                edgePathCounts[e]++;
+                labelCounts[e]++;
+            }
+        }
+        buildUniquePaths();
+    }
+
+    /**
+     * Collapse the paths with identical node sequences into unique paths, with their members and label multiplicities.
+     */
+    void buildUniquePaths() {
+        pathUniqueIndex = new int[paths.length];
+        int[] first = new int[paths.length];
+        int uniqueCount = 0;
+        // paths by the hash of their node sequence, then compared in full
+        Map<Integer,List<Integer>> hashUniques = new HashMap<>();
+        for (int j=0; j<paths.length; j++) {
+            List<Integer> candidates = hashUniques.computeIfAbsent(Arrays.hashCode(pathNodes[j]), h -> new ArrayList<>(1));
+            int u = -1;
+            for (int c : candidates) {
+                if (Arrays.equals(pathNodes[first[c]], pathNodes[j])) {
+                    u = c;
+                    break;
+                }
+            }
+            if (u<0) {
+                u = uniqueCount++;
+                first[u] = j;
+                candidates.add(u);
+            }
+            pathUniqueIndex[j] = u;
+        }
+        uniquePaths = Arrays.copyOf(first, uniqueCount);
+        // unique path -> member paths CSR, members ascending
+        uniqueMemberOffsets = new int[uniqueCount+1];
+        uniqueLabelCounts = new int[labels.length][uniqueCount];
+        for (int j=0; j<paths.length; j++) {
+            uniqueMemberOffsets[pathUniqueIndex[j]+1]++;
+            uniqueLabelCounts[pathLabels[j]][pathUniqueIndex[j]]++;
+        }
+        for (int u=0; u<uniqueCount; u++) uniqueMemberOffsets[u+1] += uniqueMemberOffsets[u];
+        uniqueMemberIndices = new int[paths.length];
+        int[] fill = Arrays.copyOf(uniqueMemberOffsets, uniqueCount);
+        for (int j=0; j<paths.length; j++) uniqueMemberIndices[fill[pathUniqueIndex[j]]++] = j;
+        // node -> unique paths CSR; unique paths are added in index order so each node's are ascending
+        nodeUniqueOffsets = new int[nodes.length+1];
+        for (int u=0; u<uniqueCount; u++) {
+            for (int i : pathNodes[uniquePaths[u]]) nodeUniqueOffsets[i+1]++;
+        }
+        for (int i=0; i<nodes.length; i++) nodeUniqueOffsets[i+1] += nodeUniqueOffsets[i];
+        nodeUniqueIndices = new int[nodeUniqueOffsets[nodes.length]];
+        nodeUniquePositions = new int[nodeUniqueOffsets[nodes.length]];
+        fill = Arrays.copyOf(nodeUniqueOffsets, nodes.length);
+        for (int u=0; u<uniqueCount; u++) {
+            int[] pn = pathNodes[uniquePaths[u]];
+            for (int k=0; k<pn.length; k++) {
+                nodeUniquePositions[fill[pn[k]]] = k;
+                nodeUniqueIndices[fill[pn[k]]++] = u;
+            }
+        }
+    }
+
+    /**
+     * Return the index of the node with the given id, or -1 if it is not in this graph.
+     */
+    public int getNodeIndex(long id) {
+        if (nodes.length==0) return -1;
+        if (contiguous) {
+            long i = id - nodeIds[0];
+            return (i>=0 && i<nodes.length) ? (int) i : -1;
+        }
+        int i = Arrays.binarySearch(nodeIds, id);
+        return i>=0 ? i : -1;
+    }
+
+    /**
+     * Return the node with the given id, else null.
+     */
+    public Node getNode(long id) {
+        int i = getNodeIndex(id);
+        return i<0 ? null : nodes[i];
+    }
+
+    /**
+     * Return the node at the given index.
+     */
+    public Node getNodeAt(int i) {
+        return nodes[i];
+    }
+
+    /**
+     * Return the path at the given index.
+     */
+    public Path getPathAt(int j) {
+        return paths[j];
+    }
+
+    /**
+     * Return the number of nodes.
+     */
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    /**
+     * Return the number of paths.
+     */
+    public int getPathCount() {
+        return paths.length;
+    }
+
+    /**
+     * Return the number of distinct successor pairs, i.e. the number of graph edges.
+     */
+    public int getEdgeCount() {
+        return successorIndices.length;
+    }
+
+    /**
+     * Return the node indices of the given path, in order of traversal. Do not modify.
+     */
+    public int[] getPathNodes(int j) {
+        return pathNodes[j];
+    }
+
+    /**
+     * Return the label of the given path.
+     */
+    public String getPathLabel(int j) {
+        return labels[pathLabels[j]];
+    }
+
+    /**
+     * Return the number of paths that traverse the node at the given index.
+     */
+    public int getNodePathCount(int i) {
+        return nodePathOffsets[i+1] - nodePathOffsets[i];
+    }
+
+    /**
+     * Return the index of the k-th path (in path order) that traverses the node at index i.
+     */
+    public int getNodePathIndex(int i, int k) {
+        return nodePathIndices[nodePathOffsets[i]+k];
+    }
+
+    /**
+     * Return the number of paths with the given label that traverse the node at the given index.
+     */
+    public int getNodePathCount(int i, String label) {
+        int l = Arrays.binarySearch(labels, label);
+        if (l<0) return 0;
+        int count = 0;
+        for (int k=nodePathOffsets[i]; k<nodePathOffsets[i+1]; k++) {
+            if (pathLabels[nodePathIndices[k]]==l) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Return a read-only List view of the paths that traverse the node at the given index, in path order.
+     */
+    public List<Path> getNodePaths(final int i) {
+        return new AbstractList<Path>() {
+            @Override
+            public Path get(int k) {
+                if (k<0 || k>=size()) throw new IndexOutOfBoundsException("index "+k+" size "+size());
+                return paths[nodePathIndices[nodePathOffsets[i]+k]];
+            }
+            @Override
+            public int size() {
+                return nodePathOffsets[i+1] - nodePathOffsets[i];
+            }
+        };
+    }
+
+    /**
+     * Return the number of successors of the node at the given index.
+     */
+    public int getSuccessorCount(int i) {
+        return successorOffsets[i+1] - successorOffsets[i];
+    }
+
+    /**
+     * Return the index of the k-th successor (ascending) of the node at index i.
+     */
+    public int getSuccessorIndex(int i, int k) {
+        return successorIndices[successorOffsets[i]+k];
+    }
+
+    /**
+     * Return the index of the edge from source node index i to target node index t, or -1 if there is no such edge.
+     */
+    public int getEdgeIndex(int i, int t) {
+        int k = Arrays.binarySearch(successorIndices, successorOffsets[i], successorOffsets[i+1], t);
+        return k>=0 ? k : -1;
+    }
+
+    /**
+     * Return the index of the edge between the nodes with the given ids, or -1 if there is no such edge.
+     */
+    public int getEdgeIndex(long sourceId, long targetId) {
+        int i = getNodeIndex(sourceId);
+        int t = getNodeIndex(targetId);
+        if (i<0 || t<0) return -1;
+        return getEdgeIndex(i, t);
+    }
+
+    /**
+     * Return the number of paths that follow the edge at the given index.
+     */
+    public int getEdgePathCount(int e) {
+        return edgePathCounts[e];
+    }
+
+    /**
+     * Return the number of paths with the given label that follow the edge at the given index.
+     */
+    public int getEdgePathCount(int e, String label) {
+        int l = Arrays.binarySearch(labels, label);
+        return l<0 ? 0 : edgeLabelCounts[l][e];
+    }
+
+    /**
+     * Return the number of unique paths, i.e. of distinct path node sequences.
+     */
+    public int getUniquePathCount() {
+        return uniquePaths.length;
+    }
+
+    /**
+     * Return the representative of unique path u: its first member in path order.
+     */
+    public Path getUniquePath(int u) {
+        return paths[uniquePaths[u]];
+    }
+
+    /**
+     * Return the index of the unique path of the path at index j.
+     */
+    public int getUniquePathIndex(int j) {
+        return pathUniqueIndex[j];
+    }
+
+    /**
+     * Return the number of paths identical to unique path u.
+     */
+    public int getUniquePathMultiplicity(int u) {
+        return uniqueMemberOffsets[u+1] - uniqueMemberOffsets[u];
+    }
+
+    /**
+     * Return the number of paths with the given label identical to unique path u.
+     */
+    public int getUniquePathMultiplicity(int u, String label) {
+        int l = Arrays.binarySearch(labels, label);
+        return l<0 ? 0 : uniqueLabelCounts[l][u];
+    }
+
+    /**
+     * Return the number of unique paths that traverse the node at the given index.
+     */
+    public int getNodeUniquePathCount(int i) {
+        return nodeUniqueOffsets[i+1] - nodeUniqueOffsets[i];
+    }
+
+    /**
+     * Return the index of the k-th unique path (ascending) that traverses the node at index i.
+     */
+    public int getNodeUniquePathIndex(int i, int k) {
+        return nodeUniqueIndices[nodeUniqueOffsets[i]+k];
+    }
+
+    /**
+     * Return the position of the node at index i along the k-th unique path (ascending) that traverses it.
+     */
+    public int getNodeUniquePathPosition(int i, int k) {
+        return nodeUniquePositions[nodeUniqueOffsets[i]+k];
+    }
+
+    /**
+     * Return a read-only List view of the paths identical to unique path u, in path order.
+     */
+    public List<Path> getUniquePathMembers(final int u) {
+        return new AbstractList<Path>() {
+            @Override
+            public Path get(int k) {
+                if (k<0 || k>=size()) throw new IndexOutOfBoundsException("index "+k+" size "+size());
+                return paths[uniqueMemberIndices[uniqueMemberOffsets[u]+k]];
+            }
+            @Override
+            public int size() {
+                return uniqueMemberOffsets[u+1] - uniqueMemberOffsets[u];
+            }
+        };
+    }
+
+    /**
+     * Return the distinct path labels, sorted. Do not modify.
+     */
+    public String[] getLabels() {
+        return labels;
+    }
+
+    /**
+     * Return true if this core was built from the given nodes and paths and they have not changed size since.
+     */
+    boolean isCurrent(Collection<Node> nodeCollection, Collection<Path> pathCollection) {
+        return pathSource==pathCollection && paths.length==pathCollection.size() && nodes.length==nodeCollection.size();
+    }
+}
@@ -7,12 +7,16 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Optional;
+import java.util.Random;
 import java.util.TreeMap;
 import java.util.Set;
 import java.util.HashSet;
@@ -56,12 +60,26 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
     // Map of Node.getKey() to Node (optional)
     protected TreeMap<String,Node> nodeKeyMap = new TreeMap<>();
 
-    // maps a Node to the Paths that traverse it
-    protected TreeMap<Node,List<Path>> nodePathMap = new TreeMap<>();
+    // the node-by-path bitset incidence index over the packed int-indexed core of nodeIdMap and paths, which it holds, (re)built by
+    // buildNodePaths(); the pair is published through this one volatile field since FR support is computed from parallel streams
+    protected volatile IncidenceIndex incidence;
+
+    // maps a Node to the Paths that traverse it, built from core on request
+    protected TreeMap<Node,List<Path>> nodePathMap;
 
     // output verbosity
     protected boolean verbose;
 
+    // true if the graph edges are only in the packed core and haven't been added as jgrapht edges yet
+    protected boolean edgesPending;
+
+    // the seed and generator for random sample selection
+    protected long seed = System.nanoTime();
+    protected Random random = new Random(seed);
+
+    // the VCF MAF prefilter, "info" or "gt", or null for none
+    protected String mafPrefilter;
+
     /**
      * Basic constructor.
      */
@@ -71,175 +89,171 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
     }
 
     /**
-     * Build this graph's paths from Maps generated by an Importer and filters.
+     * Build this graph's paths from the sample NodeSets generated by an Importer and the case/control filters.
      */
-    public void buildGraphPaths(TreeMap<Sample,NodeSet> sampleNodeSets, TreeMap<Node,TreeSet<Sample>> nodeSamples, int maxCases, boolean equalizeCasesControls) {
+    public void buildGraphPaths(TreeMap<Sample,NodeSet> sampleNodeSets, int maxCases, boolean equalizeCasesControls) {
 	// load instance samples from the sampleNodeSets
 	samples = new TreeSet<>(sampleNodeSets.keySet());
-	// FILTER: limit maximum cases
-	if (maxCases>0) {
-	    int nCases = 0;
-	    int nControls = 0;
-            for (Sample sample : samples) {
-                if (sample.isCase()) {
-                    nCases++;
-                } else if (sample.isControl()) {
-                    nControls++;
-                }
-            }
-            Set<Sample> samplesToDrop = new HashSet<>();
-            int numberToRemove = nCases - maxCases;
-	    int count = 0;
-	    // randomly select samples to drop
-	    while (count<numberToRemove) {
-		Optional<Sample> optional = samples.stream().skip((int)(samples.size()*Math.random())).findFirst();
-		if (optional.isPresent()) {
-		    Sample sample = optional.get();
-		    if (count<numberToRemove && sample.isCase() && !samplesToDrop.contains(sample)) {
-			samplesToDrop.add(sample);
-			count++;
-		    }
-                }
+	// FILTER: limit maximum cases and/or enforce cases=controls
+	if (maxCases>0 || equalizeCasesControls) {
+	    TreeSet<Sample> keptSamples = selectSamples(samples, maxCases, equalizeCasesControls, random);
+	    // one sweep: mark the nodes of the kept samples, then the unmarked nodes of the dropped samples are orphans
+	    Set<Long> keptNodeIds = new HashSet<>();
+	    for (Sample sample : keptSamples) {
+		for (long id : sampleNodeSets.get(sample).getIds()) keptNodeIds.add(id);
 	    }
-	    // remove dropped samples
-	    for (Sample sample : samplesToDrop) {
-		samples.remove(sample);
-		sampleNodeSets.remove(sample);
-		for (Node n : nodeSamples.keySet()) {
-		    Set<Sample> samples = nodeSamples.get(n);
-		    samples.remove(sample);
+	    Set<Long> orphanNodeIds = new HashSet<>();
+	    for (Sample sample : samples) {
+		if (keptSamples.contains(sample)) continue;
+		for (long id : sampleNodeSets.get(sample).getIds()) {
+		    if (!keptNodeIds.contains(id)) orphanNodeIds.add(id);
 		}
-            }
-            // drop nodes that no longer have any samples
-            Set<Node> nodesToDrop = new HashSet<>();
-            for (Node n : nodeSamples.keySet()) {
-                Set<Sample> samples = nodeSamples.get(n);
-                if (samples.size()==0) nodesToDrop.add(n);
-            }
-	    for (Node n : nodesToDrop) {
-		nodeIdMap.remove(n.id);
-		nodeSamples.remove(n);
 	    }
-            System.err.println("Removed "+samplesToDrop.size()+" samples and "+nodesToDrop.size()+" orphaned nodes to set number of cases = "+maxCases+".");
-	}
-	// FILTER: enforce cases=controls
-        if (equalizeCasesControls) {
-            int nCases = 0;
-            int nControls = 0;
-            for (Sample sample : samples) {
-                if (sample.isCase()) {
-                    nCases++;
-                } else if (sample.isControl()) {
-                    nControls++;
-                }
-            }
-            Set<Sample> samplesToDrop = new HashSet<>();
-            int numberToRemove = Math.abs(nCases - nControls);
-            int count = 0;
-            // randomly select samples to drop
-            while (count<numberToRemove) {
-                Optional<Sample> optional = samples.stream().skip((int)(samples.size()*Math.random())).findFirst();
-                if (optional.isPresent()) {
-                    Sample sample = optional.get();
-                    if (nCases>nControls && sample.isCase() && !samplesToDrop.contains(sample)) {
-                        samplesToDrop.add(sample);
-                        count++;
-                    } else if (nControls>nCases && sample.isControl() && !samplesToDrop.contains(sample)) {
-                        samplesToDrop.add(sample);
-                        count++;
-                    }
-                }
-	    }
-	    // remove dropped samples
-	    for (Sample sample : samplesToDrop) {
-		samples.remove(sample);
-		sampleNodeSets.remove(sample);
-		for (Node n : nodeSamples.keySet()) {
-		    Set<Sample> samples = nodeSamples.get(n);
-		    samples.remove(sample);
-		}
-            }
-            // drop nodes that no longer have any samples
-            Set<Node> nodesToDrop = new HashSet<>();
-            for (Node n : nodeSamples.keySet()) {
-                Set<Sample> samples = nodeSamples.get(n);
-                if (samples.size()==0) nodesToDrop.add(n);
-            }
-	    for (Node n : nodesToDrop) {
-		nodeIdMap.remove(n.id);
-		nodeSamples.remove(n);
+	    for (long id : orphanNodeIds) {
+		Node n = nodeIdMap.remove(id);
+		if (n!=null) removeVertex(n);
 	    }
-            System.err.println("Removed "+samplesToDrop.size()+" samples and "+nodesToDrop.size()+" orphaned nodes to equalize cases and controls.");
-        }
-        // build the paths and path-labeled graph edges from the samples and sampleNodeSets map
-        if (verbose) System.err.println("Creating paths and adding edges to graph...");
+	    System.err.println("Removed "+(samples.size()-keptSamples.size())+" samples and "+orphanNodeIds.size()+" orphaned nodes to "+
+			       getFilterDescription(maxCases, equalizeCasesControls)+" (seed="+seed+").");
+	    samples = keptSamples;
+	}
+        // build the paths from the samples and sampleNodeSets map; the edges come from the packed core
+        if (verbose) System.err.println("Creating paths...");
         for (Sample sample : samples) {
 	    if (sampleNodeSets.containsKey(sample)) {
-		NodeSet sampleNodes = sampleNodeSets.get(sample);
-		Path path = new Path(this, new LinkedList<Node>(sampleNodes), sample);
+		Path path = new Path(this, new ArrayList<Node>(sampleNodeSets.get(sample)), sample);
 		paths.add(path);
 		pathNameMap.put(sample.name, path);
-		// add edges
-		Node lastNode = null;
-		for (Node sampleNode : sampleNodes) {
-		    // sampleNode only contains id -- get actual node from graph for this id
-		    Node node = getNode(sampleNode.id);
-		    if (node==null) {
-			System.err.println("ERROR: graph node missing for sample "+sample.name+" node "+sampleNode.id);
-			System.exit(1);
-		    }
-		    if (lastNode!=null) {
-			if (!containsEdge(lastNode, node)) {
-			    try {
-				addEdge(lastNode, node);
-			    } catch (Exception e) {
-				System.err.println(e);
-				System.err.println("ERROR adding edge from "+lastNode+" to "+node);
-				System.exit(1);
-			    }
-			}
-		    }
-		    lastNode = node;
-		}
 	    }
         }
 	// initialize FisherExact for later use
         fisherExact = new FisherExact(paths.size());
+        // build the packed core, which holds the edges until they're materialized
+        buildNodePaths();
+        edgesPending = true;
     }
     
+    /**
+     * Select the samples to keep at random: at most maxCases cases (if maxCases>0), then, if equalizeCasesControls,
+     * the larger of the cases and controls cut down to the size of the smaller. Linear in the number of samples.
+     */
+    public static TreeSet<Sample> selectSamples(Collection<Sample> samples, int maxCases, boolean equalizeCasesControls, Random random) {
+	List<Sample> cases = new ArrayList<>();
+	List<Sample> controls = new ArrayList<>();
+	TreeSet<Sample> keptSamples = new TreeSet<>();
+	for (Sample sample : samples) {
+	    if (sample.isCase()) {
+		cases.add(sample);
+	    } else if (sample.isControl()) {
+		controls.add(sample);
+	    } else {
+		keptSamples.add(sample);
+	    }
+	}
+	if (maxCases>0 && cases.size()>maxCases) {
+	    cases = choose(cases, maxCases, random);
+	}
+	if (equalizeCasesControls) {
+	    if (cases.size()>controls.size()) {
+		cases = choose(cases, controls.size(), random);
+	    } else if (controls.size()>cases.size()) {
+		controls = choose(controls, cases.size(), random);
+	    }
+	}
+	keptSamples.addAll(cases);
+	keptSamples.addAll(controls);
+	return keptSamples;
+    }
+
+    /**
+     * Return k samples chosen uniformly at random from the list with a partial Fisher-Yates shuffle, which reorders the list.
+     * Only min(k, n-k) swaps are made.
+     */
+    static List<Sample> choose(List<Sample> list, int k, Random random) {
+	int n = list.size();
+	if (k<=n-k) {
+	    // shuffle the keepers to the front
+	    for (int i=0; i<k; i++) Collections.swap(list, i, i+random.nextInt(n-i));
+	    return list.subList(0, k);
+	} else {
+	    // shuffle the victims to the front
+	    for (int i=0; i<n-k; i++) Collections.swap(list, i, i+random.nextInt(n-i));
+	    return list.subList(n-k, n);
+	}
+    }
+
+    /**
+     * Return a description of the sample filters for messages.
+     */
+    static String getFilterDescription(int maxCases, boolean equalizeCasesControls) {
+	if (maxCases>0 && equalizeCasesControls) {
+	    return "set number of cases = "+maxCases+" and equalize cases and controls";
+	} else if (maxCases>0) {
+	    return "set number of cases = "+maxCases;
+	} else {
+	    return "equalize cases and controls";
+	}
+    }
+
+    /**
+     * Return a new graph with this graph's nodes and the paths of a random selection of its samples made by selectSamples.
+     * Nodes which are only traversed by dropped samples are left out, found in one sweep of the incidence index.
+     * Many replicates can be drawn from one loaded graph by passing different generators.
+     */
+    public PangenomicGraph getBalancedReplicate(String name, int maxCases, boolean equalizeCasesControls, Random random) {
+	IncidenceIndex incidence = getIncidenceIndex();
+	PackedGraph core = incidence.getCore();
+	TreeSet<Sample> keptSamples = selectSamples(samples, maxCases, equalizeCasesControls, random);
+	long[] keptPaths = new long[incidence.getWordCount()];
+	for (int j=0; j<core.getPathCount(); j++) {
+	    if (keptSamples.contains(core.getPathAt(j).getSample())) keptPaths[j>>>6] |= 1L << j;
+	}
+	PangenomicGraph replicate = new PangenomicGraph(name);
+	replicate.setVerbose(verbose);
+	TreeMap<Long,Node> replicateNodes = new TreeMap<>();
+	int orphanCount = 0;
+	for (int i=0; i<core.getNodeCount(); i++) {
+	    long[] bits = incidence.getNodeBits(i);
+	    if (IncidenceIndex.andCardinality(bits, keptPaths)>0 || IncidenceIndex.cardinality(bits)==0) {
+		replicateNodes.put(core.getNodeAt(i).id, core.getNodeAt(i));
+	    } else {
+		orphanCount++;
+	    }
+	}
+	TreeSet<Path> replicatePaths = new TreeSet<>();
+	for (int j=0; j<core.getPathCount(); j++) {
+	    if (IncidenceIndex.get(keptPaths, j)) {
+		Path path = core.getPathAt(j);
+		replicatePaths.add(new Path(replicate, path.getNodes(), path.getSample()));
+	    }
+	}
+	System.err.println(name+": removed "+(samples.size()-keptSamples.size())+" samples and "+orphanCount+" orphaned nodes to "+
+			   getFilterDescription(maxCases, equalizeCasesControls)+".");
+	replicate.samples = keptSamples;
+	replicate.buildGraph(replicateNodes, replicatePaths);
+	replicate.buildNodeKeyMap(replicateNodes);
+	replicate.tallyLabelCounts();
+	return replicate;
+    }
+
     /**
      * Build this graph from the provided Nodes and Paths.
      */
     public void buildGraph(TreeMap<Long,Node> nodes, TreeSet<Path> paths) {
+        this.nodeIdMap = nodes;
         this.paths = paths;
         // add the nodes as graph vertices
         if (verbose) System.err.println("Adding nodes to graph vertices...");
         for (Node n : nodes.values()) {
             addVertex(n);
         }
-        // build the path-labeled graph edges
-        if (verbose) System.err.println("Adding edges to graph from paths...");
         for (Path path : paths) {
             pathNameMap.put(path.getName(), path);
-            // add edges
-            Node lastNode = null;
-            for (Object n : path.getNodes()) {
-                Node node = (Node) n;
-                if (lastNode!=null) {
-                    if (!containsEdge(lastNode, node)) {
-                        try {
-                            addEdge(lastNode, node);
-                        } catch (Exception e) {
-                            System.err.println("ERROR adding edge from "+lastNode+" to "+node);
-                            System.err.println(e);
-                            System.exit(1);
-                        }
-                    }
-                }
-                lastNode = node;
-            }
         }
+        // the edges come from the packed core
         fisherExact = new FisherExact(paths.size());
+        buildNodePaths();
+        edgesPending = true;
     }
     
     /**
@@ -298,38 +312,167 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
     }
 
     /**
-     * Build the node paths: the set of paths that run through each node.
+     * Build the node paths: the packed core which holds the paths that run through each node.
+     * Must be called again if nodeIdMap or paths are changed in place without changing their size.
+     * The core and its incidence index are built first and then published together.
      */
-    public void buildNodePaths() {
+    public synchronized void buildNodePaths() {
 	if (verbose) System.err.println("Building node paths...");
-        // initialize empty paths for each node
-        for (Node n : getNodes()) {
-            nodePathMap.put(n, new LinkedList<Path>());
-        }
-        // now load the paths
-	for (Path path : paths) {
-	    List<Node> pathNodes = path.getNodes();
-	    for (Node n : pathNodes) {
-		nodePathMap.get(n).add(path);
-	    }
-	}
-	// validation
-	for (Node n : nodePathMap.keySet()) {
-	    List<Path> pathList = nodePathMap.get(n);
-	    for (Path p : pathList) {
-		if (p==null) {
-		    System.err.println("ERROR: p==null for node "+n.toString());
+        PackedGraph core = new PackedGraph(nodeIdMap.values(), paths);
+        IncidenceIndex index = new IncidenceIndex(core);
+        nodePathMap = null;
+        incidence = index;
+    }
+
+    /**
+     * Add the edges held by the packed core as jgrapht edges, if that hasn't been done yet.
+     * Builds only collect edges in the core (sorted and made unique per node), so cycle detection and topological order
+     * maintenance are only paid for when something uses the jgrapht edges, e.g. the viewers or subgraph export.
+     */
+    public void materializeEdges() {
+	if (!edgesPending) return;
+	edgesPending = false;
+	PackedGraph core = getCore();
+	if (verbose) System.err.println("Adding "+core.getEdgeCount()+" edges to graph...");
+	for (int i=0; i<core.getNodeCount(); i++) {
+	    Node source = core.getNodeAt(i);
+	    for (int k=0; k<core.getSuccessorCount(i); k++) {
+		Node target = core.getNodeAt(core.getSuccessorIndex(i, k));
+		try {
+		    addEdge(source, target);
+		} catch (Exception e) {
+		    System.err.println("ERROR adding edge from "+source+" to "+target);
+		    System.err.println(e);
 		    System.exit(1);
 		}
 	    }
 	}
     }
 
+    /**
+     * Return the number of edges, without materializing them.
+     */
+    public int getEdgeCount() {
+	return edgesPending ? getCore().getEdgeCount() : edgeSet().size();
+    }
+
+    @Override
+    public Set<Edge> edgeSet() {
+	materializeEdges();
+	return super.edgeSet();
+    }
+
+    @Override
+    public Set<Edge> edgesOf(Node n) {
+	materializeEdges();
+	return super.edgesOf(n);
+    }
+
+    @Override
+    public Set<Edge> incomingEdgesOf(Node n) {
+	materializeEdges();
+	return super.incomingEdgesOf(n);
+    }
+
+    @Override
+    public Set<Edge> outgoingEdgesOf(Node n) {
+	materializeEdges();
+	return super.outgoingEdgesOf(n);
+    }
+
+    @Override
+    public int degreeOf(Node n) {
+	materializeEdges();
+	return super.degreeOf(n);
+    }
+
+    @Override
+    public int inDegreeOf(Node n) {
+	materializeEdges();
+	return super.inDegreeOf(n);
+    }
+
+    @Override
+    public int outDegreeOf(Node n) {
+	materializeEdges();
+	return super.outDegreeOf(n);
+    }
+
+    @Override
+    public Edge getEdge(Node source, Node target) {
+	materializeEdges();
+	return super.getEdge(source, target);
+    }
+
+    @Override
+    public Set<Edge> getAllEdges(Node source, Node target) {
+	materializeEdges();
+	return super.getAllEdges(source, target);
+    }
+
+    @Override
+    public boolean containsEdge(Edge e) {
+	materializeEdges();
+	return super.containsEdge(e);
+    }
+
+    @Override
+    public Set<Node> getAncestors(Node n) {
+	materializeEdges();
+	return super.getAncestors(n);
+    }
+
+    @Override
+    public Set<Node> getDescendants(Node n) {
+	materializeEdges();
+	return super.getDescendants(n);
+    }
+
+    /**
+     * Iterate over the nodes in topological order, which needs the edges.
+     */
+    @Override
+    public Iterator<Node> iterator() {
+	materializeEdges();
+	return super.iterator();
+    }
+
+    /**
+     * Return the packed core, (re)building it first if nodeIdMap or paths have been replaced or resized.
+     */
+    public PackedGraph getCore() {
+        return getIncidenceIndex().getCore();
+    }
+
+    /**
+     * Return the node-by-path incidence index, which holds the core it was built over, (re)building both first if needed.
+     * A rebuild happens under the graph's lock, so concurrent callers build it once and all see the same core and index.
+     */
+    public IncidenceIndex getIncidenceIndex() {
+        IncidenceIndex index = incidence;
+        if (index==null || !index.getCore().isCurrent(nodeIdMap.values(), paths)) {
+            synchronized (this) {
+                index = incidence;
+                if (index==null || !index.getCore().isCurrent(nodeIdMap.values(), paths)) {
+                    buildNodePaths();
+                    index = incidence;
+                }
+            }
+        }
+        return index;
+    }
+
     /**
      * Return the node paths, building them first if needed.
      */
     public TreeMap<Node,List<Path>> getNodePaths() {
-	if (nodePathMap.size()==0) buildNodePaths();
+        getCore();
+	if (nodePathMap==null) {
+            nodePathMap = new TreeMap<>();
+            for (Node n : vertexSet()) {
+                nodePathMap.put(n, getPaths(n));
+            }
+        }
 	return nodePathMap;
     }
 
@@ -337,7 +480,12 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
      * Return the node with the given id, else null.
      */
     public Node getNode(long id) {
-        return nodeIdMap.get(id);
+        IncidenceIndex index = incidence;
+        if (index!=null && index.getCore().isCurrent(nodeIdMap.values(), paths)) {
+            return index.getCore().getNode(id);
+        } else {
+            return nodeIdMap.get(id);
+        }
     }
 
     /**
@@ -376,44 +524,46 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
      * Return the number of paths that traverse the given node.
      */
     public int getPathCount(Node n) {
-        return getPaths(n).size();
+        PackedGraph c = getCore();
+        int i = c.getNodeIndex(n.id);
+        return i<0 ? 0 : c.getNodePathCount(i);
+    }
+
+    /**
+     * Return the number of paths with the given label that traverse the given node.
+     */
+    public int getPathCount(Node n, String label) {
+        IncidenceIndex index = getIncidenceIndex();
+        int i = index.getCore().getNodeIndex(n.id);
+        return i<0 ? 0 : index.getPathCount(i, label);
     }
 
     /**
      * Get the total count of paths that follow the given Edge.
      */
     public int getPathCount(Edge e) {
-        int count = 0;
-        for (Path p : paths) {
-            List<Edge> edges = p.getEdges();
-            if (edges.contains(e)) {
-                count++;
-            }
-        }
-        return count;
+        PackedGraph c = getCore();
+        int k = c.getEdgeIndex(e.getSourceNode().id, e.getTargetNode().id);
+        return k<0 ? 0 : c.getEdgePathCount(k);
     }
 
     /**
      * Get the count of paths with the given label that follow the given Edge.
      */
     public int getPathCount(Edge e, String label) {
-        int count = 0;
-        for (Path p : paths) {
-            if (p.getLabel().equals(label)) {
-                List<Edge> edges = p.getEdges();
-                if (edges.contains(e)) {
-                    count++;
-                }
-            }
-        }
-        return count;
+        PackedGraph c = getCore();
+        int k = c.getEdgeIndex(e.getSourceNode().id, e.getTargetNode().id);
+        return k<0 ? 0 : c.getEdgePathCount(k, label);
     }
 
     /**
      * Return the paths that traverse the given node.
      */
     public List<Path> getPaths(Node n) {
-        return getNodePaths().get(n);
+        PackedGraph c = getCore();
+        int i = c.getNodeIndex(n.id);
+        if (i<0) return new LinkedList<Path>();
+        return c.getNodePaths(i);
     }
 
     /**
@@ -427,16 +577,13 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
      * Construct a NodeSet from a string representation, e.g. [1350,1352,1353,1465,1467,1468,1469].
      */
     public NodeSet getNodeSet(String str) {
-        NodeSet nodeSet = new NodeSet();
-        List<Node> allNodes = getNodes();
-        Map<Long,Node> allNodeMap = new HashMap<>();
-        for (Node n : allNodes) allNodeMap.put(n.id, n);
+        List<Node> nodeList = new LinkedList<>();
         List<String> nodeStrings = Arrays.asList(str.replace("[","").replace("]","").split(","));
         for (String s : nodeStrings) {
             if (s.length()>0) {
                 long id = Long.parseLong(s);
-                if (allNodeMap.containsKey(id)) {
-                    nodeSet.add(allNodeMap.get(id));
+                if (nodeIdMap.containsKey(id)) {
+                    nodeList.add(nodeIdMap.get(id));
                 } else {
                     // bail, we're asked for a node that is not in the graph
 		    System.err.println("ERROR: Graph does not contain node "+id);
@@ -444,44 +591,30 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
 		}
             }
         }
-        return nodeSet;
+        return new NodeSet(nodeList);
     }
 
     /**
      * Get the label counts map for paths that traverse the given node.
      */
     public Map<String,Integer> getLabelCounts(Node n) {
-        Map<String,Integer> map = new HashMap<>();
-        for (Path p : getNodePaths().get(n)) {
-            if (map.containsKey(p.getLabel())) {
-                // increment count
-                int count = map.get(p.getLabel()) + 1;
-                map.put(p.getLabel(), count);
-            } else {
-                // initialize count
-                map.put(p.getLabel(), 1);
-            }
-        }
-        return map;
+        IncidenceIndex index = getIncidenceIndex();
+        int i = index.getCore().getNodeIndex(n.id);
+        if (i<0) return new HashMap<String,Integer>();
+        return index.getLabelCounts(i);
     }
 
     /**
-     * Get the label counts for paths that follow the given Edge.
-     * TODO: restrict path loop to those that are on Nodes connected by Edge. May not be worth it.
+     * Get the label counts for paths that follow the given Edge, omitting zero counts.
      */
     public Map<String,Integer> getLabelCounts(Edge e) {
         Map<String,Integer> map = new HashMap<>();
-        for (Path p : paths) {
-            List<Edge> edges = p.getEdges();
-            if (edges.contains(e)) {
-                if (map.containsKey(p.getLabel())) {
-                    // increment count
-                    int count = map.get(p.getLabel()) + 1;
-                    map.put(p.getLabel(), count);
-                } else {
-                    // initialize count
-                    map.put(p.getLabel(), 1);
-                }
+        PackedGraph c = getCore();
+        int k = c.getEdgeIndex(e.getSourceNode().id, e.getTargetNode().id);
+        if (k>=0) {
+            for (String label : c.getLabels()) {
+                int count = c.getEdgePathCount(k, label);
+                if (count>0) map.put(label, count);
             }
         }
         return map;
@@ -505,9 +638,8 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
      * POSITIVE_INFINITY = all case paths traverse node
      */
     public double oddsRatio(Node n) {
-        Map<String,Integer> countsMap = getLabelCounts(n);
-        int nodeCasePaths = 0; if (countsMap.containsKey("case")) nodeCasePaths = countsMap.get("case");
-        int nodeCtrlPaths = 0; if (countsMap.containsKey("ctrl")) nodeCtrlPaths = countsMap.get("ctrl");
+        int nodeCasePaths = getPathCount(n, "case");
+        int nodeCtrlPaths = getPathCount(n, "ctrl");
         int otherCasePaths = labelCounts.get("case") - nodeCasePaths;
         int otherCtrlPaths = labelCounts.get("ctrl") - nodeCtrlPaths;
         return (double)(nodeCasePaths*otherCtrlPaths) / (double)(nodeCtrlPaths*otherCasePaths);
@@ -523,9 +655,8 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
      * ctrl | nodeCtrlPaths | otherCtrlPaths |
      */
     public double fisherExactP(Node n) {
-        Map<String,Integer> countsMap = getLabelCounts(n);
-        int nodeCasePaths = 0; if (countsMap.containsKey("case")) nodeCasePaths = countsMap.get("case");
-        int nodeCtrlPaths = 0; if (countsMap.containsKey("ctrl")) nodeCtrlPaths = countsMap.get("ctrl");
+        int nodeCasePaths = getPathCount(n, "case");
+        int nodeCtrlPaths = getPathCount(n, "ctrl");
         int otherCasePaths = labelCounts.get("case") - nodeCasePaths;
         int otherCtrlPaths = labelCounts.get("ctrl") - nodeCtrlPaths;
         return fisherExact.getTwoTailedP(nodeCasePaths, otherCasePaths, nodeCtrlPaths, otherCtrlPaths);
@@ -548,10 +679,12 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
     }
 
     /**
-     * Output string for a single node. This differs a bit from Node.toString().
+     * Output string for a single node, a nodes.txt line. This differs a bit from Node.toString().
+     * id rs contig start end genotype gf count, where count is the number of source samples with the genotype (0 if not known, e.g. for a
+     * node read from an older seven-column nodes.txt). A null rs, which is how a nodes.txt "." is read, is written back as ".".
      */
     public static String toString(Node n) {
-	return n.id+"\t"+n.rs+"\t"+n.contig+"\t"+n.start+"\t"+n.end+"\t"+n.genotype+"\t"+n.gf;
+	return n.id+"\t"+(n.rs==null ? "." : n.rs)+"\t"+n.contig+"\t"+n.start+"\t"+n.end+"\t"+n.genotype+"\t"+n.gf+"\t"+n.count;
     }
 
     /**
@@ -564,6 +697,24 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
         }
     }
 
+    /**
+     * Write the paths to a file in the given format: txt for paths.txt lines, bin for a BinaryPathsFile of delta/varint encoded
+     * node ids, or deflate for a BinaryPathsFile with DEFLATE-compressed blocks.
+     */
+    public void printPaths(File file, String format) throws IOException {
+	if (format.equals("txt")) {
+	    PrintStream out = new PrintStream(file);
+	    printPaths(out);
+	    out.close();
+	} else {
+	    try (BinaryPathsFile.Writer writer = new BinaryPathsFile.Writer(file, format.equals("deflate"))) {
+		for (Path path : paths) {
+		    writer.add(path.getSample(), path.getSortedNodeIds());
+		}
+	    }
+	}
+    }
+
     /**
      * Print a delineating heading, for general use.
      */
@@ -585,24 +736,237 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
     }
 
     /**
-     * Append nodes from a nodes.txt file to the current graph without filtering.
+     * Append the samples in a VCF file and labels file to this graph, adding nodes for genotypes of its loci that it doesn't have yet.
+     * Returns the nodes of the delta: the new nodes and those whose genotype frequency changed.
      */
-    public void appendNodesFromTXT(File nodesFile) throws IOException {
-	// get last ID of current graph nodes
-	long lastId = nodeIdMap.lastKey();
-	// load the nodes
-        TXTImporter importer = new TXTImporter(nodesFile);
+    public TreeSet<Node> appendFromVCF(File vcfFile, File labelsFile) throws IOException {
+	checkNodeKeyMap();
+	VCFImporter importer = new VCFImporter(vcfFile, nodeIdMap, nodeKeyMap);
 	importer.setVerbose(verbose);
-        importer.readNodes();
-        // add the nodes as graph vertices, incrementing nodeId each time
-        for (Node n : importer.nodeIdMap.values()) {
-	    lastId++;
-	    n.id = lastId;
-            addVertex(n);
-	    nodeIdMap.put(lastId, n);
+	importer.readAppendPaths(labelsFile, nodeIdMap.lastKey());
+	return appendPaths(importer.sampleNodeSets, importer.newNodes, importer.appendCounts, importer.appendLocusCounts);
+    }
+
+    /**
+     * Append the samples in a paths.txt file, restricted to those in a labels file if it isn't null, to this graph.
+     * Returns the nodes whose genotype frequency changed.
+     */
+    public TreeSet<Node> appendFromTXT(File pathsFile, File labelsFile) throws IOException {
+	TXTImporter importer = new TXTImporter(pathsFile, nodeIdMap);
+	importer.setVerbose(verbose);
+	if (labelsFile==null) {
+	    importer.readPaths();
+	} else {
+	    importer.readPaths(labelsFile);
 	}
-	// rebuild the node key map
-	buildNodeKeyMap(nodeIdMap);
+	return appendPaths(importer.sampleNodeSets, new ArrayList<Node>(), null, null);
+    }
+
+    /**
+     * Append the paths of new samples, and the new nodes (with ids after the last) that they traverse, without reloading the graph.
+     * Existing node ids don't change, so the delta is purely additive and anything written before the append still refers to the same nodes.
+     *
+     * Genotype frequencies at the loci the new samples traverse are updated from genotype counts: each node's count of source samples
+     * is saved with the graph, and its locus' count of called samples, the denominator of its frequency, is count/gf. The appended counts
+     * are sourceCounts and sourceLocusCounts if they're given, e.g. over all the called samples of an appended VCF as VCFImporter counts them,
+     * else those of the new paths, so frequencies are as if the graph were rebuilt from all the samples. At a locus whose counts weren't saved
+     * (an older nodes.txt) the frequencies are taken over the graph's paths instead.
+     *
+     * Label counts and any materialized edges are updated in place; the packed core is rebuilt when it's next needed.
+     * Returns the nodes of the delta: the new nodes and those whose genotype frequency or count changed.
+     */
+    public TreeSet<Node> appendPaths(TreeMap<Sample,NodeSet> sampleNodeSets, List<Node> newNodes, Map<Node,Integer> sourceCounts, Map<String,Integer> sourceLocusCounts) {
+	for (Sample sample : sampleNodeSets.keySet()) {
+	    if (pathNameMap.containsKey(sample.name)) {
+		System.err.println("ERROR: sample "+sample.name+" is already in graph "+name);
+		System.exit(1);
+	    }
+	}
+	// the number of old paths through each node and locus
+	PackedGraph core = getCore();
+	Map<Node,Integer> oldCounts = new HashMap<>();
+	Map<String,Integer> oldLocusCounts = new HashMap<>();
+	for (int i=0; i<core.getNodeCount(); i++) {
+	    oldCounts.put(core.getNodeAt(i), core.getNodePathCount(i));
+	    oldLocusCounts.merge(getLocusKey(core.getNodeAt(i)), core.getNodePathCount(i), Integer::sum);
+	}
+	for (Node n : newNodes) {
+	    addVertex(n);
+	    nodeIdMap.put(n.id, n);
+	    nodeKeyMap.put(n.getKey(), n);
+	}
+	// the number of new paths through each node and locus
+	Map<Node,Integer> newCounts = new HashMap<>();
+	Map<String,Integer> newLocusCounts = new HashMap<>();
+	for (NodeSet nodeSet : sampleNodeSets.values()) {
+	    for (Node n : nodeSet) {
+		if (nodeIdMap.get(n.id)!=n) {
+		    System.err.println("ERROR: appended paths traverse node "+n.id+" which is not in graph "+name);
+		    System.exit(1);
+		}
+		newCounts.merge(n, 1, Integer::sum);
+		newLocusCounts.merge(getLocusKey(n), 1, Integer::sum);
+	    }
+	}
+	// the nodes of the loci with new counts
+	Set<Node> newNodeSet = new HashSet<>(newNodes);
+	Set<String> appendedLoci = new HashSet<>(newLocusCounts.keySet());
+	if (sourceLocusCounts!=null) appendedLoci.addAll(sourceLocusCounts.keySet());
+	Map<String,List<Node>> locusNodes = new HashMap<>();
+	for (Node n : nodeIdMap.values()) {
+	    if (appendedLoci.contains(getLocusKey(n))) locusNodes.computeIfAbsent(getLocusKey(n), k -> new ArrayList<>()).add(n);
+	}
+	// update the counts and frequencies
+	TreeSet<Node> deltaNodes = new TreeSet<>(newNodes);
+	for (String locus : locusNodes.keySet()) {
+	    List<Node> nodes = locusNodes.get(locus);
+	    long oldTotal = -1;
+	    for (Node n : nodes) {
+		if (newNodeSet.contains(n)) continue;
+		if (n.count==0) {
+		    oldTotal = -1;
+		    break;
+		}
+		if (oldTotal<0) oldTotal = Math.round(n.count/n.gf);
+	    }
+	    if (oldTotal>=0) {
+		long total = oldTotal + (sourceLocusCounts!=null ? sourceLocusCounts.getOrDefault(locus, 0) : newLocusCounts.getOrDefault(locus, 0));
+		for (Node n : nodes) {
+		    int count = n.count + (sourceCounts!=null ? sourceCounts.getOrDefault(n, 0) : newCounts.getOrDefault(n, 0));
+		    double gf = (double) count / (double) total;
+		    if (count!=n.count || gf!=n.gf) {
+			n.count = count;
+			n.gf = gf;
+			deltaNodes.add(n);
+		    }
+		}
+	    } else {
+		int total = oldLocusCounts.getOrDefault(locus, 0) + newLocusCounts.getOrDefault(locus, 0);
+		for (Node n : nodes) {
+		    double gf = (double) (oldCounts.getOrDefault(n, 0) + newCounts.getOrDefault(n, 0)) / (double) total;
+		    if (gf!=n.gf) {
+			n.gf = gf;
+			deltaNodes.add(n);
+		    }
+		}
+	    }
+	}
+	// add the paths, and their edges if the edges have been materialized
+	for (Sample sample : sampleNodeSets.keySet()) {
+	    Path path = new Path(this, new ArrayList<Node>(sampleNodeSets.get(sample)), sample);
+	    paths.add(path);
+	    pathNameMap.put(sample.name, path);
+	    samples.add(sample);
+	    labelCounts.merge(path.getLabel(), 1, Integer::sum);
+	    if (!edgesPending) {
+		List<Node> nodes = path.getNodes();
+		for (int k=1; k<nodes.size(); k++) {
+		    if (super.getEdge(nodes.get(k-1), nodes.get(k))==null) addEdge(nodes.get(k-1), nodes.get(k));
+		}
+	    }
+	}
+	fisherExact = new FisherExact(paths.size());
+	incidence = null;
+	nodePathMap = null;
+	System.err.println("Appended "+sampleNodeSets.size()+" paths and "+newNodes.size()+" new nodes to "+name+"; "+
+			   (deltaNodes.size()-newNodes.size())+" node genotype frequencies changed.");
+	return deltaNodes;
+    }
+
+    /**
+     * Return a key for the locus of a node, shared by its genotypes.
+     */
+    static String getLocusKey(Node n) {
+	return VCFImporter.getLocusKey(n.contig, n.start, n.end, n.rs);
+    }
+
+    /**
+     * Write the delta of an append: the given nodes to name.delta.nodes.txt and the paths of the given samples to name.delta.paths.txt,
+     * in sample order as mergeDelta requires.
+     */
+    public void writeDelta(Collection<Node> deltaNodes, Collection<Sample> deltaSamples) throws FileNotFoundException {
+	if (verbose) System.err.println("Writing "+getDeltaNodesFilename()+" and "+getDeltaPathsFilename());
+	PrintStream nodesOut = new PrintStream(getDeltaNodesFilename());
+	for (Node n : deltaNodes) nodesOut.println(toString(n));
+	nodesOut.close();
+	PrintStream pathsOut = new PrintStream(getDeltaPathsFilename());
+	for (Sample sample : new TreeSet<>(deltaSamples)) {
+	    if (pathNameMap.containsKey(sample.name)) pathsOut.println(pathNameMap.get(sample.name).toString());
+	}
+	pathsOut.close();
+    }
+
+    /**
+     * Merge a delta written by writeDelta into stored nodes.txt and paths.txt files, writing merged files.
+     * Stored node ids are stable across an append, so delta nodes replace the stored nodes with their ids and the rest, the new nodes,
+     * have ids after the last stored node and are appended. The stored and delta paths are merged in sample order, in the binary format
+     * if the stored paths file is a BinaryPathsFile.
+     */
+    public static void mergeDelta(File nodesFile, File pathsFile, File deltaNodesFile, File deltaPathsFile, File mergedNodesFile, File mergedPathsFile) throws IOException {
+	TreeMap<Long,String> deltaNodeLines = new TreeMap<>();
+	BufferedReader reader = new BufferedReader(new FileReader(deltaNodesFile));
+	String line;
+	while ((line=reader.readLine())!=null) {
+	    if (line.length()>0 && !line.startsWith("#")) deltaNodeLines.put(Long.parseLong(line.substring(0, line.indexOf('\t'))), line);
+	}
+	reader.close();
+	long lastId = 0;
+	PrintStream out = new PrintStream(mergedNodesFile);
+	reader = new BufferedReader(new FileReader(nodesFile));
+	while ((line=reader.readLine())!=null) {
+	    if (line.length()>0 && !line.startsWith("#")) {
+		long id = Long.parseLong(line.substring(0, line.indexOf('\t')));
+		String deltaLine = deltaNodeLines.remove(id);
+		if (deltaLine!=null) line = deltaLine;
+		lastId = Math.max(lastId, id);
+	    }
+	    out.println(line);
+	}
+	reader.close();
+	if (deltaNodeLines.size()>0 && deltaNodeLines.firstKey()<=lastId) {
+	    System.err.println("ERROR: "+deltaNodesFile.getName()+" node "+deltaNodeLines.firstKey()+" is not in "+nodesFile.getName()+" but isn't after its last node "+lastId+
+			       "; was the delta made from these files?");
+	    System.exit(1);
+	}
+	for (String deltaLine : deltaNodeLines.values()) out.println(deltaLine);
+	out.close();
+	// merge the stored and delta paths in sample order
+	GraphConcatenator.PathStream stored = new GraphConcatenator.PathStream(pathsFile);
+	GraphConcatenator.PathStream delta = new GraphConcatenator.PathStream(deltaPathsFile);
+	PrintStream textOut = null;
+	BinaryPathsFile.Writer binaryOut = null;
+	if (stored.binaryPaths!=null) {
+	    binaryOut = new BinaryPathsFile.Writer(mergedPathsFile, stored.binaryPaths.deflate);
+	} else {
+	    textOut = new PrintStream(mergedPathsFile);
+	}
+	while (stored.sample!=null || delta.sample!=null) {
+	    GraphConcatenator.PathStream stream;
+	    if (delta.sample==null || (stored.sample!=null && stored.sample.compareTo(delta.sample)<0)) {
+		stream = stored;
+	    } else {
+		if (stored.sample!=null && stored.sample.equals(delta.sample)) {
+		    System.err.println("ERROR: sample "+delta.sample.name+" is in both "+pathsFile.getName()+" and "+deltaPathsFile.getName());
+		    System.exit(1);
+		}
+		stream = delta;
+	    }
+	    if (binaryOut!=null) {
+		binaryOut.add(stream.sample, Arrays.copyOf(stream.ids, stream.count));
+	    } else {
+		StringBuilder path = new StringBuilder(stream.sample.toString()).append("\t[");
+		for (int m=0; m<stream.count; m++) {
+		    if (m>0) path.append(',');
+		    path.append(stream.ids[m]);
+		}
+		textOut.println(path.append(']'));
+	    }
+	    stream.next();
+	}
+	stored.close();
+	delta.close();
+	if (binaryOut!=null) binaryOut.close();
+	if (textOut!=null) textOut.close();
     }
 
     /**
@@ -620,7 +984,7 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
         TXTImporter importer = new TXTImporter(pathsFile, nodeIdMap);
 	importer.setVerbose(verbose);
         importer.readPaths();
-	buildGraphPaths(importer.sampleNodeSets, importer.nodeSamples, maxCases, equalizeCasesControls);
+	buildGraphPaths(importer.sampleNodeSets, maxCases, equalizeCasesControls);
     }
 
     /**
@@ -631,7 +995,74 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
         TXTImporter importer = new TXTImporter(pathsFile, nodeIdMap);
 	importer.setVerbose(verbose);
         importer.readPaths(labelsFile);
-        buildGraphPaths(importer.sampleNodeSets, importer.nodeSamples, maxCases, equalizeCasesControls);
+        buildGraphPaths(importer.sampleNodeSets, maxCases, equalizeCasesControls);
+    }
+
+    /**
+     * Load the graph nodes and paths from a nodes.txt and paths.txt file, using their .pgb snapshot instead if there is
+     * one which was made from the files as they are now.
+     */
+    public void loadFromTXT(File nodesFile, File pathsFile) throws IOException {
+	File pgbFile = PGBFile.getSnapshotFile(pathsFile);
+	if (pgbFile.isFile()) {
+	    PGBFile pgb = new PGBFile(pgbFile);
+	    if (pgb.isSnapshotOf(nodesFile, pathsFile)) {
+		if (verbose) System.err.println("Loading snapshot "+pgbFile.getName());
+		loadFromPGB(pgb);
+		return;
+	    }
+	    if (verbose) System.err.println("Snapshot "+pgbFile.getName()+" is out of date, loading "+nodesFile.getName()+" and "+pathsFile.getName());
+	}
+	loadNodesFromTXT(nodesFile);
+	loadPathsFromTXT(pathsFile);
+    }
+
+    /**
+     * Load the graph nodes and paths from a .pgb snapshot file.
+     */
+    public void loadFromPGB(File pgbFile) throws IOException {
+	loadFromPGB(new PGBFile(pgbFile));
+    }
+
+    /**
+     * Load the graph nodes and paths from an open .pgb snapshot. The packed core is built directly from the snapshot's node index arrays,
+     * and the paths only materialize their nodes when first asked for them.
+     */
+    public void loadFromPGB(PGBFile pgb) {
+	Node[] nodeArray = new Node[pgb.getNodeCount()];
+	for (int i=0; i<nodeArray.length; i++) {
+	    Node n = pgb.getNode(i);
+	    nodeArray[i] = n;
+	    nodeIdMap.put(n.id, n);
+	    addVertex(n);
+	}
+	Path[] pathArray = new Path[pgb.getPathCount()];
+	int[][] pathNodes = new int[pathArray.length][];
+	for (int j=0; j<pathArray.length; j++) {
+	    Sample sample = pgb.getPathSample(j);
+	    if (j>0 && sample.compareTo(pathArray[j-1].getSample())<=0) {
+		System.err.println("ERROR: .pgb paths are not in sample order at "+sample.name);
+		System.exit(1);
+	    }
+	    pathNodes[j] = pgb.getPathNodes(j);
+	    Path path = new Path(this, sample, nodeArray, pathNodes[j]);
+	    pathArray[j] = path;
+	    samples.add(sample);
+	    paths.add(path);
+	    pathNameMap.put(sample.name, path);
+	}
+	fisherExact = new FisherExact(paths.size());
+	incidence = new IncidenceIndex(new PackedGraph(nodeArray, pathArray, pathNodes, paths));
+	nodePathMap = null;
+	edgesPending = true;
+	buildNodeKeyMap(nodeIdMap);
+    }
+
+    /**
+     * Write a .pgb snapshot of this graph, recording the nodes.txt and paths.txt files it was loaded from or written to.
+     */
+    public void writePGB(File pgbFile, File nodesFile, File pathsFile) throws IOException {
+	PGBFile.write(this, pgbFile, nodesFile, pathsFile);
     }
 
     /**
@@ -640,6 +1071,7 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
     public void loadNodesFromVCF(File vcfFile, double minMAF, double maxMAF) throws IOException {
         VCFImporter importer = new VCFImporter(vcfFile);
 	importer.setVerbose(verbose);
+	importer.setMAFPrefilter(mafPrefilter);
 	if (minMAF>0.0 || maxMAF<1.0) {
 	    importer.readNodes(minMAF, maxMAF);
 	} else {
@@ -657,7 +1089,82 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
         VCFImporter importer = new VCFImporter(vcfFile, nodeIdMap, nodeKeyMap);
 	importer.setVerbose(verbose);
         importer.readPaths(labelsFile);
-	buildGraphPaths(importer.sampleNodeSets, importer.nodeSamples, maxCases, equalizeCasesControls);
+	buildGraphPaths(importer.sampleNodeSets, maxCases, equalizeCasesControls);
+    }
+
+    /**
+     * Load the graph nodes and paths from a VCF file and labels file in a single pass.
+     */
+    public void loadFromVCF(File vcfFile, File labelsFile, double minMAF, double maxMAF, int maxCases, boolean equalizeCasesControls) throws IOException {
+	loadFromVCF(vcfFile, labelsFile, minMAF, maxMAF, maxCases, equalizeCasesControls, 1);
+    }
+
+    /**
+     * Load the graph nodes and paths from an indexed VCF file and labels file, decoding about the given number of region shards in parallel.
+     */
+    public void loadFromVCF(File vcfFile, File labelsFile, double minMAF, double maxMAF, int maxCases, boolean equalizeCasesControls, int shards) throws IOException {
+        VCFImporter importer = new VCFImporter(vcfFile);
+	importer.setVerbose(verbose);
+	importer.setMAFPrefilter(mafPrefilter);
+	importer.readNodesAndPaths(labelsFile, minMAF, maxMAF, shards);
+	buildGraphNodes(importer.nodeIdMap, importer.nodeKeyMap);
+	buildGraphPaths(importer.sampleNodeSets, maxCases, equalizeCasesControls);
+    }
+
+    /**
+     * Load the graph nodes and paths from a VCF file or stream ("-" for stdin), which needn't be indexed, decoding on the given number of threads.
+     */
+    public void loadFromVCFPipelined(File vcfFile, File labelsFile, double minMAF, double maxMAF, int maxCases, boolean equalizeCasesControls, int threads) throws IOException {
+        VCFImporter importer = new VCFImporter(vcfFile);
+	importer.setVerbose(verbose);
+	importer.setMAFPrefilter(mafPrefilter);
+	importer.readNodesAndPathsPipelined(labelsFile, minMAF, maxMAF, threads);
+	buildGraphNodes(importer.nodeIdMap, importer.nodeKeyMap);
+	buildGraphPaths(importer.sampleNodeSets, maxCases, equalizeCasesControls);
+    }
+
+    /**
+     * Load the graph nodes within the given MGF range and paths from a PLINK list output file and labels file in a single pass.
+     */
+    public void loadFromList(File listFile, File labelsFile, double minMGF, double maxMGF, int maxCases, boolean equalizeCasesControls) throws IOException {
+        ListImporter importer = new ListImporter(listFile);
+	importer.setVerbose(verbose);
+	importer.readNodesAndPaths(labelsFile, minMGF, maxMGF);
+	buildGraphNodes(importer.nodeIdMap, importer.nodeKeyMap);
+	buildGraphPaths(importer.sampleNodeSets, maxCases, equalizeCasesControls);
+    }
+
+    /**
+     * Load the graph nodes from a PLINK .bed/.bim/.fam fileset for loci within the given MGF range.
+     */
+    public void loadNodesFromBED(File bedFile, double minMGF, double maxMGF) throws IOException {
+        BEDImporter importer = new BEDImporter(bedFile);
+	importer.setVerbose(verbose);
+	importer.readNodes(minMGF, maxMGF);
+        buildGraphNodes(importer.nodeIdMap, importer.nodeKeyMap);
+    }
+
+    /**
+     * Load the graph paths through the loaded nodes from a PLINK .bed/.bim/.fam fileset and labels file.
+     */
+    public void loadPathsFromBED(File bedFile, File labelsFile, int maxCases, boolean equalizeCasesControls) throws IOException {
+	checkNodeIdMap();
+	checkNodeKeyMap();
+	BEDImporter importer = new BEDImporter(bedFile, nodeIdMap, nodeKeyMap);
+	importer.setVerbose(verbose);
+	importer.readPaths(labelsFile);
+	buildGraphPaths(importer.sampleNodeSets, maxCases, equalizeCasesControls);
+    }
+
+    /**
+     * Load the graph nodes and paths from a PLINK .bed/.bim/.fam fileset and labels file in a single pass, decoding about the given number of chunks in parallel.
+     */
+    public void loadFromBED(File bedFile, File labelsFile, double minMGF, double maxMGF, int maxCases, boolean equalizeCasesControls, int chunks) throws IOException {
+        BEDImporter importer = new BEDImporter(bedFile);
+	importer.setVerbose(verbose);
+	importer.readNodesAndPaths(labelsFile, minMGF, maxMGF, chunks);
+	buildGraphNodes(importer.nodeIdMap, importer.nodeKeyMap);
+	buildGraphPaths(importer.sampleNodeSets, maxCases, equalizeCasesControls);
     }
 
     /**
@@ -684,7 +1191,7 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
 	ListImporter importer = new ListImporter(listFile, nodeIdMap, nodeKeyMap);
 	importer.setVerbose(verbose);
 	importer.readPaths(labelsFile);
-	buildGraphPaths(importer.sampleNodeSets, importer.nodeSamples, maxCases, equalizeCasesControls);
+	buildGraphPaths(importer.sampleNodeSets, maxCases, equalizeCasesControls);
     }
 
     /**
@@ -708,7 +1215,7 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
 	nodesOption.setRequired(false);
 	options.addOption(nodesOption);
 	// ACTION: concatenate graphs
-	Option catOption = new Option("c", "cat", false, "concatenate two graphs (--nodes and --nodes2 requried)");
+	Option catOption = new Option("c", "cat", false, "concatenate graphs, streaming their files, and merge their paths per sample (--nodes and --nodes2 required, --paths and --paths2 to merge paths)");
 	catOption.setRequired(false);
 	options.addOption(catOption);
 	// ACTION: build graph paths
@@ -719,18 +1226,46 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
         Option vcfFileOption = new Option("vcf", "vcffile", true, "build graph nodes/paths from a tabix-indexed gzipped VCF file");
         vcfFileOption.setRequired(false);
         options.addOption(vcfFileOption);
+	// INPUT: number of VCF region shards
+	Option vcfShardsOption = new Option("vcfshards", "vcfshards", true, "decode the indexed VCF file in about this many contig/region shards in parallel [1]");
+	vcfShardsOption.setRequired(false);
+	options.addOption(vcfShardsOption);
+	//
+	Option vcfThreadsOption = new Option("vcfthreads", "vcfthreads", true, "stream the VCF file (gzipped or not, - for stdin), decoding records on this many threads; needs no index");
+	vcfThreadsOption.setRequired(false);
+	options.addOption(vcfThreadsOption);
 	// INPUT: PLINK -list file
 	Option listFileOption = new Option("list", "listfile", true, "build graph nodes/paths from a PLINK list file");
 	listFileOption.setRequired(false);
 	options.addOption(listFileOption);
+	// INPUT: samples to append
+	Option appendFileOption = new Option("append", "appendfile", true, "append the samples in a VCF file (with -l) or paths.txt file to the graph in -nodes and -paths, writing a delta");
+	appendFileOption.setRequired(false);
+	options.addOption(appendFileOption);
+	// INPUT: delta to merge
+	Option mergeDeltaOption = new Option("mergedelta", "mergedelta", true, "merge the delta written by appending to the graph of this name into the graph in -nodes and -paths");
+	mergeDeltaOption.setRequired(false);
+	options.addOption(mergeDeltaOption);
+	// INPUT: PLINK .bed file
+	Option bedFileOption = new Option("bed", "bedfile", true, "build graph nodes/paths from a PLINK .bed file with its .bim and .fam files");
+	bedFileOption.setRequired(false);
+	options.addOption(bedFileOption);
+	// INPUT: number of .bed chunks
+	Option bedChunksOption = new Option("bedchunks", "bedchunks", true, "decode the PLINK .bed file in this many chunks of loci in parallel [1]");
+	bedChunksOption.setRequired(false);
+	options.addOption(bedChunksOption);
 	// INPUT: nodes.txt
 	Option nodesFileOption = new Option("nodes", "nodesfile", true, "read graph nodes from a nodes.txt file");
 	nodesFileOption.setRequired(false);
 	options.addOption(nodesFileOption);
 	// INPUT: second nodes.txt
-	Option nodes2FileOption = new Option("nodes2", "nodes2file", true, "read a second graph nodes from a nodes.txt file");
+	Option nodes2FileOption = new Option("nodes2", "nodes2file", true, "nodes.txt file(s) of the graph(s) to concatenate, comma-separated");
 	nodes2FileOption.setRequired(false);
 	options.addOption(nodes2FileOption);
+	// INPUT: second paths.txt
+	Option paths2FileOption = new Option("paths2", "paths2file", true, "paths file(s) of the graph(s) to concatenate, comma-separated in --nodes2 order; each must be in sample order, as PangenomicGraph writes them");
+	paths2FileOption.setRequired(false);
+	options.addOption(paths2FileOption);
         // INPUT: paths.txt 
         Option pathsFileOption = new Option("paths", "pathsfile", true, "read graph paths from a paths.txt file");
         pathsFileOption.setRequired(false);
@@ -755,6 +1290,26 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
 	Option maxMAFOption = new Option("maxmaf", "maxmaf", true, "maximum MAF/MGF of loci to be included on graph in percent [100.00]");
 	maxMAFOption.setRequired(false);
 	options.addOption(maxMAFOption);
+	// FILTER: MAF prefilter
+	Option mafPrefilterOption = new Option("mafprefilter", "mafprefilter", true, "reject VCF loci by MAF before decoding genotypes, estimated from INFO AC/AN/AF (info) or a raw GT scan (gt) [none]");
+	mafPrefilterOption.setRequired(false);
+	options.addOption(mafPrefilterOption);
+	// FILTER: seed for random sample selection
+	Option seedOption = new Option("seed", "seed", true, "seed for the random selection of samples by --maxcases and --equalizecasescontrols [random]");
+	seedOption.setRequired(false);
+	options.addOption(seedOption);
+	// OUTPUT: balanced replicates
+	Option replicatesOption = new Option("rep", "replicates", true, "write this many replicate graphs with independently selected samples, graph.repN.nodes/paths.txt [0]");
+	replicatesOption.setRequired(false);
+	options.addOption(replicatesOption);
+	// OUTPUT: paths file format
+	Option pathsFormatOption = new Option("pathsformat", "pathsformat", true, "write paths as paths.txt lines (txt), delta/varint encoded node ids (bin), or those in DEFLATE blocks (deflate) [txt]");
+	pathsFormatOption.setRequired(false);
+	options.addOption(pathsFormatOption);
+	// OUTPUT: binary snapshot
+	Option pgbOption = new Option("pgb", "writepgb", false, "also write a binary .pgb snapshot of the graph nodes and paths for fast loading [false]");
+	pgbOption.setRequired(false);
+	options.addOption(pgbOption);
 	
         try {
             cmd = parser.parse(options, args);
@@ -773,27 +1328,31 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
         }
 
 	// check that we have a requested action
-	if (!cmd.hasOption("buildnodes") && !cmd.hasOption("buildpaths") && !cmd.hasOption("cat")) {
-	    System.err.println("ERROR: you must request building graph nodes (--nodes) or building graph paths (--paths) or concatenating two graphs (--cat)");
+	if (!cmd.hasOption("buildnodes") && !cmd.hasOption("buildpaths") && !cmd.hasOption("cat") && !cmd.hasOption("appendfile") && !cmd.hasOption("mergedelta")) {
+	    System.err.println("ERROR: you must request building graph nodes (--nodes) or building graph paths (--paths) or concatenating two graphs (--cat) "+
+			       "or appending samples (--appendfile) or merging a delta (--mergedelta)");
 	    System.exit(1);
 	}
 	boolean buildNodes = cmd.hasOption("buildnodes");
 	boolean buildPaths = cmd.hasOption("buildpaths");
 	boolean catGraphs = cmd.hasOption("cat");
+	boolean appendGraph = cmd.hasOption("appendfile");
+	boolean mergeDelta = cmd.hasOption("mergedelta");
 	
         // validation
         boolean haveVCF = cmd.hasOption("vcffile");
 	boolean haveList = cmd.hasOption("listfile");
+	boolean haveBED = cmd.hasOption("bedfile");
 	boolean haveNodes = cmd.hasOption("nodesfile");
 	boolean haveNodes2 = cmd.hasOption("nodes2file");
 	boolean havePaths = cmd.hasOption("pathsfile");
 	boolean haveLabels = cmd.hasOption("labelsfile");
-	if (buildNodes && !haveVCF && !haveList && !haveNodes) {
-	    System.err.println("ERROR: to build a graph you must specify an input file with -vcf, -list, or -nodes");
+	if (buildNodes && !haveVCF && !haveList && !haveBED && !haveNodes) {
+	    System.err.println("ERROR: to build a graph you must specify an input file with -vcf, -list, -bed, or -nodes");
 	    System.exit(1);
 	}
-	if (buildPaths && !haveVCF && !haveList && !haveNodes) {
-	    System.err.println("ERROR: to build graph paths you must specify an input file with -vcf, -list, or -nodes");
+	if (buildPaths && !haveVCF && !haveList && !haveBED && !haveNodes) {
+	    System.err.println("ERROR: to build graph paths you must specify an input file with -vcf, -list, -bed, or -nodes");
 	    System.exit(1);
 	}
 	if (buildPaths && !haveLabels) {
@@ -801,7 +1360,49 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
 	    System.exit(1);
 	}
 	if (catGraphs && (!haveNodes || !haveNodes2)) {
-	    System.err.println("ERROR: to concatenate two graphs you must specify -nodes and -nodes2");
+	    System.err.println("ERROR: to concatenate graphs you must specify -nodes and -nodes2");
+	    System.exit(1);
+	}
+	if (catGraphs && (havePaths!=cmd.hasOption("paths2file") ||
+			  (havePaths && cmd.getOptionValue("paths2file").split(",").length!=cmd.getOptionValue("nodes2file").split(",").length))) {
+	    System.err.println("ERROR: to merge the paths of concatenated graphs you must specify -paths and a -paths2 file for each -nodes2 file");
+	    System.exit(1);
+	}
+	if ((appendGraph || mergeDelta) && (!haveNodes || !havePaths)) {
+	    System.err.println("ERROR: to append to a graph or merge a delta you must specify its -nodes and -paths");
+	    System.exit(1);
+	}
+	if (appendGraph && isVCF(cmd.getOptionValue("appendfile")) && !haveLabels) {
+	    System.err.println("ERROR: to append samples from a VCF file you must specify them and their labels with -l");
+	    System.exit(1);
+	}
+	if (cmd.hasOption("mafprefilter") && !cmd.getOptionValue("mafprefilter").equals("info") && !cmd.getOptionValue("mafprefilter").equals("gt")) {
+	    System.err.println("ERROR: --mafprefilter must be info or gt");
+	    System.exit(1);
+	}
+	String pathsFormat = cmd.getOptionValue("pathsformat", "txt");
+	if (!pathsFormat.equals("txt") && !pathsFormat.equals("bin") && !pathsFormat.equals("deflate")) {
+	    System.err.println("ERROR: --pathsformat must be txt, bin or deflate");
+	    System.exit(1);
+	}
+	if (cmd.hasOption("vcfthreads") && cmd.hasOption("vcfshards")) {
+	    System.err.println("ERROR: --vcfthreads streams the VCF file and cannot be combined with --vcfshards");
+	    System.exit(1);
+	}
+	if (haveVCF && cmd.getOptionValue("vcffile").equals("-") && (!buildPaths || haveNodes || !cmd.hasOption("vcfthreads"))) {
+	    System.err.println("ERROR: a VCF on standard input (-vcf -) can only be read with --vcfthreads when building graph nodes and paths together");
+	    System.exit(1);
+	}
+	if (cmd.hasOption("writepgb") && !buildPaths) {
+	    System.err.println("ERROR: a .pgb snapshot (--writepgb) can only be written when building graph paths");
+	    System.exit(1);
+	}
+	if (cmd.hasOption("replicates") && (!buildPaths || (!cmd.hasOption("maxcases") && !cmd.hasOption("equalizecasescontrols")))) {
+	    System.err.println("ERROR: replicates (--replicates) require building graph paths with --maxcases and/or --equalizecasescontrols");
+	    System.exit(1);
+	}
+	if (cmd.hasOption("writepgb") && havePaths && !cmd.hasOption("replicates") && (cmd.hasOption("maxcases") || cmd.hasOption("equalizecasescontrols"))) {
+	    System.err.println("ERROR: a .pgb snapshot (--writepgb) of a filtered graph cannot stand in for its unfiltered paths file");
 	    System.exit(1);
 	}
 
@@ -817,6 +1418,54 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
 	if (cmd.hasOption("minmaf")) minMAF = Double.parseDouble(cmd.getOptionValue("minmaf")) / 100.0;
 	if (cmd.hasOption("maxmaf")) maxMAF = Double.parseDouble(cmd.getOptionValue("maxmaf")) / 100.0;
 	boolean equalizeCasesControls = cmd.hasOption("equalizecasescontrols");
+	if (cmd.hasOption("seed")) graph.setSeed(Long.parseLong(cmd.getOptionValue("seed")));
+	if (cmd.hasOption("mafprefilter")) graph.setMAFPrefilter(cmd.getOptionValue("mafprefilter"));
+	// replicates are selected from the full set of paths after loading
+	int replicates = 0;
+	if (cmd.hasOption("replicates")) {
+	    replicates = Integer.parseInt(cmd.getOptionValue("replicates"));
+	    maxCases = 0;
+	    equalizeCasesControls = false;
+	}
+
+	if (appendGraph) {
+	    // load the stored graph, append the new samples and write the delta
+	    graph.loadFromTXT(new File(cmd.getOptionValue("nodesfile")), new File(cmd.getOptionValue("pathsfile")));
+	    graph.tallyLabelCounts();
+	    TreeSet<Sample> oldSamples = new TreeSet<>(graph.samples);
+	    File appendFile = new File(cmd.getOptionValue("appendfile"));
+	    File labelsFile = haveLabels ? new File(cmd.getOptionValue("labelsfile")) : null;
+	    TreeSet<Node> deltaNodes = isVCF(appendFile.getName()) ? graph.appendFromVCF(appendFile, labelsFile) : graph.appendFromTXT(appendFile, labelsFile);
+	    TreeSet<Sample> deltaSamples = new TreeSet<>(graph.samples);
+	    deltaSamples.removeAll(oldSamples);
+	    graph.writeDelta(deltaNodes, deltaSamples);
+	    System.err.println("Graph has "+graph.vertexSet().size()+" nodes, "+
+			       graph.paths.size()+" paths, and "+graph.getEdgeCount()+" edges with "+
+			       graph.labelCounts.get("case")+"/"+graph.labelCounts.get("ctrl")+" cases/controls");
+	    return;
+	} else if (mergeDelta) {
+	    // merge name.delta.* into the stored graph, writing graph.nodes.txt and graph.paths.txt
+	    PangenomicGraph delta = new PangenomicGraph(cmd.getOptionValue("mergedelta"));
+	    if (graph.verbose) System.err.println("Writing "+graph.getNodesFilename()+" and "+graph.getPathsFilename());
+	    mergeDelta(new File(cmd.getOptionValue("nodesfile")), new File(cmd.getOptionValue("pathsfile")),
+		       new File(delta.getDeltaNodesFilename()), new File(delta.getDeltaPathsFilename()),
+		       graph.getNodesFile(), graph.getPathsFile());
+	    return;
+	} else if (catGraphs) {
+	    // stream the graphs to graph.nodes.txt and, if given their paths, graph.paths.txt
+	    List<File> nodesFiles = new ArrayList<>();
+	    nodesFiles.add(new File(cmd.getOptionValue("nodesfile")));
+	    for (String filename : cmd.getOptionValue("nodes2file").split(",")) nodesFiles.add(new File(filename));
+	    File[] pathsFiles = null;
+	    if (havePaths) {
+		List<File> pathsFileList = new ArrayList<>();
+		pathsFileList.add(new File(cmd.getOptionValue("pathsfile")));
+		for (String filename : cmd.getOptionValue("paths2file").split(",")) pathsFileList.add(new File(filename));
+		pathsFiles = pathsFileList.toArray(new File[0]);
+	    }
+	    GraphConcatenator.concatenate(nodesFiles.toArray(new File[0]), pathsFiles, graph.getNodesFile(), graph.getPathsFile(), pathsFormat, graph.verbose);
+	    return;
+	}
 
 	if (buildPaths) {
 	    if (haveNodes) {
@@ -831,20 +1480,51 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
 		} else if (haveList) {
 		    // build the graph paths from a plink -list file
 		    graph.loadPathsFromList(new File(cmd.getOptionValue("listfile")), new File(cmd.getOptionValue("labelsfile")), maxCases, equalizeCasesControls);
+		} else if (haveBED) {
+		    // build the graph paths from a PLINK .bed fileset
+		    graph.loadPathsFromBED(new File(cmd.getOptionValue("bedfile")), new File(cmd.getOptionValue("labelsfile")), maxCases, equalizeCasesControls);
 		}
 	    } else if (haveVCF) {
-		// load relevant nodes and paths from a tabix-indexed vcf.gz file
-		graph.loadNodesFromVCF(new File(cmd.getOptionValue("vcffile")), minMAF, maxMAF);
-		graph.loadPathsFromVCF(new File(cmd.getOptionValue("vcffile")), new File(cmd.getOptionValue("labelsfile")), maxCases, equalizeCasesControls);
+		// load relevant nodes and paths from a vcf.gz file in one pass
+		if (cmd.hasOption("vcfthreads")) {
+		    int vcfThreads = Integer.parseInt(cmd.getOptionValue("vcfthreads"));
+		    graph.loadFromVCFPipelined(new File(cmd.getOptionValue("vcffile")), new File(cmd.getOptionValue("labelsfile")), minMAF, maxMAF, maxCases, equalizeCasesControls, vcfThreads);
+		} else {
+		    int vcfShards = Integer.parseInt(cmd.getOptionValue("vcfshards", "1"));
+		    graph.loadFromVCF(new File(cmd.getOptionValue("vcffile")), new File(cmd.getOptionValue("labelsfile")), minMAF, maxMAF, maxCases, equalizeCasesControls, vcfShards);
+		}
 	    } else if (haveList) {
-		// load relevant nodes and paths from a plink -list file
-		graph.loadNodesFromList(new File(cmd.getOptionValue("listfile")), minMAF, maxMAF); 
-		graph.loadPathsFromList(new File(cmd.getOptionValue("listfile")), new File(cmd.getOptionValue("labelsfile")), maxCases, equalizeCasesControls);
+		// load relevant nodes and paths from a plink -list file in one pass
+		graph.loadFromList(new File(cmd.getOptionValue("listfile")), new File(cmd.getOptionValue("labelsfile")), minMAF, maxMAF, maxCases, equalizeCasesControls);
+	    } else if (haveBED) {
+		// load relevant nodes and paths from a PLINK .bed fileset in one pass
+		int bedChunks = Integer.parseInt(cmd.getOptionValue("bedchunks", "1"));
+		graph.loadFromBED(new File(cmd.getOptionValue("bedfile")), new File(cmd.getOptionValue("labelsfile")), minMAF, maxMAF, maxCases, equalizeCasesControls, bedChunks);
 	    }
 	    graph.tallyLabelCounts();
 	    System.err.println("Graph has "+graph.vertexSet().size()+" nodes, "+
-			       graph.paths.size()+" paths, and "+graph.edgeSet().size()+" edges with "+
+			       graph.paths.size()+" paths, and "+graph.getEdgeCount()+" edges with "+
 			       graph.labelCounts.get("case")+"/"+graph.labelCounts.get("ctrl")+" cases/controls");
+	    // each replicate has its own seed, drawn from a generator seeded with the graph's, so that any one can be reproduced
+	    Random replicateSeeds = new Random(graph.seed);
+	    for (int r=0; r<replicates; r++) {
+		long replicateSeed = replicateSeeds.nextLong();
+		PangenomicGraph replicate = graph.getBalancedReplicate(graph.name+".rep"+r,
+								       Integer.parseInt(cmd.getOptionValue("maxcases", "0")),
+								       cmd.hasOption("equalizecasescontrols"),
+								       new Random(replicateSeed));
+		System.err.println(replicate.name+" (seed="+replicateSeed+") has "+replicate.vertexSet().size()+" nodes, "+
+				   replicate.paths.size()+" paths, and "+replicate.getEdgeCount()+" edges with "+
+				   replicate.labelCounts.get("case")+"/"+replicate.labelCounts.get("ctrl")+" cases/controls");
+		if (graph.verbose) System.err.println("Writing "+replicate.getNodesFilename()+" and "+replicate.getPathsFilename());
+		PrintStream nodesOut = new PrintStream(replicate.getNodesFilename());
+		replicate.printNodes(nodesOut);
+		nodesOut.close();
+		replicate.printPaths(replicate.getPathsFile(), pathsFormat);
+		if (cmd.hasOption("writepgb")) {
+		    replicate.writePGB(PGBFile.getSnapshotFile(replicate.getPathsFile()), replicate.getNodesFile(), replicate.getPathsFile());
+		}
+	    }
 	} else if (buildNodes) {
 	    if (haveNodes) {
 		// load the nodes from nodes.txt file
@@ -855,33 +1535,44 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
 	    } else if (haveList) {
 		// load relevant nodes from a plink -list file
 		graph.loadNodesFromList(new File(cmd.getOptionValue("listfile")), minMAF, maxMAF);
+	    } else if (haveBED) {
+		// load relevant nodes from a PLINK .bed fileset
+		graph.loadNodesFromBED(new File(cmd.getOptionValue("bedfile")), minMAF, maxMAF);
 	    }
-	} else if (catGraphs) {
-	    // load the first graph's nodes
-	    graph.loadNodesFromTXT(new File(cmd.getOptionValue("nodesfile")));
-	    // append the second graph's nodes
-	    graph.appendNodesFromTXT(new File(cmd.getOptionValue("nodes2file")));
 	}
 
 	// output
 	if (!cmd.hasOption("nodesfile") && graph.getNodes().size()>0) {
 	    // to graph.nodes.txt
 	    if (graph.verbose) System.err.println("Writing "+graph.getNodesFilename());
-	    graph.printNodes(new PrintStream(graph.getNodesFilename()));
+	    PrintStream nodesOut = new PrintStream(graph.getNodesFilename());
+	    graph.printNodes(nodesOut);
+	    nodesOut.close();
 	}
-	if (catGraphs) {
-	    // to graph.nodes.txt
-	    if (graph.verbose) System.err.println("Writing "+graph.getNodesFilename());
-	    graph.printNodes(new PrintStream(graph.getNodesFilename()));
-	}	    
-	if (!cmd.hasOption("pathsfile") && graph.paths.size()>0) {
+	File pathsFile = havePaths ? new File(cmd.getOptionValue("pathsfile")) : null;
+	if (!cmd.hasOption("pathsfile") && replicates==0 && graph.paths.size()>0) {
 	    // to conglomerate paths filename
 	    String pathsFilename = graph.getPathsFilename()+"."+cmd.getOptionValue("labelsfile");
 	    if (graph.verbose) System.err.println("Writing "+pathsFilename);
-	    graph.printPaths(new PrintStream(pathsFilename));
+	    pathsFile = new File(pathsFilename);
+	    graph.printPaths(pathsFile, pathsFormat);
+	}
+	if (cmd.hasOption("writepgb") && replicates==0 && pathsFile!=null) {
+	    // to the snapshot of the nodes.txt and paths.txt files
+	    File nodesFile = haveNodes ? new File(cmd.getOptionValue("nodesfile")) : graph.getNodesFile();
+	    File pgbFile = PGBFile.getSnapshotFile(pathsFile);
+	    if (graph.verbose) System.err.println("Writing "+pgbFile.getName());
+	    graph.writePGB(pgbFile, nodesFile, pathsFile);
 	}
     }
 
+    /**
+     * Return true if a file name is that of a VCF file.
+     */
+    static boolean isVCF(String filename) {
+	return filename.endsWith(".vcf") || filename.endsWith(".vcf.gz");
+    }
+
     /**
      * Return the name of the nodes.txt file.
      */
@@ -896,6 +1587,20 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
 	return name+".paths.txt";
     }
 
+    /**
+     * Return the name of the nodes.txt delta file written by an append.
+     */
+    public String getDeltaNodesFilename() {
+	return name+".delta.nodes.txt";
+    }
+
+    /**
+     * Return the name of the paths.txt delta file written by an append.
+     */
+    public String getDeltaPathsFilename() {
+	return name+".delta.paths.txt";
+    }
+
     /**
      * Return the nodes.txt file.
      */
@@ -910,6 +1615,21 @@ public class PangenomicGraph extends DirectedAcyclicGraph<Node,Edge> {
 	return new File(getPathsFilename());
     }
 
+    /**
+     * Set the VCF MAF prefilter: "info", "gt", or null for none.
+     */
+    public void setMAFPrefilter(String mafPrefilter) {
+	this.mafPrefilter = mafPrefilter;
+    }
+
+    /**
+     * Set the seed for random sample selection.
+     */
+    public void setSeed(long seed) {
+	this.seed = seed;
+	random = new Random(seed);
+    }
+
     /**
      * Set the verbosity flag.
      */
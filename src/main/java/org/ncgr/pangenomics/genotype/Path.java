@@ -1,7 +1,8 @@
 package org.ncgr.pangenomics.genotype;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.LinkedList;
 
 import org.jgrapht.Graph;
 import org.jgrapht.graph.GraphWalk;
@@ -17,12 +18,105 @@ public class Path extends GraphWalk<Node,Edge> implements Comparable {
     // the Sample associated with this Path
     private Sample sample;
 
+    // the index of this Path in its graph's PackedGraph core, set when the core is built
+    int index = -1;
+
+    // the ids of this path's nodes, in order of traversal, for binary search of node positions
+    private long[] nodeIds;
+
+    // true if nodeIds is strictly ascending (always the case for paths built from NodeSets)
+    private boolean sorted;
+
+    // for a path whose nodes are not materialized yet: the graph nodes and this path's indices into them, null once materialized
+    private Node[] sourceNodes;
+    private volatile int[] sourceIndices;
+
     /**
      * Create a path defined by a List of Nodes and a Sample. weight=1.0.
      */
     public Path(Graph<Node,Edge> graph, List<Node> nodes, Sample sample) {
-        super(graph, nodes, 1.0);
+        super(graph, new ArrayList<Node>(nodes), 1.0);
+        this.sample = sample;
+        setNodeIds();
+    }
+
+    /**
+     * Create a path of a Sample whose nodes are the given graph nodes at the given indices, such as the node index array of a .pgb snapshot.
+     * The nodes are only materialized when the path is first asked for them. The arrays are kept, not copied.
+     */
+    public Path(Graph<Node,Edge> graph, Sample sample, Node[] graphNodes, int[] indices) {
+        super(graph, new ArrayList<Node>(), 1.0);
         this.sample = sample;
+        sourceNodes = graphNodes;
+        sourceIndices = indices;
+    }
+
+    /**
+     * Materialize the nodes of a path created from node indices, if that hasn't been done yet.
+     * Paths are read from parallel streams, so sourceIndices is cleared last, once the nodes are in place.
+     */
+    private void materializeNodes() {
+        if (sourceIndices==null) return;
+        synchronized (this) {
+            if (sourceIndices==null) return;
+            List<Node> nodeList = new ArrayList<>(sourceIndices.length);
+            for (int i : sourceIndices) nodeList.add(sourceNodes[i]);
+            vertexList = nodeList;
+            if (nodeList.size()>0) {
+                startVertex = nodeList.get(0);
+                endVertex = nodeList.get(nodeList.size()-1);
+            }
+            setNodeIds();
+            sourceIndices = null;
+        }
+    }
+
+    /**
+     * Set nodeIds and sorted from the vertex list.
+     */
+    private void setNodeIds() {
+        nodeIds = new long[vertexList.size()];
+        sorted = true;
+        for (int k=0; k<nodeIds.length; k++) {
+            nodeIds[k] = vertexList.get(k).id;
+            if (k>0 && nodeIds[k]<=nodeIds[k-1]) sorted = false;
+        }
+    }
+
+    @Override
+    public List<Node> getVertexList() {
+        materializeNodes();
+        return super.getVertexList();
+    }
+
+    @Override
+    public List<Edge> getEdgeList() {
+        materializeNodes();
+        return super.getEdgeList();
+    }
+
+    @Override
+    public Node getStartVertex() {
+        materializeNodes();
+        return super.getStartVertex();
+    }
+
+    @Override
+    public Node getEndVertex() {
+        materializeNodes();
+        return super.getEndVertex();
+    }
+
+    @Override
+    public int getLength() {
+        materializeNodes();
+        return super.getLength();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        materializeNodes();
+        return super.isEmpty();
     }
 
     /**
@@ -57,6 +151,13 @@ public class Path extends GraphWalk<Node,Edge> implements Comparable {
 	return sample;
     }
      
+    /**
+     * Return the index of this path in its graph's packed core (-1 if not yet indexed).
+     */
+    public int getIndex() {
+        return index;
+    }
+
     /**
      * Return the sample.name
      */
@@ -92,6 +193,65 @@ public class Path extends GraphWalk<Node,Edge> implements Comparable {
         return getVertexList();
     }
 
+    /**
+     * Return the number of nodes in this path.
+     */
+    public int getNodeCount() {
+        int[] indices = sourceIndices;
+        if (indices!=null) return indices.length;
+        return nodeIds.length;
+    }
+
+    /**
+     * Return the node at the given position in this path.
+     */
+    public Node getNode(int k) {
+        return getNodes().get(k);
+    }
+
+    /**
+     * Return the id of the node at the given position in this path.
+     */
+    public long getNodeId(int k) {
+        int[] indices = sourceIndices;
+        if (indices!=null) return sourceNodes[indices[k]].id;
+        return nodeIds[k];
+    }
+
+    /**
+     * Return the ids of this path's nodes in increasing order: the cached array itself when they're traversed in that order,
+     * as paths built from NodeSets are, else a sorted copy. Do not modify.
+     */
+    public long[] getSortedNodeIds() {
+        materializeNodes();
+        if (sorted) return nodeIds;
+        long[] ids = nodeIds.clone();
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Return the position of the given node (identified by id) in this path, or -1 if it is not traversed.
+     */
+    public int indexOf(Node node) {
+        return indexOf(node.id);
+    }
+
+    /**
+     * Return the position of the node with the given id in this path, or -1 if it is not traversed.
+     */
+    public int indexOf(long id) {
+        materializeNodes();
+        if (sorted) {
+            int k = Arrays.binarySearch(nodeIds, id);
+            return k>=0 ? k : -1;
+        }
+        for (int k=0; k<nodeIds.length; k++) {
+            if (nodeIds[k]==id) return k;
+        }
+        return -1;
+    }
+
     /**
      * Return the edges that this path follows along, in order of traversal.
      */
@@ -115,43 +275,35 @@ public class Path extends GraphWalk<Node,Edge> implements Comparable {
      * @return the Path inclusively between nl and nr
      */
     public Path subpath(Node nl, Node nr) {
-        List<Node> subnodes = new LinkedList<>();
-        List<Node> nodeList = getNodes();
-        if (nodeList.contains(nl) && nodeList.contains(nr)) {
-            if (nl.equals(nr)) {
-                subnodes.add(nl);
-            } else {
-                boolean started = false;
-                boolean finished = false;
-                for (Node node : nodeList) {
-                    if (!started && node.equals(nl)) {
-                        started = true;
-                        subnodes.add(node);
-                    } else if (node.equals(nr) && !finished) {
-                        subnodes.add(node);
-                        finished = true;
-                    } else if (started && !finished) {
-                        subnodes.add(node);
-                    }
-                }
-            }
-        }
-        return new Path(this.graph, subnodes, sample);
+        int l = indexOf(nl);
+        int r = indexOf(nr);
+        if (l<0 || r<l) return new Path(this.graph, new ArrayList<Node>(), sample);
+        return new Path(this.graph, getNodes().subList(l, r+1), sample);
+    }
+
+    /**
+     * Return a zero-copy view of the subpath inclusively between the two given positions.
+     * @param l the position of the "left" node
+     * @param r the position of the "right" node
+     * @return the Subpath inclusively between positions l and r
+     */
+    public Subpath subpath(int l, int r) {
+        return new Subpath(this, l, r+1);
     }
 
     /**
-     * Return true if the given Path represents a subpath of this Path.
+     * Return true if the given Path represents a subpath of this Path: once one of its nodes is found in this path, all the rest must be.
      * @param path the path to be compared with this one
      * @return true if path is a subpath of this
      */
     public boolean contains(Path path) {
-        List<Node> thisNodes = this.getNodes();
-        List<Node> pathNodes = path.getNodes();
+        path.materializeNodes();
         boolean match = false;
-        for (Node m : pathNodes) {
-            if (!match && thisNodes.contains(m)) {
+        for (int k=0; k<path.nodeIds.length; k++) {
+            boolean found = indexOf(path.nodeIds[k])>=0;
+            if (!match && found) {
                 match = true;
-            } else if (match && !thisNodes.contains(m)) {
+            } else if (match && !found) {
                 match = false;
                 break;
             }
@@ -165,6 +317,6 @@ public class Path extends GraphWalk<Node,Edge> implements Comparable {
      * @return true if this path traverses the node
      */
     public boolean traverses(Node node) {
-	return getNodes().contains(node);
+	return indexOf(node.id)>=0;
     }
 }
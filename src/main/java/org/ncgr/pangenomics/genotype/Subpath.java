@@ -0,0 +1,157 @@
+package org.ncgr.pangenomics.genotype;
+
+import java.util.List;
+
+/**
+ * A zero-copy view of a contiguous segment of a Path: the path plus a start (inclusive) and end (exclusive) position.
+ * Used for the supporting subpaths of frequented regions in place of new GraphWalk objects.
+ *
+ * @author Sam Hokin
+ */
+public class Subpath implements Comparable {
+
+    // the Path this is a segment of
+    private Path path;
+
+    // start position (inclusive) and end position (exclusive) in the path
+    private int start;
+    private int end;
+
+    /**
+     * Create a view of path from position start (inclusive) to end (exclusive).
+     */
+    public Subpath(Path path, int start, int end) {
+        this.path = path;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Return the full Path this is a segment of.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Return the start position (inclusive) in the full path.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Return the end position (exclusive) in the full path.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Return the number of nodes in this subpath.
+     */
+    public int size() {
+        return end - start;
+    }
+
+    /**
+     * Return the nodes of this subpath, as a view of the full path's node list.
+     */
+    public List<Node> getNodes() {
+        return path.getNodes().subList(start, end);
+    }
+
+    /**
+     * Return the node at the given position within this subpath.
+     */
+    public Node getNode(int k) {
+        return path.getNode(start+k);
+    }
+
+    /**
+     * Return the sample of the full path.
+     */
+    public Sample getSample() {
+        return path.getSample();
+    }
+
+    /**
+     * Return the name of the full path.
+     */
+    public String getName() {
+        return path.getName();
+    }
+
+    /**
+     * Return the label of the full path.
+     */
+    public String getLabel() {
+        return path.getLabel();
+    }
+
+    /**
+     * Return true if the full path belongs to a "case" sample.
+     */
+    public boolean isCase() {
+        return path.isCase();
+    }
+
+    /**
+     * Return true if the full path belongs to a "control" sample.
+     */
+    public boolean isControl() {
+        return path.isControl();
+    }
+
+    /**
+     * Return true if this subpath traverses the given node (identified by id).
+     */
+    public boolean traverses(Node node) {
+        int k = path.indexOf(node.id);
+        return k>=start && k<end;
+    }
+
+    /**
+     * Return true if the given subpath is a segment of the same path lying within this one.
+     */
+    public boolean contains(Subpath that) {
+        return this.path==that.path && this.start<=that.start && that.end<=this.end;
+    }
+
+    /**
+     * Two subpaths are equal if they are the same segment of the same path.
+     */
+    @Override
+    public boolean equals(Object o) {
+        Subpath that = (Subpath) o;
+        return this.path.equals(that.path) && this.start==that.start && this.end==that.end;
+    }
+
+    /**
+     * Must override hashCode() for Map keys.
+     */
+    @Override
+    public int hashCode() {
+        return 31*(31*path.hashCode() + start) + end;
+    }
+
+    /**
+     * Compare based on path, then start and end positions.
+     */
+    public int compareTo(Object o) {
+        Subpath that = (Subpath) o;
+        int c = this.path.compareTo(that.path);
+        if (c!=0) return c;
+        if (this.start!=that.start) return this.start - that.start;
+        return this.end - that.end;
+    }
+
+    /**
+     * Return the same string representation as the equivalent Path: sample, then the nodes as a NodeSet.
+     */
+    @Override
+    public String toString() {
+        NodeSet ns = new NodeSet(getNodes());
+        return path.getSample().toString()+"\t"+ns.toString();
+    }
+}
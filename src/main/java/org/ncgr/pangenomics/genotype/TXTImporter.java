@@ -1,22 +1,23 @@
 package org.ncgr.pangenomics.genotype;
 
-import org.jgrapht.Graph;
-import org.jgrapht.io.GraphImporter;
-
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.TreeMap;
-import java.util.Set;
 import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Importer for TXT files [graph].nodes.txt and [graph].paths.txt containing Nodes and Paths.
@@ -24,10 +25,20 @@ import java.util.TreeSet;
  *    abstract void readNodes(double minMAF, double maxMAF) throws IOException;
  *    abstract void readPaths(File labelsFile) throws IOException;
  *
+ * The files are memory-mapped and split into chunks at line boundaries which are parsed in parallel straight from bytes,
+ * then merged in file order, so the result is the same as reading the file line by line.
+ * A paths file may instead be a BinaryPathsFile, which is recognized by its magic number and read by decoding its blocks in parallel.
+ *
  * @author Sam Hokin
  */
 public class TXTImporter extends Importer {
 
+    // files are split into about this many bytes per chunk, at least
+    static final long MIN_CHUNK_SIZE = 1L<<20;
+
+    // each chunk is mapped separately so must be well under the 2GB MappedByteBuffer limit
+    static final long MAX_CHUNK_SIZE = 1L<<30;
+
     File nodesFile;
     File pathsFile;
 
@@ -45,7 +56,7 @@ public class TXTImporter extends Importer {
 	this.pathsFile = pathsFile;
 	this.nodeIdMap = nodeIdMap;
     }
-    
+
     /**
      * Import all nodes from a nodes.txt file without constraints.
      */
@@ -55,18 +66,47 @@ public class TXTImporter extends Importer {
     }
 
     /**
-     * Import nodes from a nodes.txt file with MAF constraints.
+     * Import nodes from a nodes.txt file with MAF constraints. The count column is optional.
+     * 0   1           2      3        4        5        6    7
+     * id  rs          contig start    end      genotype gf   count
+     * 1   rs112943240 6      25726329 25726329 C/CTT    0.43 43
      */
     @Override
     public void readNodes(double minMAF, double maxMAF) throws IOException {
-        String line = null;
-        BufferedReader reader = new BufferedReader(new FileReader(nodesFile));
-        while ((line=reader.readLine())!=null) {
-	    if (line.startsWith("#")) continue;
-	    Node n = new Node(line);
-            nodeIdMap.put(n.id, n);
-        }
-        reader.close();
+	long[] bounds = getChunkBounds(nodesFile);
+	List<List<Node>> chunks = parseChunks(nodesFile, bounds, chunk -> {
+		List<Node> nodes = new ArrayList<>();
+		// contigs and genotypes repeat a lot, so share their Strings within the chunk
+		Map<String,String> shared = new HashMap<>();
+		int[] tabs = new int[7];
+		while (chunk.nextLine()) {
+		    byte[] b = chunk.line;
+		    if (chunk.length==0 || b[0]=='#') continue;
+		    int ntabs = chunk.findTabs(tabs);
+		    if (ntabs<6) {
+			System.err.println("ERROR: "+nodesFile.getName()+" line has fewer than 7 fields: "+chunk.getLineString());
+			System.exit(1);
+		    }
+		    int end = chunk.nextTab(tabs[5]+1);
+		    long id = parseLong(b, 0, tabs[0]);
+		    String rs = chunk.getString(tabs[0]+1, tabs[1]);
+		    String contig = shared.computeIfAbsent(chunk.getString(tabs[1]+1, tabs[2]), s -> s);
+		    int start = (int) parseLong(b, tabs[2]+1, tabs[3]);
+		    int stop = (int) parseLong(b, tabs[3]+1, tabs[4]);
+		    String genotype = shared.computeIfAbsent(chunk.getString(tabs[4]+1, tabs[5]), s -> s);
+		    double gf = Double.parseDouble(chunk.getString(tabs[5]+1, end));
+		    if (rs.equals(".")) rs = null;
+		    Node n = new Node(id, rs, contig, start, stop, genotype, gf);
+		    if (ntabs>6) n.count = (int) parseLong(b, tabs[6]+1, chunk.nextTab(tabs[6]+1));
+		    nodes.add(n);
+		}
+		return nodes;
+	    });
+	for (List<Node> nodes : chunks) {
+	    for (Node n : nodes) {
+		nodeIdMap.put(n.id, n);
+	    }
+	}
         if (verbose) System.err.println("Read "+nodeIdMap.size()+" nodes from "+nodesFile.getName());
     }
 
@@ -82,22 +122,7 @@ public class TXTImporter extends Importer {
 	// read in the samples
 	TreeSet<Sample> desiredSamples = Sample.readSamples(labelsFile);
 	// read in the paths for the desired samples
-	String line = null;
-        BufferedReader reader = new BufferedReader(new FileReader(pathsFile));
-        while ((line=reader.readLine())!=null) {
-	    Sample sample = new Sample(line);
-	    if (desiredSamples.contains(sample)) {
-		NodeSet nodeSet = new NodeSet(line);
-		sampleNodeSets.put(sample, nodeSet);
-		// add to the nodeSamples
-		for (Node n : nodeSet) {
-		    TreeSet<Sample> samples = nodeSamples.get(n);
-		    if (samples==null) samples = new TreeSet<>(); // first sample
-		    samples.add(sample);
-		    nodeSamples.put(n, samples); // update
-		}
-	    }
-	}
+	readPaths(desiredSamples);
 	// show message if not all desired samples were read
 	if (sampleNodeSets.size()!=desiredSamples.size()) {
 	    System.err.println("WARNING: "+labelsFile.getName()+" contains "+desiredSamples.size()+" samples, "+
@@ -108,7 +133,7 @@ public class TXTImporter extends Importer {
     }
 
     /**
-     * Import paths from a paths.txt file, which means populating sampleNodeSets and nodeSamples.
+     * Import paths from a paths.txt file, which means populating sampleNodeSets (nodeSamples is not needed).
      * NOTE: readNodes must be called first to populate nodes map!
      * name     label   nodeset
      * 642913	case	[1,8,17,21,24,25,28,33,35,37,...]
@@ -119,28 +144,258 @@ public class TXTImporter extends Importer {
 	    System.exit(1);
 	}
 	// read in the paths
-	String line = null;
-        BufferedReader reader = new BufferedReader(new FileReader(pathsFile));
-        while ((line=reader.readLine())!=null) {
-	    Sample sample = new Sample(line);
-	    NodeSet nodeSet = new NodeSet(line);
-	    sampleNodeSets.put(sample, nodeSet);
-	    // add to the nodeSamples
-	    for (Node n : nodeSet) {
-		TreeSet<Sample> samples = nodeSamples.get(n);
-		if (samples==null) samples = new TreeSet<>(); // first sample
-		samples.add(sample);
-		nodeSamples.put(n, samples); // update
-	    }
-	}
+	readPaths((TreeSet<Sample>) null);
 	// wrap up
 	if (verbose) System.err.println("Read "+sampleNodeSets.size()+" paths from "+pathsFile.getName());
     }
 
+    /**
+     * Import the paths for the desired samples (all if null) from the pathsFile into sampleNodeSets.
+     * Path nodes are the nodes in nodeIdMap; ids that aren't there get bare Node(id) instances.
+     */
+    void readPaths(TreeSet<Sample> desiredSamples) throws IOException {
+	// the graph nodes as sorted arrays, for lookup without boxing
+	final long[] ids = new long[nodeIdMap.size()];
+	final Node[] nodes = nodeIdMap.values().toArray(new Node[0]);
+	for (int i=0; i<nodes.length; i++) ids[i] = nodes[i].id;
+	if (BinaryPathsFile.isBinaryPathsFile(pathsFile)) {
+	    readBinaryPaths(desiredSamples, ids, nodes);
+	    return;
+	}
+	long[] bounds = getChunkBounds(pathsFile);
+	List<List<Object>> chunks = parseChunks(pathsFile, bounds, chunk -> {
+		// alternating Sample, NodeSet
+		List<Object> samplePaths = new ArrayList<>();
+		long[] pathIds = new long[1024];
+		int[] tabs = new int[2];
+		while (chunk.nextLine()) {
+		    byte[] b = chunk.line;
+		    if (chunk.length==0 || b[0]=='#') continue;
+		    int ntabs = chunk.findTabs(tabs);
+		    if (ntabs<1) {
+			System.err.println("ERROR: "+pathsFile.getName()+" line has no label: "+chunk.getLineString());
+			System.exit(1);
+		    }
+		    String name = chunk.getString(0, tabs[0]);
+		    String label = chunk.getString(tabs[0]+1, ntabs>1 ? tabs[1] : chunk.length);
+		    Sample sample = new Sample(name, label);
+		    if (desiredSamples!=null && !desiredSamples.contains(sample)) continue;
+		    // parse the node ids from [1,8,17,...]
+		    int n = 0;
+		    int k = 0;
+		    while (k<chunk.length && b[k]!='[') k++;
+		    k++;
+		    while (k<chunk.length && b[k]!=']') {
+			int start = k;
+			while (k<chunk.length && b[k]!=',' && b[k]!=']') k++;
+			if (k>start) {
+			    if (n==pathIds.length) pathIds = Arrays.copyOf(pathIds, 2*n);
+			    pathIds[n++] = parseLong(b, start, k);
+			}
+			if (k<chunk.length && b[k]==',') k++;
+		    }
+		    samplePaths.add(sample);
+		    samplePaths.add(getNodeSet(pathIds, n, ids, nodes));
+		}
+		return samplePaths;
+	    });
+	for (List<Object> samplePaths : chunks) {
+	    for (int m=0; m<samplePaths.size(); m+=2) {
+		sampleNodeSets.put((Sample) samplePaths.get(m), (NodeSet) samplePaths.get(m+1));
+	    }
+	}
+    }
+
+    /**
+     * Import the paths for the desired samples (all if null) from a binary paths file, decoding its blocks in parallel.
+     */
+    void readBinaryPaths(TreeSet<Sample> desiredSamples, long[] ids, Node[] nodes) throws IOException {
+	try (BinaryPathsFile binaryPaths = new BinaryPathsFile(pathsFile)) {
+	    List<List<Object>> blocks = IntStream.range(0, binaryPaths.getBlockCount()).parallel().mapToObj(b -> {
+		    try {
+			// alternating Sample, NodeSet
+			List<Object> samplePaths = new ArrayList<>();
+			long[][] blockIds = binaryPaths.readBlock(b);
+			for (int k=0; k<blockIds.length; k++) {
+			    Sample sample = binaryPaths.getSample(b*binaryPaths.pathsPerBlock+k);
+			    if (desiredSamples!=null && !desiredSamples.contains(sample)) continue;
+			    samplePaths.add(sample);
+			    samplePaths.add(getNodeSet(blockIds[k], blockIds[k].length, ids, nodes));
+			}
+			return samplePaths;
+		    } catch (IOException e) {
+			throw new UncheckedIOException(e);
+		    }
+		}).collect(Collectors.toList());
+	    for (List<Object> samplePaths : blocks) {
+		for (int m=0; m<samplePaths.size(); m+=2) {
+		    sampleNodeSets.put((Sample) samplePaths.get(m), (NodeSet) samplePaths.get(m+1));
+		}
+	    }
+	} catch (UncheckedIOException e) {
+	    throw e.getCause();
+	}
+    }
+
+    /**
+     * Return the NodeSet of the graph nodes with pathIds[0..n), given the graph node ids and nodes as sorted arrays.
+     * Ids that aren't in the graph get bare Node(id) instances.
+     */
+    static NodeSet getNodeSet(long[] pathIds, int n, long[] ids, Node[] nodes) {
+	Node[] pathNodes = new Node[n];
+	boolean sorted = true;
+	for (int m=0; m<n; m++) {
+	    int i = Arrays.binarySearch(ids, pathIds[m]);
+	    pathNodes[m] = i>=0 ? nodes[i] : new Node(pathIds[m]);
+	    if (m>0 && pathIds[m]<=pathIds[m-1]) sorted = false;
+	}
+	return new NodeSet(pathNodes, sorted);
+    }
+
     /**
      * Set verbosity
      */
     public void setVerbose(boolean flag) {
 	verbose = flag;
     }
+
+    /**
+     * Return the chunk boundaries of a file: offsets 0=b0 < b1 < ... < bn=length, each bk (k>0, k<n) just after a newline.
+     */
+    static long[] getChunkBounds(File file) throws IOException {
+	long size = file.length();
+	int nchunks = (int) Math.min(4*Runtime.getRuntime().availableProcessors(), size/MIN_CHUNK_SIZE);
+	nchunks = (int) Math.max(Math.max(nchunks, 1), (size+MAX_CHUNK_SIZE-1)/MAX_CHUNK_SIZE);
+	long[] bounds = new long[nchunks+1];
+	bounds[nchunks] = size;
+	try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+	    byte[] buf = new byte[1<<16];
+	    for (int k=1; k<nchunks; k++) {
+		long pos = Math.max(k*(size/nchunks), bounds[k-1]);
+		// advance to just after the next newline
+		long bound = size;
+		raf.seek(pos);
+		int read;
+		search:
+		while ((read=raf.read(buf))>0) {
+		    for (int i=0; i<read; i++) {
+			if (buf[i]=='\n') {
+			    bound = pos + i + 1;
+			    break search;
+			}
+		    }
+		    pos += read;
+		}
+		bounds[k] = bound;
+	    }
+	}
+	return bounds;
+    }
+
+    /**
+     * Parse the chunks of a file in parallel, returning the per-chunk results in file order.
+     */
+    static <T> List<T> parseChunks(File file, long[] bounds, ChunkParser<T> parser) throws IOException {
+	try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+	    return IntStream.range(0, bounds.length-1).parallel().mapToObj(k -> {
+		    try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[k], bounds[k+1]-bounds[k]);
+			return parser.parse(new Chunk(buffer));
+		    } catch (IOException e) {
+			throw new UncheckedIOException(e);
+		    }
+		}).collect(Collectors.toList());
+	} catch (UncheckedIOException e) {
+	    throw e.getCause();
+	}
+    }
+
+    /**
+     * Parses one chunk of a file into a result.
+     */
+    interface ChunkParser<T> {
+	T parse(Chunk chunk) throws IOException;
+    }
+
+    /**
+     * A mapped chunk of a file, read one line at a time into a reused byte array.
+     */
+    static class Chunk {
+	MappedByteBuffer buffer;
+	byte[] line = new byte[1024];
+	int length;
+
+	Chunk(MappedByteBuffer buffer) {
+	    this.buffer = buffer;
+	}
+
+	/**
+	 * Load the next line, without its line terminator, into line[0..length). Return false at the end of the chunk.
+	 */
+	boolean nextLine() {
+	    if (!buffer.hasRemaining()) return false;
+	    length = 0;
+	    while (buffer.hasRemaining()) {
+		byte c = buffer.get();
+		if (c=='\n') break;
+		if (length==line.length) line = Arrays.copyOf(line, 2*length);
+		line[length++] = c;
+	    }
+	    if (length>0 && line[length-1]=='\r') length--;
+	    return true;
+	}
+
+	/**
+	 * Fill tabs with the positions of the first tabs.length tabs in the line, returning how many were found.
+	 */
+	int findTabs(int[] tabs) {
+	    int n = 0;
+	    for (int i=0; i<length && n<tabs.length; i++) {
+		if (line[i]=='\t') tabs[n++] = i;
+	    }
+	    return n;
+	}
+
+	/**
+	 * Return the position of the next tab at or after from, or the line length if there isn't one.
+	 */
+	int nextTab(int from) {
+	    for (int i=from; i<length; i++) {
+		if (line[i]=='\t') return i;
+	    }
+	    return length;
+	}
+
+	/**
+	 * Return the UTF-8 string in line[start..end).
+	 */
+	String getString(int start, int end) {
+	    return new String(line, start, end-start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return the whole line as a string, for error messages.
+	 */
+	String getLineString() {
+	    return getString(0, length);
+	}
+    }
+
+    /**
+     * Parse a decimal long from b[start..end), as Long.parseLong would.
+     */
+    static long parseLong(byte[] b, int start, int end) {
+	if (start>=end) throw new NumberFormatException("empty number");
+	int i = start;
+	boolean negative = b[i]=='-';
+	if (negative || b[i]=='+') i++;
+	if (i==end) throw new NumberFormatException(new String(b, start, end-start, StandardCharsets.UTF_8));
+	long value = 0;
+	for (; i<end; i++) {
+	    int digit = b[i] - '0';
+	    if (digit<0 || digit>9) throw new NumberFormatException(new String(b, start, end-start, StandardCharsets.UTF_8));
+	    value = 10*value + digit;
+	}
+	return negative ? -value : value;
+    }
 }
@@ -0,0 +1,286 @@
+package org.ncgr.pangenomics.genotype;
+
+import java.io.StringReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.SynchronousLineReader;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+
+/**
+ * Decodes raw VCF data lines for graph building, reading only the GT field of each sample into a per-sample byte code.
+ * The first eight columns are decoded by a sites-only VCFCodec so contig, start, end, ID and alleles are as VCFFileReader gives them;
+ * genotype strings, genotype frequencies and the MAF follow Genotype.getGenotypeString() and VCFImporter.getMAF().
+ * Not thread-safe: use one per thread.
+ *
+ * @author Sam Hokin
+ */
+public class VCFGenotypeDecoder {
+
+    // code for a sample that isn't fully called: no-call, mixed or no GT
+    public static final byte NOT_CALLED = -1;
+
+    // decodes the site columns
+    VCFCodec codec;
+
+    // the number of samples in the header
+    int sampleCount;
+
+    // per-line working storage: each sample's raw code, an index into rawGTs
+    byte[] rawCodes;
+    List<String> rawGTs = new ArrayList<>();
+
+    /**
+     * Construct from the header lines of the VCF, through the #CHROM line.
+     */
+    public VCFGenotypeDecoder(List<String> headerLines) {
+	StringBuilder sitesHeader = new StringBuilder();
+	for (String line : headerLines) {
+	    if (line.startsWith("#CHROM")) {
+		String[] fields = line.split("\t");
+		sampleCount = Math.max(0, fields.length-9);
+		// the sites-only column header: #CHROM POS ID REF ALT QUAL FILTER INFO
+		sitesHeader.append(String.join("\t", Arrays.copyOf(fields, Math.min(fields.length, 8))));
+	    } else {
+		sitesHeader.append(line);
+	    }
+	    sitesHeader.append("\n");
+	}
+	codec = new VCFCodec();
+	codec.readActualHeader(new LineIteratorImpl(new SynchronousLineReader(new StringReader(sitesHeader.toString()))));
+	rawCodes = new byte[sampleCount];
+    }
+
+    /**
+     * Return the sample names from the #CHROM header line.
+     */
+    public static List<String> getSampleNames(String chromLine) {
+	String[] fields = chromLine.split("\t");
+	List<String> names = new ArrayList<>();
+	for (int i=9; i<fields.length; i++) names.add(fields[i]);
+	return names;
+    }
+
+    /**
+     * Decode the site of a VCF data line without its genotypes.
+     */
+    public VariantContext decodeSite(String line) {
+	return codec.decode(getSiteColumns(line));
+    }
+
+    /**
+     * Decode a VCF data line.
+     */
+    public Site decode(String line) {
+	return decode(line, decodeSite(line));
+    }
+
+    /**
+     * Decode the genotypes of a VCF data line whose site has already been decoded.
+     */
+    public Site decode(String line, VariantContext vc) {
+	Site site = new Site();
+	site.vc = vc;
+	List<Allele> alleles = site.vc.getAlleles();
+	// find the FORMAT column and the position of GT in it
+	int tab = line.indexOf('\t');
+	for (int i=1; i<8 && tab>=0; i++) tab = line.indexOf('\t', tab+1);
+	int gtIndex = -1;
+	int start = tab+1;
+	if (tab>=0) {
+	    int formatEnd = line.indexOf('\t', start);
+	    if (formatEnd<0) formatEnd = line.length();
+	    String[] keys = line.substring(start, formatEnd).split(":");
+	    for (int k=0; k<keys.length; k++) {
+		if (keys[k].equals("GT")) gtIndex = k;
+	    }
+	    start = formatEnd+1;
+	}
+	// scan the GT of each sample, giving each distinct raw GT a code
+	rawGTs.clear();
+	for (int s=0; s<sampleCount; s++) {
+	    if (start>line.length()) {
+		rawCodes[s] = NOT_CALLED;
+		continue;
+	    }
+	    int end = line.indexOf('\t', start);
+	    if (end<0) end = line.length();
+	    rawCodes[s] = NOT_CALLED;
+	    if (gtIndex>=0) {
+		// the gtIndex-th colon-separated field
+		int gtStart = start;
+		for (int k=0; k<gtIndex && gtStart<end; k++) {
+		    int colon = line.indexOf(':', gtStart);
+		    gtStart = (colon<0 || colon>=end) ? end : colon+1;
+		}
+		int gtEnd = line.indexOf(':', gtStart);
+		if (gtEnd<0 || gtEnd>end) gtEnd = end;
+		if (gtEnd>gtStart) rawCodes[s] = getRawCode(line, gtStart, gtEnd);
+	    }
+	    start = end+1;
+	}
+	// tally the raw codes, then the alleles and fully called genotypes
+	int[] rawCounts = new int[rawGTs.size()];
+	for (byte code : rawCodes) {
+	    if (code!=NOT_CALLED) rawCounts[code]++;
+	}
+	int[] alleleCounts = new int[alleles.size()];
+	String[] rawGenotypes = new String[rawGTs.size()];
+	List<String> genotypes = new ArrayList<>();
+	for (int r=0; r<rawGTs.size(); r++) {
+	    String gt = rawGTs.get(r);
+	    String separator = gt.indexOf('|')>=0 ? "|" : "/";
+	    String[] parts = gt.split("[/|]", -1);
+	    StringBuilder genotype = new StringBuilder();
+	    boolean fullyCalled = true;
+	    for (int k=0; k<parts.length; k++) {
+		if (parts[k].equals(".") || parts[k].length()==0) {
+		    fullyCalled = false;
+		    continue;
+		}
+		int a = Integer.parseInt(parts[k]);
+		if (a<0 || a>=alleles.size()) {
+		    System.err.println("ERROR: genotype "+gt+" refers to a missing allele at "+site.vc.getContig()+":"+site.vc.getStart());
+		    System.exit(1);
+		}
+		alleleCounts[a] += rawCounts[r];
+		if (genotype.length()>0) genotype.append(separator);
+		genotype.append(alleles.get(a).getBaseString());
+	    }
+	    if (fullyCalled) {
+		rawGenotypes[r] = genotype.toString();
+		if (!genotypes.contains(rawGenotypes[r])) genotypes.add(rawGenotypes[r]);
+	    }
+	}
+	// the nodes are the fully called genotypes in string order
+	site.genotypes = genotypes.toArray(new String[0]);
+	Arrays.sort(site.genotypes);
+	site.genotypeCounts = new int[site.genotypes.length];
+	byte[] rawToCode = new byte[rawGTs.size()];
+	for (int r=0; r<rawGTs.size(); r++) {
+	    if (rawGenotypes[r]==null) {
+		rawToCode[r] = NOT_CALLED;
+	    } else {
+		rawToCode[r] = (byte) Arrays.binarySearch(site.genotypes, rawGenotypes[r]);
+		site.genotypeCounts[rawToCode[r]] += rawCounts[r];
+		site.calledCount += rawCounts[r];
+	    }
+	}
+	site.codes = new byte[sampleCount];
+	for (int s=0; s<sampleCount; s++) {
+	    site.codes[s] = rawCodes[s]==NOT_CALLED ? NOT_CALLED : rawToCode[rawCodes[s]];
+	}
+	site.maf = getMAF(alleleCounts);
+	return site;
+    }
+
+    /**
+     * Return the MAF from allele counts: the fraction of called alleles which aren't the majority allele, NaN if none are called.
+     */
+    public static double getMAF(int[] alleleCounts) {
+	int majorityCount = 0;
+	int totalCount = 0;
+	for (int count : alleleCounts) {
+	    totalCount += count;
+	    if (count>majorityCount) majorityCount = count;
+	}
+	return (double) (totalCount - majorityCount) / (double) totalCount;
+    }
+
+    /**
+     * Return the MAF from the unparsed FORMAT and sample columns of a record with the given number of alleles,
+     * counting the called alleles in the GT fields without building genotypes. Returns NaN if there is no GT field.
+     */
+    public static double scanMAF(String data, int alleleCount) {
+	int formatEnd = data.indexOf('\t');
+	if (formatEnd<0) return Double.NaN;
+	int gtIndex = Arrays.asList(data.substring(0, formatEnd).split(":")).indexOf("GT");
+	if (gtIndex<0) return Double.NaN;
+	int[] alleleCounts = new int[alleleCount];
+	int start = formatEnd+1;
+	while (start<data.length()) {
+	    int end = data.indexOf('\t', start);
+	    if (end<0) end = data.length();
+	    int p = start;
+	    for (int k=0; k<gtIndex && p<end; k++) {
+		int colon = data.indexOf(':', p);
+		p = (colon<0 || colon>=end) ? end : colon+1;
+	    }
+	    // allele indices separated by / or |, with . for no-call
+	    int a = -1;
+	    for (; p<=end; p++) {
+		char c = p<end ? data.charAt(p) : ':';
+		if (c>='0' && c<='9') {
+		    a = (a<0 ? 0 : 10*a) + (c-'0');
+		} else if (c=='/' || c=='|' || c==':' || c=='\t') {
+		    if (a>=alleleCount) {
+			System.err.println("ERROR: genotype allele "+a+" is out of range for a record with "+alleleCount+" alleles");
+			System.exit(1);
+		    }
+		    if (a>=0) alleleCounts[a]++;
+		    if (c!='/' && c!='|') break;
+		    a = -1;
+		} else {
+		    a = -1;
+		}
+	    }
+	    start = end+1;
+	}
+	return getMAF(alleleCounts);
+    }
+
+    /**
+     * Return the code of the raw GT line[start..end), adding it to rawGTs if it's new on this line.
+     */
+    byte getRawCode(String line, int start, int end) {
+	int length = end - start;
+	for (int r=0; r<rawGTs.size(); r++) {
+	    String gt = rawGTs.get(r);
+	    if (gt.length()==length && line.regionMatches(start, gt, 0, length)) return (byte) r;
+	}
+	if (rawGTs.size()==Byte.MAX_VALUE) {
+	    System.err.println("ERROR: more than "+Byte.MAX_VALUE+" distinct genotypes at VCF line "+getSiteColumns(line));
+	    System.exit(1);
+	}
+	rawGTs.add(line.substring(start, end));
+	return (byte) (rawGTs.size()-1);
+    }
+
+    /**
+     * Return the first eight (site) columns of a VCF data line.
+     */
+    static String getSiteColumns(String line) {
+	int tab = -1;
+	for (int i=0; i<8; i++) {
+	    tab = line.indexOf('\t', tab+1);
+	    if (tab<0) return line;
+	}
+	return line.substring(0, tab);
+    }
+
+    /**
+     * A decoded VCF record: the site, its fully called genotypes with their counts, and each sample's genotype code.
+     */
+    public static class Site {
+	public VariantContext vc;
+
+	// the distinct fully called genotype strings, sorted, and the number of samples with each
+	public String[] genotypes;
+	public int[] genotypeCounts;
+
+	// the number of fully called samples
+	public int calledCount;
+
+	// the minor allele frequency over all called alleles
+	public double maf;
+
+	// per header sample: index into genotypes, or NOT_CALLED
+	public byte[] codes;
+    }
+}
@@ -1,22 +1,46 @@
 package org.ncgr.pangenomics.genotype;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
 
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.TreeMap;
 import java.util.Set;
-import java.util.HashSet;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.CloseableIterator;
+
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.IndexFactory;
 
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFConstants;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 
@@ -29,6 +53,16 @@ public class VCFImporter extends Importer {
 
     File vcfFile;
 
+    // nodes added for genotypes which weren't loaded, when appending samples
+    public List<Node> newNodes = new ArrayList<>();
+
+    // when appending samples, the number of the VCF's samples with each loaded (or new) node's genotype, and the number called at each locus
+    public Map<Node,Integer> appendCounts = new HashMap<>();
+    public Map<String,Integer> appendLocusCounts = new HashMap<>();
+
+    // estimate each record's MAF from its INFO fields ("info") or a raw GT scan ("gt") before decoding its genotypes; null for no prefilter
+    String mafPrefilter;
+
     /**
      * Construct for building nodes from a VCF file
      */
@@ -67,32 +101,473 @@ public class VCFImporter extends Importer {
 
     /**
      * Read paths from a VCF file for the samples given in the labels file and the desired nodes.
+     * Only the GT field is decoded, into a byte code per sample position; each site's distinct genotypes are looked up
+     * in nodeKeyMap once, so the per-sample inner loop is an array lookup.
      * NOTE: readNodes must be called first to populate nodeKeyMap!
      */
     @Override
     public void readPaths(File labelsFile) throws IOException {
+	readPaths(labelsFile, -1);
+    }
+
+    /**
+     * Read paths as above, adding a node with the next id after lastId for each genotype of a loaded locus that isn't loaded yet.
+     * The added nodes are in newNodes with a zero genotype frequency; they aren't added to nodeIdMap or nodeKeyMap.
+     * The genotype counts of all the VCF's called samples at the loaded loci, the terms of their genotype frequencies,
+     * are in appendCounts and appendLocusCounts. This is used to append new samples to an existing graph.
+     */
+    public void readAppendPaths(File labelsFile, long lastId) throws IOException {
+	readPaths(labelsFile, lastId);
+    }
+
+    /**
+     * Read paths for the samples in the labels file, adding new genotype nodes after lastId unless it's negative.
+     */
+    void readPaths(File labelsFile, long lastId) throws IOException {
 	if (nodeKeyMap.size()==0) {
 	    System.err.println("ERROR: you must call VCFImporter.readNodes() before calling VCFImporter.readPaths().");
 	    System.exit(1);
 	}
-        // create the VCF file reader and header
+	// a node of each loaded locus, which gives its rs as loaded (nodes.txt files load an rs of . as null)
+	Map<String,Node> loci = new HashMap<>();
+	for (Node n : nodeKeyMap.values()) loci.put(getLocusKey(n.contig, n.start, n.end, n.rs), n);
+	Map<String,Node> newNodeKeyMap = new HashMap<>();
+	BufferedReader in = openVCF();
+	List<String> headerLines = readHeader(in);
+	// get the desired samples from the labelsFile and their positions in the VCF
+	TreeSet<Sample> samples = Sample.readSamples(labelsFile);
+	Sample[] sampleArray = samples.toArray(new Sample[0]);
+	int[] sampleOffsets = getSampleOffsets(headerLines, sampleArray);
+	VCFGenotypeDecoder decoder = new VCFGenotypeDecoder(headerLines);
+	// accumulate each sample's nodes, then form the (immutable) NodeSets at the end
+	Node[][] sampleNodes = new Node[sampleArray.length][16];
+	int[] sampleNodeCounts = new int[sampleArray.length];
+	String line;
+	while ((line=in.readLine())!=null) {
+	    if (line.length()==0 || line.startsWith("#")) continue;
+	    VariantContext vc = decoder.decodeSite(line);
+	    Node locus = loci.get(getLocusKey(vc.getContig(), vc.getStart(), vc.getEnd(), vc.getID()));
+	    if (locus==null) continue;
+	    VCFGenotypeDecoder.Site site = decoder.decode(line, vc);
+	    // the loaded (or new) node of each of this site's genotypes
+	    Node[] siteNodes = new Node[site.genotypes.length];
+	    for (int g=0; g<site.genotypes.length; g++) {
+		String key = Node.getKey(locus.contig, locus.start, locus.end, locus.rs, site.genotypes[g]);
+		siteNodes[g] = nodeKeyMap.get(key);
+		if (siteNodes[g]==null && lastId>=0) {
+		    siteNodes[g] = newNodeKeyMap.get(key);
+		    if (siteNodes[g]==null) {
+			siteNodes[g] = new Node(++lastId, locus.rs, locus.contig, locus.start, locus.end, site.genotypes[g], 0.0);
+			newNodeKeyMap.put(key, siteNodes[g]);
+			newNodes.add(siteNodes[g]);
+		    }
+		}
+		if (lastId>=0 && siteNodes[g]!=null) appendCounts.merge(siteNodes[g], site.genotypeCounts[g], Integer::sum);
+	    }
+	    if (lastId>=0) appendLocusCounts.merge(getLocusKey(locus.contig, locus.start, locus.end, locus.rs), site.calledCount, Integer::sum);
+	    for (int s=0; s<sampleArray.length; s++) {
+		byte code = site.codes[sampleOffsets[s]];
+		if (code==VCFGenotypeDecoder.NOT_CALLED || siteNodes[code]==null) continue;
+		if (sampleNodeCounts[s]==sampleNodes[s].length) sampleNodes[s] = Arrays.copyOf(sampleNodes[s], 2*sampleNodeCounts[s]);
+		sampleNodes[s][sampleNodeCounts[s]++] = siteNodes[code];
+	    }
+	}
+	in.close();
+	for (int s=0; s<sampleArray.length; s++) {
+	    if (sampleNodeCounts[s]>0) sampleNodeSets.put(sampleArray[s], new NodeSet(Arrays.copyOf(sampleNodes[s], sampleNodeCounts[s]), false));
+	}
+       	if (verbose) System.err.println("Read "+sampleNodeSets.size()+" sample paths from "+vcfFile.getName()+" and "+labelsFile.getName());
+    }
+
+    /**
+     * Return a key for a locus, taking a null rs as a missing (.) ID.
+     */
+    static String getLocusKey(String contig, int start, int end, String rs) {
+	return Node.getKey(contig, start, end, rs==null ? "." : rs, "");
+    }
+
+    /**
+     * Read nodes and the paths of the samples in the labels file in a single pass through the VCF file.
+     * Each record is decoded once: its genotype frequencies are tallied, the MAF filter applied, its nodes created and
+     * the node indices appended to per-sample int arrays, so memory is bounded by the graph rather than the VCF.
+     * The result is the same as readNodes(minMAF, maxMAF) followed by readPaths(labelsFile).
+     */
+    public void readNodesAndPaths(File labelsFile, double minMAF, double maxMAF) throws IOException {
+	readNodesAndPaths(labelsFile, minMAF, maxMAF, 1);
+    }
+
+    /**
+     * Read nodes and paths as above, splitting an indexed VCF file into about the given number of contig/region shards
+     * which are decoded in parallel, each on its own reader. Shards are merged in file order, so node ids are the same
+     * as for a sequential read.
+     */
+    public void readNodesAndPaths(File labelsFile, double minMAF, double maxMAF, int shards) throws IOException {
 	VCFFileReader reader = new VCFFileReader(vcfFile);
 	VCFHeader header = reader.getFileHeader();
-	// get all samples from the header
-	Set<String> headerSampleNames = new TreeSet<String>(header.getGenotypeSamples());
-	// get the desired samples from the labelsFile
+	// get the desired samples from the labelsFile and check that the VCF contains them
 	TreeSet<Sample> samples = Sample.readSamples(labelsFile);
-	// check that the VCF contains our desired samples
-	for (Sample sample : samples) {
-	    if (!headerSampleNames.contains(sample.name)) {
-		System.err.println("ERROR: file "+vcfFile.getName()+" does not contain sample "+sample);
+	Map<String,Integer> sampleOffsets = header.getSampleNameToOffset();
+	Sample[] sampleArray = samples.toArray(new Sample[0]);
+	int[] sampleOffsetArray = new int[sampleArray.length];
+	for (int s=0; s<sampleArray.length; s++) {
+	    Integer offset = sampleOffsets.get(sampleArray[s].name);
+	    if (offset==null) {
+		System.err.println("ERROR: file "+vcfFile.getName()+" does not contain sample "+sampleArray[s]);
 		System.exit(1);
 	    }
+	    sampleOffsetArray[s] = offset;
+	}
+	List<Shard> shardList;
+	if (shards<=1) {
+	    shardList = new ArrayList<>();
+	    shardList.add(readShard(reader.iterator(), sampleOffsetArray, minMAF, maxMAF, 1, Integer.MAX_VALUE));
+	    reader.close();
+	} else {
+	    List<Region> regions = getRegions(header, shards);
+	    reader.close();
+	    if (verbose) System.err.println("Reading "+vcfFile.getName()+" in "+regions.size()+" region shards");
+	    shardList = regions.parallelStream().map(region -> {
+		    VCFFileReader shardReader = new VCFFileReader(vcfFile);
+		    Shard shard = readShard(shardReader.query(region.contig, region.start, region.end), sampleOffsetArray, minMAF, maxMAF, region.start, region.end);
+		    shardReader.close();
+		    return shard;
+		}).collect(Collectors.toList());
+	}
+	mergeShards(shardList, sampleArray, minMAF, maxMAF);
+	if (verbose) System.err.println("Read "+nodeIdMap.size()+" nodes and "+sampleNodeSets.size()+" sample paths from "+vcfFile.getName()+" and "+labelsFile.getName());
+    }
+
+    /**
+     * Read nodes and paths as above from a VCF stream, gzipped or not, which needs no index: vcfFile may be "-" for standard input.
+     * One thread reads raw lines in batches, a pool of threads decodes the batches with VCFGenotypeDecoder, and the calling thread
+     * merges the decoded batches in file order. A bounded queue caps the number of batches in flight.
+     */
+    public void readNodesAndPathsPipelined(File labelsFile, double minMAF, double maxMAF, int threads) throws IOException {
+	BufferedReader in = openVCF();
+	List<String> headerLines = readHeader(in);
+	// get the desired samples from the labelsFile and their positions in the VCF
+	TreeSet<Sample> samples = Sample.readSamples(labelsFile);
+	Sample[] sampleArray = samples.toArray(new Sample[0]);
+	int[] sampleOffsetArray = getSampleOffsets(headerLines, sampleArray);
+	// each worker thread decodes with its own decoder
+	ThreadLocal<VCFGenotypeDecoder> decoders = ThreadLocal.withInitial(() -> new VCFGenotypeDecoder(headerLines));
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	BlockingQueue<Future<List<VCFGenotypeDecoder.Site>>> pending = new ArrayBlockingQueue<>(4*threads);
+	long startTime = System.currentTimeMillis();
+	// the reader thread batches lines for the pool; an empty batch marks the end of the input
+	Thread readerThread = new Thread(() -> {
+		try {
+		    List<String> batch = new ArrayList<>(BATCH_SIZE);
+		    String l;
+		    while ((l=in.readLine())!=null) {
+			if (l.length()==0 || l.startsWith("#")) continue;
+			batch.add(l);
+			if (batch.size()==BATCH_SIZE) {
+			    pending.put(submitBatch(pool, decoders, batch, sampleOffsetArray, minMAF, maxMAF));
+			    batch = new ArrayList<>(BATCH_SIZE);
+			}
+		    }
+		    if (batch.size()>0) pending.put(submitBatch(pool, decoders, batch, sampleOffsetArray, minMAF, maxMAF));
+		    in.close();
+		} catch (Exception ex) {
+		    System.err.println("ERROR reading "+vcfFile.getName()+": "+ex);
+		    System.exit(1);
+		}
+		try {
+		    pending.put(CompletableFuture.completedFuture(new ArrayList<>()));
+		} catch (InterruptedException ex) {
+		    Thread.currentThread().interrupt();
+		}
+	});
+	readerThread.start();
+	// merge the decoded batches in order into a single shard
+	Shard shard = new Shard(sampleArray.length);
+	long records = 0;
+	try {
+	    while (true) {
+		List<VCFGenotypeDecoder.Site> sites = pending.take().get();
+		if (sites.size()==0) break;
+		for (VCFGenotypeDecoder.Site site : sites) {
+		    records++;
+		    if (site.maf<minMAF) {
+			shard.minMAFCount++;
+			continue;
+		    } else if (site.maf>maxMAF) {
+			shard.maxMAFCount++;
+			continue;
+		    }
+		    VariantContext vc = site.vc;
+		    int first = shard.nodes.size();
+		    for (int g=0; g<site.genotypes.length; g++) {
+			double gf = (double) site.genotypeCounts[g] / (double) site.calledCount;
+			Node n = new Node(0, vc.getID(), vc.getContig(), vc.getStart(), vc.getEnd(), site.genotypes[g], gf);
+			n.count = site.genotypeCounts[g];
+			shard.nodes.add(n);
+		    }
+		    for (int s=0; s<sampleArray.length; s++) {
+			byte code = site.codes[s];
+			if (code!=VCFGenotypeDecoder.NOT_CALLED) shard.addSampleNode(s, first+code);
+		    }
+		}
+	    }
+	    readerThread.join();
+	} catch (InterruptedException|ExecutionException ex) {
+	    System.err.println("ERROR decoding "+vcfFile.getName()+": "+ex);
+	    System.exit(1);
+	}
+	pool.shutdown();
+	double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+	System.err.println("Decoded "+records+" records in "+seconds+" s ("+Math.round(records/Math.max(seconds,0.001))+" records/second) with "+threads+" threads");
+	List<Shard> shardList = new ArrayList<>();
+	shardList.add(shard);
+	mergeShards(shardList, sampleArray, minMAF, maxMAF);
+	if (verbose) System.err.println("Read "+nodeIdMap.size()+" nodes and "+sampleNodeSets.size()+" sample paths from "+vcfFile.getName()+" and "+labelsFile.getName());
+    }
+
+    /**
+     * Open the VCF file, or standard input if it is "-", for reading raw lines. Gzipped (or bgzipped) input is recognized by its magic number.
+     */
+    BufferedReader openVCF() throws IOException {
+	BufferedInputStream stream = new BufferedInputStream(vcfFile.getName().equals("-") ? System.in : new FileInputStream(vcfFile), BUFFER_SIZE);
+	stream.mark(2);
+	boolean gzipped = stream.read()==0x1f && stream.read()==0x8b;
+	stream.reset();
+	return new BufferedReader(new InputStreamReader(gzipped ? new GZIPInputStream(stream, BUFFER_SIZE) : stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Read the VCF header lines through the #CHROM line.
+     */
+    List<String> readHeader(BufferedReader in) throws IOException {
+	List<String> headerLines = new ArrayList<>();
+	String line;
+	while ((line=in.readLine())!=null) {
+	    headerLines.add(line);
+	    if (line.startsWith("#CHROM")) return headerLines;
+	}
+	System.err.println("ERROR: "+vcfFile.getName()+" has no #CHROM header line");
+	System.exit(1);
+	return null;
+    }
+
+    /**
+     * Return the position of each of the given samples in the #CHROM header line, which is the last header line.
+     */
+    int[] getSampleOffsets(List<String> headerLines, Sample[] sampleArray) {
+	List<String> headerSampleNames = VCFGenotypeDecoder.getSampleNames(headerLines.get(headerLines.size()-1));
+	Map<String,Integer> sampleOffsets = new HashMap<>();
+	for (int i=0; i<headerSampleNames.size(); i++) sampleOffsets.put(headerSampleNames.get(i), i);
+	int[] sampleOffsetArray = new int[sampleArray.length];
+	for (int s=0; s<sampleArray.length; s++) {
+	    Integer offset = sampleOffsets.get(sampleArray[s].name);
+	    if (offset==null) {
+		System.err.println("ERROR: file "+vcfFile.getName()+" does not contain sample "+sampleArray[s]);
+		System.exit(1);
+	    }
+	    sampleOffsetArray[s] = offset;
+	}
+	return sampleOffsetArray;
+    }
+
+    /**
+     * Submit a batch of VCF lines to the pool for decoding, keeping only the genotype codes of the desired samples.
+     * Codes are dropped from records outside the MAF range.
+     */
+    Future<List<VCFGenotypeDecoder.Site>> submitBatch(ExecutorService pool, ThreadLocal<VCFGenotypeDecoder> decoders, List<String> batch,
+							int[] sampleOffsets, double minMAF, double maxMAF) {
+	return pool.submit(() -> {
+		VCFGenotypeDecoder decoder = decoders.get();
+		List<VCFGenotypeDecoder.Site> sites = new ArrayList<>(batch.size());
+		for (String line : batch) {
+		    VariantContext vc = decoder.decodeSite(line);
+		    if ("info".equals(mafPrefilter)) {
+			// skip the genotype scan of records whose INFO puts them out of range
+			double maf = getInfoMAF(vc);
+			if (maf<minMAF || maf>maxMAF) {
+			    VCFGenotypeDecoder.Site site = new VCFGenotypeDecoder.Site();
+			    site.vc = vc;
+			    site.maf = maf;
+			    sites.add(site);
+			    continue;
+			}
+		    }
+		    VCFGenotypeDecoder.Site site = decoder.decode(line, vc);
+		    byte[] codes = site.codes;
+		    site.codes = null;
+		    if (site.maf>=minMAF && site.maf<=maxMAF) {
+			site.codes = new byte[sampleOffsets.length];
+			for (int s=0; s<sampleOffsets.length; s++) site.codes[s] = codes[sampleOffsets[s]];
+		    }
+		    sites.add(site);
+		}
+		return sites;
+	    });
+    }
+
+    /**
+     * Merge shards in order into nodeIdMap, nodeKeyMap and sampleNodeSets, numbering the nodes from 1.
+     */
+    void mergeShards(List<Shard> shardList, Sample[] sampleArray, double minMAF, double maxMAF) {
+	int minMAFCount = 0;
+	int maxMAFCount = 0;
+	int[] sampleNodeCounts = new int[sampleArray.length];
+	for (Shard shard : shardList) {
+	    minMAFCount += shard.minMAFCount;
+	    maxMAFCount += shard.maxMAFCount;
+	    for (int s=0; s<sampleArray.length; s++) sampleNodeCounts[s] += shard.sampleNodeCounts[s];
+	}
+	Node[][] sampleNodes = new Node[sampleArray.length][];
+	for (int s=0; s<sampleArray.length; s++) sampleNodes[s] = new Node[sampleNodeCounts[s]];
+	Arrays.fill(sampleNodeCounts, 0);
+	long nodeId = 0;
+	for (Shard shard : shardList) {
+	    for (Node n : shard.nodes) {
+		n.id = ++nodeId;
+		nodeIdMap.put(n.id, n);
+		nodeKeyMap.put(n.getKey(), n);
+	    }
+	    for (int s=0; s<sampleArray.length; s++) {
+		int[] indices = shard.sampleNodes[s];
+		for (int k=0; k<shard.sampleNodeCounts[s]; k++) {
+		    sampleNodes[s][sampleNodeCounts[s]++] = shard.nodes.get(indices[k]);
+		}
+	    }
+	}
+	if (verbose) {
+	    System.err.println(minMAFCount+" loci were removed with MAF<"+minMAF);
+	    System.err.println(maxMAFCount+" loci were removed with MAF>"+maxMAF);
+	}
+	// node indices were appended in id order, so each path's nodes are already sorted
+	for (int s=0; s<sampleArray.length; s++) {
+	    if (sampleNodes[s].length>0) sampleNodeSets.put(sampleArray[s], new NodeSet(sampleNodes[s], true));
+	}
+    }
+
+    /**
+     * Read the nodes and sample node indices from VCF records which start in [minStart,maxStart].
+     * Records starting before minStart are skipped since they belong to the previous region shard.
+     */
+    Shard readShard(Iterator<VariantContext> records, int[] sampleOffsets, double minMAF, double maxMAF, int minStart, int maxStart) {
+	Shard shard = new Shard(sampleOffsets.length);
+	while (records.hasNext()) {
+	    VariantContext vc = records.next();
+	    if (vc.getStart()<minStart || vc.getStart()>maxStart) continue;
+	    // check this VariantContext's minor allele frequency, bail if outside range
+	    double maf = getFilterMAF(vc, minMAF, maxMAF);
+	    if (maf<minMAF) {
+		shard.minMAFCount++;
+		continue;
+	    } else if (maf>maxMAF) {
+		shard.maxMAFCount++;
+		continue;
+	    }
+	    // tally the fully called genotypes of all samples
+	    TreeMap<String,Integer> genotypes = new TreeMap<>();
+	    int totalCount = 0;
+	    for (Genotype g : vc.getGenotypes()) {
+		if (g.isNoCall() || g.isMixed()) continue; // only keep fully called
+		String gstring = g.getGenotypeString();
+		Integer count = genotypes.get(gstring);
+		genotypes.put(gstring, count==null ? 1 : count+1);
+		totalCount++;
+	    }
+	    // create a node for each called genotype, in genotype string order; ids are assigned when shards are merged
+	    Map<String,Integer> genotypeNodes = new HashMap<>();
+	    for (String gstring : genotypes.keySet()) {
+		double gf = (double) genotypes.get(gstring) / (double) totalCount;
+		genotypeNodes.put(gstring, shard.nodes.size());
+		Node n = new Node(0, vc.getID(), vc.getContig(), vc.getStart(), vc.getEnd(), gstring, gf);
+		n.count = genotypes.get(gstring);
+		shard.nodes.add(n);
+	    }
+	    // append this record's node to each desired sample's path
+	    for (int s=0; s<sampleOffsets.length; s++) {
+		Genotype g = vc.getGenotype(sampleOffsets[s]);
+		if (!g.isCalled()) continue;
+		Integer i = genotypeNodes.get(g.getGenotypeString());
+		if (i!=null) shard.addSampleNode(s, i);
+	    }
+	}
+	if (records instanceof CloseableIterator) ((CloseableIterator) records).close();
+	return shard;
+    }
+
+    /**
+     * Return about the given number of regions covering the contigs in the VCF file's index, in file order.
+     * Contigs with a length in the header's sequence dictionary are split in proportion to their length.
+     */
+    List<Region> getRegions(VCFHeader header, int shards) {
+	File indexFile = Tribble.tabixIndexFile(vcfFile);
+	if (!indexFile.exists()) indexFile = Tribble.indexFile(vcfFile);
+	if (!indexFile.exists()) {
+	    System.err.println("ERROR: sharded import requires an index for "+vcfFile.getName());
+	    System.exit(1);
+	}
+	List<String> contigs = IndexFactory.loadIndex(indexFile.getPath()).getSequenceNames();
+	SAMSequenceDictionary dictionary = header.getSequenceDictionary();
+	long totalLength = 0;
+	if (dictionary!=null) {
+	    for (String contig : contigs) {
+		if (dictionary.getSequence(contig)!=null) totalLength += dictionary.getSequence(contig).getSequenceLength();
+	    }
+	}
+	List<Region> regions = new ArrayList<>();
+	for (String contig : contigs) {
+	    int pieces = 1;
+	    int length = 0;
+	    if (totalLength>0 && dictionary.getSequence(contig)!=null) {
+		length = dictionary.getSequence(contig).getSequenceLength();
+		pieces = (int) Math.max(1, Math.round((double) shards * length / totalLength));
+	    }
+	    int step = pieces>1 ? (length+pieces-1)/pieces : Integer.MAX_VALUE;
+	    for (int k=0; k<pieces; k++) {
+		int start = 1 + k*step;
+		// the last region runs to the end in case records lie past the dictionary length
+		int end = k==pieces-1 ? Integer.MAX_VALUE-1 : start+step-1;
+		regions.add(new Region(contig, start, end));
+	    }
+	}
+	return regions;
+    }
+
+    // lines per batch and reader buffer size for pipelined decoding
+    static final int BATCH_SIZE = 256;
+    static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * A contig region [start,end] read as one shard.
+     */
+    static class Region {
+	String contig;
+	int start;
+	int end;
+
+	Region(String contig, int start, int end) {
+	    this.contig = contig;
+	    this.start = start;
+	    this.end = end;
+	}
+    }
+
+    /**
+     * The nodes read from a shard of a VCF file, and the indices into them of each desired sample's nodes.
+     */
+    static class Shard {
+	List<Node> nodes = new ArrayList<>();
+	int[][] sampleNodes;
+	int[] sampleNodeCounts;
+	int minMAFCount;
+	int maxMAFCount;
+
+	Shard(int sampleCount) {
+	    sampleNodes = new int[sampleCount][16];
+	    sampleNodeCounts = new int[sampleCount];
+	}
+
+	void addSampleNode(int s, int i) {
+	    if (sampleNodeCounts[s]==sampleNodes[s].length) sampleNodes[s] = Arrays.copyOf(sampleNodes[s], 2*sampleNodeCounts[s]);
+	    sampleNodes[s][sampleNodeCounts[s]++] = i;
 	}
-	// now read in the paths
-	readPaths(reader, samples);
-	reader.close();
-       	if (verbose) System.err.println("Read "+sampleNodeSets.size()+" sample paths from "+vcfFile.getName()+" and "+labelsFile.getName());
     }
 
     /**
@@ -107,11 +582,9 @@ public class VCFImporter extends Importer {
 	int minMAFCount = 0;
 	int maxMAFCount = 0;
 	long nodeId = 0;
-	// load the qualified VariantContexts into a Set for parallel processing
-	Set<VariantContext> vcSet = new HashSet<>();
 	for (VariantContext vc : reader) {
 	    // check this VariantContext's minor allele frequency, bail if outside range
-	    double maf = getMAF(vc);
+	    double maf = getFilterMAF(vc, minMAF, maxMAF);
 	    if (maf<minMAF) {
 		minMAFCount++;
 		continue;
@@ -119,7 +592,6 @@ public class VCFImporter extends Importer {
 		maxMAFCount++;
 		continue;
 	    }
-	    vcSet.add(vc);
 	    // create a node for each called genotype, calculating the genotype frequency as well
 	    TreeMap<String,Integer> genotypes = new TreeMap<>();
 	    int totalCount = 0;
@@ -138,6 +610,7 @@ public class VCFImporter extends Importer {
 		String key = getNodeKey(vc, gstring);
 		double gf = (double) genotypes.get(gstring) / (double) totalCount;
 		Node n = new Node(++nodeId, vc.getID(), vc.getContig(), vc.getStart(), vc.getEnd(), gstring, gf);
+		n.count = genotypes.get(gstring);
 		nodeIdMap.put(nodeId, n);
 		nodeKeyMap.put(key, n);
 	    }
@@ -149,38 +622,57 @@ public class VCFImporter extends Importer {
     }
 
     /**
-     * Read the sample paths from a VCFFileReader for the given samples and ALL nodes.
+     * Return the MAF of a record for filtering to [minMAF,maxMAF]. With a prefilter, a record whose INFO or raw GT estimate is out of range
+     * is rejected with that estimate before its genotypes are decoded; INFO estimates in range are confirmed with getMAF.
      */
-    protected void readPaths(VCFFileReader reader, TreeSet<Sample> samples) {
-	for (VariantContext vc : reader) {
-	    // spin through each sample to add to its NodeSet
-	    for (Sample sample : samples) {
-		// get the Node
-		Genotype g = vc.getGenotype(sample.name);
-		// bail if this is not a called genotype
-		if (!g.isCalled()) continue;
-		// add this Node to this sample's NodeSet if it's been loaded
-		String key = getNodeKey(vc, g);
-		if (nodeKeyMap.containsKey(key)) {
-		    Node n = nodeKeyMap.get(key);
-		    NodeSet sampleNodes = sampleNodeSets.get(sample);
-		    if (sampleNodes==null) {
-			sampleNodes = new NodeSet(); // first time
-			sampleNodeSets.put(sample, sampleNodes);
-		    }
-		    sampleNodes.add(n);
-		    // add to this Node's TreeSet of samples
-		    TreeSet<Sample> sampleSet = nodeSamples.get(n);
-		    if (sampleSet==null) {
-			sampleSet = new TreeSet<>();
-			nodeSamples.put(n, sampleSet);
-		    }
-		    sampleSet.add(sample);
+    double getFilterMAF(VariantContext vc, double minMAF, double maxMAF) {
+	double maf = Double.NaN;
+	if ("info".equals(mafPrefilter)) {
+	    maf = getInfoMAF(vc);
+	} else if ("gt".equals(mafPrefilter) && vc.getGenotypes() instanceof LazyGenotypesContext) {
+	    // genotypes which haven't been decoded yet are still raw text
+	    Object data = ((LazyGenotypesContext) vc.getGenotypes()).getUnparsedGenotypeData();
+	    if (data instanceof String) maf = VCFGenotypeDecoder.scanMAF((String) data, vc.getNAlleles());
+	}
+	if (maf<minMAF || maf>maxMAF) return maf;
+	if ("gt".equals(mafPrefilter) && !Double.isNaN(maf)) return maf;
+	return getMAF(vc);
+    }
+
+    /**
+     * Return the minor allele frequency estimated from a VariantContext's INFO fields without decoding its genotypes:
+     * from the allele counts AC and total AN if present, otherwise from the allele frequencies AF. Returns NaN if it has neither.
+     */
+    public static double getInfoMAF(VariantContext vc) {
+	int altCount = vc.getNAlleles() - 1;
+	int an = vc.getAttributeAsInt(VCFConstants.ALLELE_NUMBER_KEY, 0);
+	if (an>0 && vc.hasAttribute(VCFConstants.ALLELE_COUNT_KEY)) {
+	    List<Integer> ac = vc.getAttributeAsIntList(VCFConstants.ALLELE_COUNT_KEY, 0);
+	    if (ac.size()==altCount) {
+		int[] alleleCounts = new int[altCount+1];
+		alleleCounts[0] = an;
+		for (int i=0; i<altCount; i++) {
+		    alleleCounts[i+1] = ac.get(i);
+		    alleleCounts[0] -= ac.get(i);
 		}
+		return VCFGenotypeDecoder.getMAF(alleleCounts);
 	    }
-        }
+	}
+	if (vc.hasAttribute(VCFConstants.ALLELE_FREQUENCY_KEY)) {
+	    List<Double> af = vc.getAttributeAsDoubleList(VCFConstants.ALLELE_FREQUENCY_KEY, 0.0);
+	    if (af.size()==altCount) {
+		double refFrequency = 1.0;
+		double majorityFrequency = 0.0;
+		for (double f : af) {
+		    refFrequency -= f;
+		    majorityFrequency = Math.max(majorityFrequency, f);
+		}
+		return 1.0 - Math.max(majorityFrequency, refFrequency);
+	    }
+	}
+	return Double.NaN;
     }
-    
+
     /**
      * Return the minor allele frequency from a VariantContext, defined as the fraction of non-majority alleles / all alleles.
      * NOTE: this handles the common case where the REF allele is NOT the majority.
@@ -209,16 +701,15 @@ public class VCFImporter extends Importer {
      * Return a string uniquely representing a VariantContext and Genotype, suitable for keying a map of nodes.
      * 6:23456-23457[AA/AT]
      */
-    static String getNodeKey(VariantContext vc, Genotype g) {
-	return Node.getKey(vc.getContig(), vc.getStart(), vc.getEnd(), vc.getID(), g.getGenotypeString());
+    static String getNodeKey(VariantContext vc, String gstring) {
+	return Node.getKey(vc.getContig(), vc.getStart(), vc.getEnd(), vc.getID(), gstring);
     }
 
     /**
-     * Return a string uniquely representing a VariantContext and Genotype, suitable for keying a map of nodes.
-     * 6:23456-23457[AA/AT]
+     * Set the MAF prefilter: "info" to estimate the MAF from INFO AC/AN/AF, "gt" to scan the raw GT fields, or null for none.
      */
-    static String getNodeKey(VariantContext vc, String gstring) {
-	return Node.getKey(vc.getContig(), vc.getStart(), vc.getEnd(), vc.getID(), gstring);
+    public void setMAFPrefilter(String mafPrefilter) {
+	this.mafPrefilter = mafPrefilter;
     }
 
     /**
@@ -9,11 +9,14 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.TreeMap;
+import java.util.PriorityQueue;
 import java.util.Properties;
 import java.util.Set;
 import java.util.HashSet;
@@ -81,6 +84,7 @@ public class FRFinder {
     boolean writeFRSubpaths = false;
     boolean requireBestNodeSet = false;
     boolean requireSamePosition = false;
+    boolean bestFirst = false;
     int minSize = 1;
     int maxSize = Integer.MAX_VALUE;
     int maxRound = 0;
@@ -100,13 +104,13 @@ public class FRFinder {
     NodeSet excludedNodes = new NodeSet();
 
     // the found FRs per finding run
-    Map<String,FrequentedRegion> frequentedRegions;
+    Map<NodeSet,FrequentedRegion> frequentedRegions;
 
     // starting FRs for each finding run
-    Map<String,FrequentedRegion> initialFrequentedRegions = new ConcurrentHashMap<>();
+    Map<NodeSet,FrequentedRegion> initialFrequentedRegions = new ConcurrentHashMap<>();
 
     // allowed starting nodes for the FR finding scan
-    NodeSet allowedStartingNodes = new NodeSet();
+    Set<Node> allowedStartingNodes = ConcurrentHashMap.newKeySet();
 
     /**
      * Construct with a populated Graph and default parameters.
@@ -136,7 +140,7 @@ public class FRFinder {
 		    if (alpha==1.0 && fr.support<minSupport) {
 			supportRejects.add(node);
 		    } else {
-			initialFrequentedRegions.put(fr.nodes.toString(), fr);
+			initialFrequentedRegions.put(fr.nodes, fr);
 			allowedStartingNodes.add(node);
 		    }
 		}
@@ -148,7 +152,7 @@ public class FRFinder {
 	// add the full included nodes FR to initialFrequentedRegions
 	if (includedNodes.size()>0) {
 	    FrequentedRegion includedFR = new FrequentedRegion(graph, includedNodes, alpha, kappa, priorityOptionKey, priorityOptionLabel);
-	    initialFrequentedRegions.put(includedFR.nodes.toString(), includedFR);
+	    initialFrequentedRegions.put(includedFR.nodes, includedFR);
 	}
 
         // DX: dump out the interesting single-node FRs sorted by priority
@@ -189,14 +193,14 @@ public class FRFinder {
 		   "excludedPathNodes="+excludedPathNodeString+" " +
 		   "includedPathNodes="+includedPathNodeString);
 	// initialize the FRs to be scanned
-	Map<String,FrequentedRegion> allFrequentedRegions = new ConcurrentHashMap<>(initialFrequentedRegions);
+	Map<NodeSet,FrequentedRegion> allFrequentedRegions = new ConcurrentHashMap<>(initialFrequentedRegions);
 	// initialize the output FRs
 	frequentedRegions = new HashMap<>();
 	// add the full included nodes FR if interesting
 	if (includedNodes.size()>0) {
 	    FrequentedRegion includedFR = new FrequentedRegion(graph, includedNodes, alpha, kappa, priorityOptionKey, priorityOptionLabel);
 	    if (isInteresting(includedFR)) {
-		frequentedRegions.put(includedFR.nodes.toString(), includedFR);
+		frequentedRegions.put(includedFR.nodes, includedFR);
 	    }
 	}
 	// check that required nodes are allowed if a singleton, meaning likely starting node
@@ -207,9 +211,9 @@ public class FRFinder {
         // add the full required nodes FR to allFrequentedRegions, and frequentedRegions if interesting
 	if (requiredNodes.size()>0) {
 	    FrequentedRegion requiredFR = new FrequentedRegion(graph, requiredNodes, alpha, kappa, priorityOptionKey, priorityOptionLabel);
-	    allFrequentedRegions.put(requiredFR.nodes.toString(), requiredFR);
+	    allFrequentedRegions.put(requiredFR.nodes, requiredFR);
 	    if (isInteresting(requiredFR)) {
-		frequentedRegions.put(requiredFR.nodes.toString(), requiredFR);
+		frequentedRegions.put(requiredFR.nodes, requiredFR);
 	    }
 	}
 	// output the the round 0 FRs
@@ -222,16 +226,21 @@ public class FRFinder {
 	long startTime = System.currentTimeMillis();
 	boolean clocktimeExceeded = false;
         boolean added = true;
+	if (bestFirst) {
+	    // the best-first search replaces the all-pairs rounds
+	    findFRsBestFirst(allFrequentedRegions, alpha, kappa, startTime);
+	    added = false;
+	}
         while (added && (maxRound==0 || round<maxRound) && !clocktimeExceeded) {
 	    round++;
             added = false;
 	    long roundStartTime = System.currentTimeMillis();
 	    // store accepted FRPairs so we don't merge them more than once
-	    Map<String,FRPair> acceptedFRPairs = new ConcurrentHashMap<>();
+	    Map<NodeSet,FRPair> acceptedFRPairs = new ConcurrentHashMap<>();
             // store FRPairs in a map keyed by merged nodes in THIS round for parallel operation and sorting
             ConcurrentSkipListSet<FRPair> interestingFRPairs = new ConcurrentSkipListSet<>(); // must be sorted, so use ConcurrentSkipListSet
-	    // rejected NodeSets (strings), so we don't bother scanning them more than once
-	    Set<String> rejectedNodeSets = ConcurrentHashMap.newKeySet();
+	    // rejected NodeSets, so we don't bother scanning them more than once
+	    Set<NodeSet> rejectedNodeSets = ConcurrentHashMap.newKeySet();
 	    // requiredNodes and bestFR need to be final for the parallel stream
 	    final NodeSet finalRequiredNodes = requiredNodes;
 	    final FrequentedRegion finalBestFR = bestFR; // can be null
@@ -271,14 +280,14 @@ public class FRFinder {
 		allFrequentedRegions.entrySet().parallelStream().forEach(entry2 -> {
 			FrequentedRegion fr2 = entry2.getValue();
 			FRPair frpair = new FRPair(fr1, fr2, priorityOptionKey, priorityOptionLabel);
-			String nodesKey = frpair.nodes.toString();
+			NodeSet nodesKey = frpair.nodes;
 			boolean rejected = false;
 			if (acceptedFRPairs.containsKey(nodesKey)) {
 			    // we've already processed this pair, which was merged
 			    frpair = acceptedFRPairs.get(nodesKey);
 			    rejected = true;
-			} else if (!rejected && kappa<Integer.MAX_VALUE && !frpair.onOneChromosome()) {
-			    // if kappa < infinity, do not combine FRs with nodes on different chromosomes
+			} else if (!rejected && !isAllowed(frpair)) {
+			    // the merged nodes fail a node filter
 			    rejected = true;
 			} else if (!rejected && finalBestFR!=null && fr2.size>1) {
 			    // we just append one node at a time in this mode
@@ -289,9 +298,6 @@ public class FRFinder {
 			} else if (!rejected && rejectedNodeSets.contains(nodesKey)) {
 			    // already rejected, bail
 			    rejected = true;
-			} else if (!rejected && requireSamePosition && !frpair.nodes.haveSamePosition()) {
-			    // can't have an FR with nodes at different positions
-			    rejected = true;
 			}
 			// reject if not all the required nodes are present
 			if (!rejected && finalRequiredNodes.size()>0 && finalBestFR==null) {
@@ -302,33 +308,6 @@ public class FRFinder {
 				}
 			    }
 			}
-			// reject if one of the excluded nodes is present
-			if (!rejected && excludedNodes.size()>0) {
-			    for (Node n : excludedNodes) {
-				if (frpair.nodes.contains(n)) {
-				    rejected = true; // contains an excluded node
-				    break;
-				}
-			    }
-			}
-			// reject if not any of the included nodes is present
-			if (!rejected && includedNodes.size()>0) {
-			    rejected = true;
-			    for (Node n : includedNodes) {
-				if (frpair.nodes.contains(n)) {
-				    rejected = false; // contains an included node
-				    break;
-				}
-			    }
-			}
-			// reject if it's too small
-			if (!rejected && frpair.nodes.size()<minSize) {
-			    rejected = true;
-			}
-			// reject if it's too large
-			if (!rejected && frpair.nodes.size()>maxSize) {
-			    rejected = true;
-			}
 			// NOW WE MERGE
 			if (rejected) {
 			    // add this rejected NodeSet to the rejected list
@@ -339,25 +318,7 @@ public class FRFinder {
 				frpair.merge();
 			    }
 			    // should we keep this merged FR according to keepOption?
-			    boolean keep = true; // default if keepOption not set
-			    if (keepOption.startsWith("subset") && frpair.merged.size>=keepOptionKey) {
-				// keep FRs that are subsets of others or have higher priority
-				for (FrequentedRegion frOld : frequentedRegions.values()) {
-				    if (frpair.merged.nodes.isSupersetOf(frOld.nodes) && frpair.merged.priority<=frOld.priority) {
-					keep = false;
-					break;
-				    }
-				}
-			    } else if (keepOption.startsWith("distance")) {
-				// keep FRs that are at least a distance of keepOptionKey away from others or have higher priority
-				for (FrequentedRegion frOld : frequentedRegions.values()) {
-				    if (frpair.merged.nodes.distanceFrom(frOld.nodes)<keepOptionKey && frpair.merged.priority<=frOld.priority) {
-					keep = false;
-					break;
-				    }
-				}
-			    }
-			    if (keep) {
+			    if (keep(frpair.merged)) {
 				// add this keeper pair to acceptedFRPairs
 				acceptedFRPairs.put(nodesKey, frpair);
 				// add this pair to the current interestingFRPairs if interesting
@@ -383,11 +344,11 @@ public class FRFinder {
                 added = true;
 		// add all of this round's interesting FRs to allFrequentedRegions OUTSIDE of the fr2 loop
 		for (FRPair pair : interestingFRPairs) {
-		    allFrequentedRegions.put(pair.merged.nodes.toString(), pair.merged);
+		    allFrequentedRegions.put(pair.merged.nodes, pair.merged);
 		}
 		// add the best FR to the output FRs map
                 FrequentedRegion fr = interestingFRPairs.last().merged;
-                frequentedRegions.put(fr.nodes.toString(), fr);
+                frequentedRegions.put(fr.nodes, fr);
                 // toggle priorityOptionLabel for next round if so desired
                 if (priorityOptionParameter!=null && priorityOptionParameter.equals("alt")) togglePriorityOptionLabel();
                 // output the best FR from this round
@@ -401,7 +362,7 @@ public class FRFinder {
                 // show the top remaining FR that wasn't added
                 TreeSet<FRPair> remainingFRPairs = new TreeSet<>(acceptedFRPairs.values());
 		for (FRPair pair : remainingFRPairs.descendingSet()) {
-		    if (!frequentedRegions.containsKey(pair.merged.nodes.toString())) {
+		    if (!frequentedRegions.containsKey(pair.merged.nodes)) {
 			printToLog("-------------------------------------------------------------------------------------------------------");
 			printToLog("TR:"+pair.merged.toString());
 			break;
@@ -410,36 +371,7 @@ public class FRFinder {
             }
             // output current state for continuation if aborted
             if (frequentedRegions.size()>0 && writeSaveFiles()) {
-                // params with current clock time
-                FRUtils.printParameters(parameters, graph.name+".save", alpha, kappa, System.currentTimeMillis()-startTime);
-                // allFrequentedRegions
-                PrintStream sfrOut = new PrintStream(graph.name+"."+ALL_FREQUENTED_REGIONS_SAVE);
-                for (FrequentedRegion fr : allFrequentedRegions.values()) {
-                    sfrOut.println(fr.toString());
-                }
-                sfrOut.close();
-                // acceptedFRPairs
-                PrintStream afrpOut = new PrintStream(graph.name+"."+ACCEPTED_FRPAIRS_SAVE);
-                for (FRPair frpair : acceptedFRPairs.values()) {
-                    afrpOut.println(frpair.toString());
-                }
-                // rejectedNodeSets
-                PrintStream rnsOut = new PrintStream(graph.name+"."+REJECTED_NODESETS_SAVE);
-                for (String nodesKey : rejectedNodeSets) {
-                    rnsOut.println(nodesKey);
-                }
-                rnsOut.close();
-                // frequentedRegions
-                PrintStream frOut = new PrintStream(graph.name+"."+FREQUENTED_REGIONS_SAVE);
-                boolean first = true;
-                for (FrequentedRegion fr : frequentedRegions.values()) {
-                    if (first) {
-                        frOut.println(fr.columnHeading()); // header
-                        first = false;
-                    }
-                    frOut.println(fr.toString());
-                }
-                frOut.close();
+                printSaveFiles(alpha, kappa, startTime, allFrequentedRegions, acceptedFRPairs.values(), rejectedNodeSets);
             }
         }
 
@@ -464,6 +396,182 @@ public class FRFinder {
 	}
     }
 
+    /**
+     * Find the FRs by a best-first search, which gives the same FRs as the all-pairs rounds of findFRs. Each pair of FRs in the pool
+     * is merged just once, in the round after the later of them joins the pool, and the merges are kept in a priority queue ordered
+     * by the merged FR, so a round merges only the FRs the previous round added to the pool with the pool, and its best FR is the head
+     * of the queue. The filters that depend on the FRs found so far (already found, keepOption) only reject more as FRs are found,
+     * so a merge they reject is dropped for good. requireBestNodeSet and the alt priority option break this and aren't supported.
+     */
+    void findFRsBestFirst(Map<NodeSet,FrequentedRegion> allFrequentedRegions, double alpha, int kappa, long startTime) throws FileNotFoundException, IOException {
+	if (requireBestNodeSet || (priorityOptionParameter!=null && priorityOptionParameter.equals("alt"))) {
+	    System.err.println("ERROR: the best-first search does not support requireBestNodeSet or the alt priority option.");
+	    System.exit(1);
+	}
+	// the interesting, kept merges which may still be the best of a round, best first
+	PriorityQueue<FRPair> candidateFRPairs = new PriorityQueue<>(Collections.reverseOrder());
+	// the kept merges that aren't interesting, for the top remaining FR
+	ConcurrentSkipListSet<FRPair> uninterestingFRPairs = new ConcurrentSkipListSet<>();
+	// every merged NodeSet so far, so each is merged once, and those rejected
+	Set<NodeSet> mergedNodeSets = ConcurrentHashMap.newKeySet();
+	Set<NodeSet> rejectedNodeSets = ConcurrentHashMap.newKeySet();
+	// the FRs that joined the pool last round, to be merged with the pool this round
+	List<FrequentedRegion> newFrequentedRegions = new LinkedList<>(allFrequentedRegions.values());
+	final NodeSet finalRequiredNodes = requiredNodes;
+        int round = 0;
+	boolean clocktimeExceeded = false;
+        boolean added = true;
+        while (added && (maxRound==0 || round<maxRound) && !clocktimeExceeded) {
+	    round++;
+            added = false;
+	    ConcurrentSkipListSet<FRPair> interestingFRPairs = new ConcurrentSkipListSet<>();
+	    for (FrequentedRegion fr1 : newFrequentedRegions) {
+		// abort if max clock time exceeded
+		long clocktime = System.currentTimeMillis() - startTime;
+		if (maxClocktime!=0 && clocktime>maxClocktime*60000) {
+		    clocktimeExceeded = true;
+		    System.err.println("Maximum clock time of "+maxClocktime+" minutes exceeded.");
+		    break;
+		}
+		allFrequentedRegions.values().parallelStream().forEach(fr2 -> {
+			// one of the pair must contain the required nodes, as fr1 must in the all-pairs rounds
+			if (!fr1.nodes.containsAll(finalRequiredNodes) && !fr2.nodes.containsAll(finalRequiredNodes)) return;
+			FRPair frpair = new FRPair(fr1, fr2, priorityOptionKey, priorityOptionLabel);
+			NodeSet nodesKey = frpair.nodes;
+			if (!mergedNodeSets.add(nodesKey)) return;
+			if (!isAllowed(frpair) || frequentedRegions.containsKey(nodesKey)) {
+			    rejectedNodeSets.add(nodesKey);
+			    return;
+			}
+			if (frpair.merged==null) frpair.merge();
+			if (!keep(frpair.merged)) {
+			    rejectedNodeSets.add(nodesKey);
+			} else if (isInteresting(frpair.merged)) {
+			    interestingFRPairs.add(frpair);
+			    if (debug) System.err.println(fr1.toString()+"\t+\t"+fr2.toString());
+			} else {
+			    uninterestingFRPairs.add(frpair);
+			}
+		    });
+	    }
+	    // the interesting merges join the pool, as in the all-pairs rounds, and the queue
+	    newFrequentedRegions = new LinkedList<>();
+	    for (FRPair pair : interestingFRPairs) {
+		if (!allFrequentedRegions.containsKey(pair.merged.nodes)) {
+		    allFrequentedRegions.put(pair.merged.nodes, pair.merged);
+		    newFrequentedRegions.add(pair.merged);
+		}
+		candidateFRPairs.add(pair);
+	    }
+	    // drop the merges now rejected by the FRs found; the head of the queue is then this round's best FR
+	    while (candidateFRPairs.size()>0 && (frequentedRegions.containsKey(candidateFRPairs.peek().nodes) || !keep(candidateFRPairs.peek().merged))) {
+		rejectedNodeSets.add(candidateFRPairs.poll().nodes);
+	    }
+	    if (candidateFRPairs.size()>0) {
+		added = true;
+		FrequentedRegion fr = candidateFRPairs.peek().merged;
+		frequentedRegions.put(fr.nodes, fr);
+		printToLog(round+":"+fr.toString());
+	    } else {
+		// show the top remaining FR that wasn't added
+		for (FRPair pair : uninterestingFRPairs.descendingSet()) {
+		    if (!frequentedRegions.containsKey(pair.merged.nodes) && keep(pair.merged)) {
+			printToLog("-------------------------------------------------------------------------------------------------------");
+			printToLog("TR:"+pair.merged.toString());
+			break;
+		    }
+		}
+	    }
+            // output current state for continuation if aborted
+            if (frequentedRegions.size()>0 && writeSaveFiles()) {
+                printSaveFiles(alpha, kappa, startTime, allFrequentedRegions, candidateFRPairs, rejectedNodeSets);
+            }
+	}
+    }
+
+    /**
+     * Return true if the merged nodes of the given FRPair pass the filters that depend only on them.
+     */
+    boolean isAllowed(FRPair frpair) {
+	// if kappa < infinity, do not combine FRs with nodes on different chromosomes
+	if (frpair.kappa<Integer.MAX_VALUE && !frpair.onOneChromosome()) return false;
+	// can't have an FR with nodes at different positions
+	if (requireSamePosition && !frpair.nodes.haveSamePosition()) return false;
+	// reject if one of the excluded nodes is present
+	for (Node n : excludedNodes) {
+	    if (frpair.nodes.contains(n)) return false;
+	}
+	// reject if not any of the included nodes is present
+	if (includedNodes.size()>0) {
+	    boolean included = false;
+	    for (Node n : includedNodes) {
+		if (frpair.nodes.contains(n)) {
+		    included = true;
+		    break;
+		}
+	    }
+	    if (!included) return false;
+	}
+	// reject if it's too small or too large
+	return frpair.nodes.size()>=minSize && frpair.nodes.size()<=maxSize;
+    }
+
+    /**
+     * Return true if the given merged FR should be kept according to keepOption, given the FRs found so far.
+     */
+    boolean keep(FrequentedRegion merged) {
+	if (keepOption.startsWith("subset") && merged.size>=keepOptionKey) {
+	    // keep FRs that are subsets of others or have higher priority
+	    for (FrequentedRegion frOld : frequentedRegions.values()) {
+		if (merged.nodes.isSupersetOf(frOld.nodes) && merged.priority<=frOld.priority) return false;
+	    }
+	} else if (keepOption.startsWith("distance")) {
+	    // keep FRs that are at least a distance of keepOptionKey away from others or have higher priority
+	    for (FrequentedRegion frOld : frequentedRegions.values()) {
+		if (merged.nodes.distanceFrom(frOld.nodes)<keepOptionKey && merged.priority<=frOld.priority) return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Write the current state to the save files for continuation if aborted.
+     */
+    void printSaveFiles(double alpha, int kappa, long startTime, Map<NodeSet,FrequentedRegion> allFrequentedRegions,
+			Collection<FRPair> acceptedFRPairs, Collection<NodeSet> rejectedNodeSets) throws FileNotFoundException, IOException {
+	// params with current clock time
+	FRUtils.printParameters(parameters, graph.name+".save", alpha, kappa, System.currentTimeMillis()-startTime);
+	// allFrequentedRegions
+	PrintStream sfrOut = new PrintStream(graph.name+"."+ALL_FREQUENTED_REGIONS_SAVE);
+	for (FrequentedRegion fr : allFrequentedRegions.values()) {
+	    sfrOut.println(fr.toString());
+	}
+	sfrOut.close();
+	// acceptedFRPairs
+	PrintStream afrpOut = new PrintStream(graph.name+"."+ACCEPTED_FRPAIRS_SAVE);
+	for (FRPair frpair : acceptedFRPairs) {
+	    afrpOut.println(frpair.toString());
+	}
+	afrpOut.close();
+	// rejectedNodeSets
+	PrintStream rnsOut = new PrintStream(graph.name+"."+REJECTED_NODESETS_SAVE);
+	for (NodeSet nodesKey : rejectedNodeSets) {
+	    rnsOut.println(nodesKey);
+	}
+	rnsOut.close();
+	// frequentedRegions
+	PrintStream frOut = new PrintStream(graph.name+"."+FREQUENTED_REGIONS_SAVE);
+	boolean first = true;
+	for (FrequentedRegion fr : frequentedRegions.values()) {
+	    if (first) {
+		frOut.println(fr.columnHeading()); // header
+		first = false;
+	    }
+	    frOut.println(fr.toString());
+	}
+	frOut.close();
+    }
+
     // parameters file value getters
     public boolean writeSaveFiles() {
         return Boolean.parseBoolean(parameters.getProperty("writeSaveFiles"));
@@ -519,6 +627,9 @@ public class FRFinder {
     public boolean getRequireSamePosition() {
 	return Boolean.parseBoolean(parameters.getProperty("requireSamePosition"));
     }
+    public boolean getBestFirst() {
+	return Boolean.parseBoolean(parameters.getProperty("bestFirst"));
+    }
     
     // parameter setters - set instance vars as well as value in parameters
     public void setPriorityOption(String priorityOption) {
@@ -610,6 +721,10 @@ public class FRFinder {
 	this.requireSamePosition = true;
 	parameters.setProperty("requireSamePosition", "true");
     }
+    public void setBestFirst() {
+	this.bestFirst = true;
+	parameters.setProperty("bestFirst", "true");
+    }
     
     /**
      * Print to both the console and the log file
@@ -894,6 +1009,10 @@ public class FRFinder {
 	Option maxClocktimeOption = new Option("maxct", "maxclocktime", true, "limit the computation to the given clock time in minutes [0=unlimited]");
 	maxClocktimeOption.setRequired(false);
 	options.addOption(maxClocktimeOption);
+	//
+	Option bestFirstOption = new Option("bf", "bestfirst", false, "search best-first, merging each pair of FRs once instead of every round; same FRs, no -rbns or alt priority [false]");
+	bestFirstOption.setRequired(false);
+	options.addOption(bestFirstOption);
 	
         try {
             cmd = parser.parse(options, args);
@@ -931,8 +1050,7 @@ public class FRFinder {
 	// load graph from a pair of TXT files
 	PangenomicGraph pg = new PangenomicGraph(cmd.getOptionValue("graph"));
 	pg.setVerbose(cmd.hasOption("verbose"));
-	pg.loadNodesFromTXT(new File(cmd.getOptionValue("nodesfile")));
-	pg.loadPathsFromTXT(new File(cmd.getOptionValue("pathsfile")));
+	pg.loadFromTXT(new File(cmd.getOptionValue("nodesfile")), new File(cmd.getOptionValue("pathsfile")));
 	// remove paths that contain an excluded path node, if there are any
 	String excludedPathNodeString = "[]";
 	if (cmd.hasOption("excludedpathnodes")) {
@@ -943,7 +1061,7 @@ public class FRFinder {
 	    List<Path> pathsToRemove = new LinkedList<>();
 	    for (Path path : pg.paths) {
 		for (Node node : excludedPathNodes) {
-		    if (path.getNodes().contains(node)) {
+		    if (path.traverses(node)) {
 			pathsToRemove.add(path);
 			break;
 		    }
@@ -976,7 +1094,7 @@ public class FRFinder {
 	// other stuff
 	pg.buildNodePaths();
 	pg.tallyLabelCounts();
-	System.out.println("# Graph has "+pg.vertexSet().size()+" nodes and "+pg.edgeSet().size()+" edges with "+pg.paths.size()+" paths.");
+	System.out.println("# Graph has "+pg.vertexSet().size()+" nodes and "+pg.getEdgeCount()+" edges with "+pg.paths.size()+" paths.");
 	System.out.println("# Graph has "+pg.labelCounts.get("case")+" case paths and "+pg.labelCounts.get("ctrl")+" ctrl paths.");
 	// instantiate the FRFinder with this PangenomicGraph
 	FRFinder frf = new FRFinder(pg);
@@ -1006,6 +1124,7 @@ public class FRFinder {
 	if (cmd.hasOption("writefrsubpaths")) frf.setWriteFRSubpaths();
 	if (cmd.hasOption("requirebestnodeset")) frf.setRequireBestNodeSet();
 	if (cmd.hasOption("requiresameposition")) frf.setRequireSamePosition();
+	if (cmd.hasOption("bestfirst")) frf.setBestFirst();
 	// these are not stored in parameters
 	frf.verbose = cmd.hasOption("verbose");
 	frf.debug = cmd.hasOption("debug");
@@ -1049,5 +1168,6 @@ public class FRFinder {
         parameters.setProperty("keepOption", "null");
 	parameters.setProperty("requireBestNodeSet", String.valueOf(requireBestNodeSet));
 	parameters.setProperty("requireSamePosition", String.valueOf(requireSamePosition));
+	parameters.setProperty("bestFirst", String.valueOf(bestFirst));
     }
 }
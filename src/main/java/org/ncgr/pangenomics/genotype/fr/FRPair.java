@@ -71,12 +71,11 @@ public class FRPair implements Comparable {
     }
 
     /**
-     * Must override hashCode() for Map keys.
+     * Must override hashCode() for Map keys; symmetric in fr1 and fr2 to agree with equals().
      */
     @Override
     public int hashCode() {
-	String fr1fr2 = fr1.nodes.toString()+":"+fr2.nodes.toString();
-	return fr1fr2.hashCode();
+	return fr1.nodes.hashCode() + fr2.nodes.hashCode();
     }
 
     /**
@@ -98,15 +97,15 @@ public class FRPair implements Comparable {
     }
 
     /**
-     * Algorithm 2 from Cleary, et al. returns the supporting path segments for the given merge of FRs.
+     * Algorithm 2 from Cleary, et al. returns the supporting path segments for the given merge of FRs,
+     * built from the positions of fr1's and fr2's nodes along the paths that traverse them.
      */
     public void merge() {
-        NodeSet mergedNodes = NodeSet.merge(fr1.nodes,fr2.nodes);
         try {
-            merged = new FrequentedRegion(graph, mergedNodes, alpha, kappa, priorityOptionKey, priorityOptionLabel);
+            merged = new FrequentedRegion(fr1, fr2, priorityOptionKey, priorityOptionLabel);
         } catch (Exception e) {
             System.err.println(e);
-            System.err.println("ERROR MERGING "+mergedNodes);
+            System.err.println("ERROR MERGING "+nodes);
             System.exit(1);
         }
     }
@@ -811,8 +811,7 @@ public class FRUtils {
 	    System.exit(1);
 	}
 	PangenomicGraph graph = new PangenomicGraph(graphPrefix);
-	graph.loadNodesFromTXT(nodesFile);
-	graph.loadPathsFromTXT(pathsFile);
+	graph.loadFromTXT(nodesFile, pathsFile);
 	graph.tallyLabelCounts();
 	return graph;
     }
@@ -104,8 +104,7 @@ public class FRViewer {
         // load the graph
         PangenomicGraph graph = new PangenomicGraph(graphName);
         graph.setVerbose(true);
-	graph.loadNodesFromTXT(graph.getNodesFile());
-	graph.loadPathsFromTXT(graph.getPathsFile());
+	graph.loadFromTXT(graph.getNodesFile(), graph.getPathsFile());
         graph.buildNodePaths();
         graph.tallyLabelCounts();
 
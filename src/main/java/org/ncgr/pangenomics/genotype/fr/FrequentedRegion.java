@@ -8,6 +8,8 @@ import java.io.IOException;
 
 import java.text.DecimalFormat;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Map;
@@ -50,8 +52,24 @@ class FrequentedRegion implements Comparable {
     NodeSet nodes;
     int size;
     
-    // the subpaths, identified by their originating path name and label, that start and end on this FR's nodes
-    List<Path> subpaths;
+    // the subpaths, identified by their originating path name and label, that start and end on this FR's nodes;
+    // expanded from uniqueSubpaths when first asked for
+    List<Subpath> subpaths;
+
+    // the packed core of the graph when support was last computed, and the subpaths of the representative of each
+    // of its unique paths that has any, keyed by unique path index; each stands for the same subpaths of every identical path
+    PackedGraph core;
+    TreeMap<Integer,List<Subpath>> uniqueSubpaths;
+
+    // the node-by-path incidence index built with core, whose node bitsets and label masks give the kappa=∞ support
+    IncidenceIndex incidence;
+
+    // the positions of this FR's nodes along each unique path of core that traverses any of them, from which merges are built
+    Occurrences occurrences;
+
+    // with kappa=∞, the paths of core that support this FR, as a bitset over path indices; each has a single subpath,
+    // from its first to its last node in this FR, so support is counted from the bits and uniqueSubpaths is built only when asked for
+    long[] supportBits;
     
     // the subpath support of this FR
     int support = 0;
@@ -92,6 +110,42 @@ class FrequentedRegion implements Comparable {
         update();
     }
 
+    /**
+     * Construct the merge of two FRs of the same graph, alpha and kappa: Algorithm 2 from Cleary, et al.
+     * The positions of the merged nodes along each unique path are merged from those of fr1 and fr2, so only the unique paths
+     * that traverse either parent's nodes are visited and none is rescanned; the support is then swept from the merged positions.
+     */
+    FrequentedRegion(FrequentedRegion fr1, FrequentedRegion fr2, int priorityOptionKey, String priorityOptionLabel) {
+        this.graph = fr1.graph;
+        this.nodes = NodeSet.merge(fr1.nodes, fr2.nodes);
+        this.alpha = fr1.alpha;
+        this.kappa = fr1.kappa;
+        this.priorityOptionKey = priorityOptionKey;
+        this.priorityOptionLabel = priorityOptionLabel;
+	size = nodes.size();
+        incidence = graph.getIncidenceIndex();
+        core = incidence.getCore();
+        if (kappa==Integer.MAX_VALUE) {
+            // a path traverses some merged node iff it traverses some node of fr1 or fr2, and all of them iff all of both
+            long[] bits1 = fr1.getSupportBits(core, incidence);
+            long[] bits2 = fr2.getSupportBits(core, incidence);
+            if (alpha==0.0) {
+                long[] bits = new long[bits1.length];
+                for (int w=0; w<bits.length; w++) bits[w] = bits1[w] | bits2[w];
+                updateSupport(bits);
+            } else if (alpha==1.0) {
+                long[] bits = new long[bits1.length];
+                for (int w=0; w<bits.length; w++) bits[w] = bits1[w] & bits2[w];
+                updateSupport(bits);
+            } else {
+                updateSupport(getSupportBits(core, incidence, nodes, alpha));
+            }
+        } else {
+            updateSupport(Occurrences.merge(fr1.getOccurrences(core), fr2.getOccurrences(core)));
+        }
+        updatePriority();
+    }
+
     /**
      * Construct given a PangenomicGraph, string representation of nodes, and alpha and kappa and priorityOption parameters.
      * 0                               1       2               3       4       5       6       7
@@ -118,7 +172,7 @@ class FrequentedRegion implements Comparable {
     /**
      * Construct given a PangenomicGraph, NodeSet and Subpaths
      */
-    FrequentedRegion(PangenomicGraph graph, NodeSet nodes, List<Path> subpaths, double alpha, int kappa, int priorityOptionKey, String priorityOptionLabel) {
+    FrequentedRegion(PangenomicGraph graph, NodeSet nodes, List<Subpath> subpaths, double alpha, int kappa, int priorityOptionKey, String priorityOptionLabel) {
         this.graph = graph;
         this.nodes = nodes;
         this.subpaths = subpaths;
@@ -133,7 +187,7 @@ class FrequentedRegion implements Comparable {
     /**
      * Construct given a PangenomicGraph, NodeSet and Subpaths and already known support 
      */
-    FrequentedRegion(PangenomicGraph graph, NodeSet nodes, List<Path> subpaths, double alpha, int kappa, int priorityOptionKey, String priorityOptionLabel, int support) {
+    FrequentedRegion(PangenomicGraph graph, NodeSet nodes, List<Subpath> subpaths, double alpha, int kappa, int priorityOptionKey, String priorityOptionLabel, int support) {
         this.graph = graph;
         this.nodes = nodes;
         this.subpaths = subpaths;
@@ -149,7 +203,7 @@ class FrequentedRegion implements Comparable {
     /**
      * Construct given only basic information, used for post-processing. NO GRAPH.
      */
-    FrequentedRegion(NodeSet nodes, List<Path> subpaths, double alpha, int kappa, int priorityOptionKey, String priorityOptionLabel, int support) {
+    FrequentedRegion(NodeSet nodes, List<Subpath> subpaths, double alpha, int kappa, int priorityOptionKey, String priorityOptionLabel, int support) {
         this.nodes = nodes;
         this.subpaths = subpaths;
         this.alpha = alpha;
@@ -274,7 +328,7 @@ class FrequentedRegion implements Comparable {
      */
     @Override
     public int hashCode() {
-	return this.nodes.toString().hashCode();
+	return this.nodes.hashCode();
     }
 
     /**
@@ -304,18 +358,145 @@ class FrequentedRegion implements Comparable {
 
     /**
      * Update the subpaths and support from the graph paths for the current alpha and kappa values.
+     * Support is computed once per unique path and weighted by its multiplicity; per-path subpaths are expanded by getSubpaths().
+     * Only the unique paths that traverse at least one of this FR's nodes are visited, since no others can support it.
      */
     void updateSupport() {
-        subpaths = new LinkedList<>();
-        for (Path p : graph.paths) {
-            List<Path> supportPaths = computeSupport(p);
-            subpaths.addAll(supportPaths);
+        incidence = graph.getIncidenceIndex();
+        core = incidence.getCore();
+        if (kappa==Integer.MAX_VALUE) {
+            updateSupport(getSupportBits(core, incidence, nodes, alpha));
+        } else {
+            updateSupport(Occurrences.of(core, nodes));
         }
-        support = subpaths.size();
+    }
+
+    /**
+     * Update the subpaths and support from the given positions of this FR's nodes along the unique paths of core.
+     */
+    void updateSupport(Occurrences occurrences) {
+        this.occurrences = occurrences;
+        supportBits = null;
+        uniqueSubpaths = new TreeMap<>();
+        subpaths = null;
+        support = 0;
+        for (int k=0; k<occurrences.uniques.length; k++) {
+            int u = occurrences.uniques[k];
+            List<Subpath> supportPaths = computeSupport(core.getUniquePath(u), occurrences.positions, occurrences.offsets[k], occurrences.offsets[k+1]);
+            if (supportPaths.size()>0) {
+                uniqueSubpaths.put(u, supportPaths);
+                support += supportPaths.size() * core.getUniquePathMultiplicity(u);
+            }
+        }
+        caseSubpathSupport = getSubpathSupport("case");
+        ctrlSubpathSupport = getSubpathSupport("ctrl");
+    }
+
+    /**
+     * Update the support from the given set of supporting paths of core, for kappa=∞.
+     */
+    void updateSupport(long[] supportBits) {
+        this.supportBits = supportBits;
+        occurrences = null;
+        uniqueSubpaths = null;
+        subpaths = null;
+        support = 0;
+        for (long word : supportBits) support += Long.bitCount(word);
         caseSubpathSupport = getSubpathSupport("case");
         ctrlSubpathSupport = getSubpathSupport("ctrl");
     }
 
+    /**
+     * Return the paths of core that support the given nodes for kappa=∞, as a bitset over path indices: those traversing any node
+     * for alpha=0, the intersection of the nodes' paths for alpha=1, both from the nodes' bitsets in the incidence index built with core,
+     * and otherwise those traversing at least alpha of the nodes.
+     */
+    static long[] getSupportBits(PackedGraph core, IncidenceIndex incidence, NodeSet nodes, double alpha) {
+        long[] bits = new long[incidence.getWordCount()];
+        if (alpha==0.0) {
+            for (Node n : nodes) {
+                int i = core.getNodeIndex(n.id);
+                if (i<0) continue;
+                long[] nodeBits = incidence.getNodeBits(i);
+                for (int w=0; w<bits.length; w++) bits[w] |= nodeBits[w];
+            }
+        } else if (alpha==1.0) {
+            boolean first = true;
+            for (Node n : nodes) {
+                int i = core.getNodeIndex(n.id);
+                if (i<0) return new long[bits.length];
+                long[] nodeBits = incidence.getNodeBits(i);
+                for (int w=0; w<bits.length; w++) bits[w] = first ? nodeBits[w] : bits[w] & nodeBits[w];
+                first = false;
+            }
+        } else {
+            int[] counts = new int[core.getPathCount()];
+            for (Node n : nodes) {
+                int i = core.getNodeIndex(n.id);
+                if (i<0) continue;
+                for (int k=0; k<core.getNodePathCount(i); k++) counts[core.getNodePathIndex(i, k)]++;
+            }
+            // the alpha test of Algorithm 1 on each path's single run; num>0 as there
+            for (int j=0; j<counts.length; j++) {
+                if (counts[j]>0 && counts[j]>=alpha*nodes.size()) bits[j>>>6] |= 1L<<j;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Return the paths of the given core that support this FR for kappa=∞, computed if they weren't for that core.
+     */
+    long[] getSupportBits(PackedGraph core, IncidenceIndex incidence) {
+        if (supportBits!=null && this.core==core) return supportBits;
+        return getSupportBits(core, incidence, nodes, alpha);
+    }
+
+    /**
+     * Return the subpaths of the representative of each unique path that has any, keyed by unique path index,
+     * building them from the supporting paths on first request if support was counted from them.
+     */
+    TreeMap<Integer,List<Subpath>> getUniqueSubpaths() {
+        if (uniqueSubpaths==null && supportBits!=null) {
+            TreeMap<Integer,List<Subpath>> map = new TreeMap<>();
+            Occurrences o = Occurrences.of(core, nodes);
+            for (int k=0; k<o.uniques.length; k++) {
+                Path path = core.getUniquePath(o.uniques[k]);
+                int j = path.getIndex();
+                if ((supportBits[j>>>6] & (1L<<j))==0) continue;
+                List<Subpath> supportPaths = new LinkedList<>();
+                supportPaths.add(path.subpath(o.positions[o.offsets[k]], o.positions[o.offsets[k+1]-1]));
+                map.put(o.uniques[k], supportPaths);
+            }
+            uniqueSubpaths = map;
+        }
+        return uniqueSubpaths;
+    }
+
+    /**
+     * Return the positions of this FR's nodes along the unique paths of the given core, computed if they weren't for that core.
+     */
+    Occurrences getOccurrences(PackedGraph core) {
+        if (occurrences!=null && this.core==core) return occurrences;
+        return Occurrences.of(core, nodes);
+    }
+
+    /**
+     * Return the subpaths of every graph path, in path order, expanding them from the unique paths' subpaths on first request.
+     */
+    public List<Subpath> getSubpaths() {
+        if (subpaths==null && getUniqueSubpaths()!=null) {
+            subpaths = new ArrayList<>(support);
+            for (int j=0; j<core.getPathCount(); j++) {
+                List<Subpath> supportPaths = uniqueSubpaths.get(core.getUniquePathIndex(j));
+                if (supportPaths==null) continue;
+                Path path = core.getPathAt(j);
+                for (Subpath sp : supportPaths) subpaths.add(new Subpath(path, sp.getStart(), sp.getEnd()));
+            }
+        }
+        return subpaths;
+    }
+
     /**
      * Set a new alpha value.
      */
@@ -342,13 +523,11 @@ class FrequentedRegion implements Comparable {
      * Return the support associated with paths with the given label (not subpaths).
      */
     public int getPathSupport(String label) {
+        // with kappa=∞ each supporting path has a single subpath
+        if (supportBits!=null) return getSubpathSupport(label);
         int count = 0;
-        List<String> countedPaths = new LinkedList<>();
-        for (Path subpath : subpaths) {
-            if (!countedPaths.contains(subpath.getName()) && subpath.getLabel()!=null && subpath.getLabel().equals(label)) {
-                countedPaths.add(subpath.getName());
-                count++;
-            }
+        for (int u : uniqueSubpaths.keySet()) {
+            count += core.getUniquePathMultiplicity(u, label);
         }
         return count;
     }
@@ -358,10 +537,11 @@ class FrequentedRegion implements Comparable {
      */
     public int getSubpathSupport(String label) {
         int count = 0;
-        for (Path subpath : subpaths) {
-            if (subpath.getLabel()!=null && subpath.getLabel().equals(label)) {
-                count++;
-            }
+        if (supportBits!=null) {
+            return IncidenceIndex.andCardinality(supportBits, incidence.getLabelMask(label));
+        }
+        for (Map.Entry<Integer,List<Subpath>> entry : uniqueSubpaths.entrySet()) {
+            count += entry.getValue().size() * core.getUniquePathMultiplicity(entry.getKey(), label);
         }
         return count;
     }
@@ -486,7 +666,7 @@ class FrequentedRegion implements Comparable {
      */
     public String subpathsString() {
         StringBuilder sb = new StringBuilder();
-        for (Path sp : subpaths) {
+        for (Subpath sp : getSubpaths()) {
             sb.append(sp.toString());
 	    sb.append("\n");
         }
@@ -497,23 +677,22 @@ class FrequentedRegion implements Comparable {
      * Return true if this FR contains a subpath which belongs to the given Path.
      */
     public boolean containsSubpathOf(Path path) {
-        if (subpaths!=null) {
-            for (Path sp : subpaths) {
-                if (sp.equals(path)) return true;
-            }
-        }
-        return false;
+        return getUniqueSubpaths()!=null && countSubpathsOf(path)>0;
     }
 
     /**
      * Return a count of subpaths of FR that belong to the given Path.
      */
     public int countSubpathsOf(Path path) {
-	if (subpaths==null || subpaths.size()==0) {
+	if (getUniqueSubpaths()==null || uniqueSubpaths.size()==0) {
 	    return 0;
+	} else if (path.getIndex()>=0 && path.getIndex()<core.getPathCount() && core.getPathAt(path.getIndex())==path) {
+	    // the path's unique path has the same subpaths
+	    List<Subpath> supportPaths = uniqueSubpaths.get(core.getUniquePathIndex(path.getIndex()));
+	    return supportPaths==null ? 0 : supportPaths.size();
 	} else {
 	    int count = 0;
-            for (Path sp : subpaths) {
+            for (Subpath sp : getSubpaths()) {
                 if (sp.getName().equals(path.getName())) count++;
             }
 	    return count;
@@ -535,11 +714,7 @@ class FrequentedRegion implements Comparable {
      * Return the count of subpaths that have the given label.
      */
     public int labelCount(String label) {
-        int count = 0;
-        for (Path sp : subpaths) {
-            if (sp.getLabel().equals(label)) count++;
-        }
-        return count;
+        return getSubpathSupport(label);
     }
 
     /**
@@ -574,13 +749,11 @@ class FrequentedRegion implements Comparable {
      */
     public int getCaseCount(Node n) {
         int count = 0;
-        for (Path p : subpaths) {
-            if (p.isCase()) {
-                for (Node node : p.getNodes()) {
-                    if (node.equals(n)) {
-                        count++;
-                        break;
-                    }
+        for (Map.Entry<Integer,List<Subpath>> entry : getUniqueSubpaths().entrySet()) {
+            for (Subpath sp : entry.getValue()) {
+                if (!sp.traverses(n)) continue;
+                for (Path path : core.getUniquePathMembers(entry.getKey())) {
+                    if (path.isCase()) count++;
                 }
             }
         }
@@ -592,13 +765,11 @@ class FrequentedRegion implements Comparable {
      */
     public int getControlCount(Node n) {
         int count = 0;
-        for (Path p : subpaths) {
-            if (p.isControl()) {
-                for (Node node : p.getNodes()) {
-                    if (node.equals(n)) {
-                        count++;
-                        break;
-                    }
+        for (Map.Entry<Integer,List<Subpath>> entry : getUniqueSubpaths().entrySet()) {
+            for (Subpath sp : entry.getValue()) {
+                if (!sp.traverses(n)) continue;
+                for (Path path : core.getUniquePathMembers(entry.getKey())) {
+                    if (path.isControl()) count++;
                 }
             }
         }
@@ -689,8 +860,7 @@ class FrequentedRegion implements Comparable {
 
         // import the PangenomicGraph from a pair of TXT files
         PangenomicGraph pg = new PangenomicGraph(cmd.getOptionValue("graph"));
-	pg.loadNodesFromTXT(pg.getNodesFile());
-	pg.loadPathsFromTXT(new File(cmd.getOptionValue("pathsfile")));
+	pg.loadFromTXT(pg.getNodesFile(), new File(cmd.getOptionValue("pathsfile")));
 	// remove paths that contain an excluded node, if given
 	String excludedPathNodeString = "[]";
 	if (cmd.hasOption("excludedpathnodes")) {
@@ -733,7 +903,7 @@ class FrequentedRegion implements Comparable {
 	}
 	// other stuff
         pg.tallyLabelCounts();
-	System.out.println("# Graph has "+pg.vertexSet().size()+" nodes and "+pg.edgeSet().size()+" edges with "+pg.paths.size()+" paths.");
+	System.out.println("# Graph has "+pg.vertexSet().size()+" nodes and "+pg.getEdgeCount()+" edges with "+pg.paths.size()+" paths.");
         System.out.println("# Graph has "+pg.labelCounts.get("case")+" case paths and "+pg.labelCounts.get("ctrl")+" ctrl paths.");
 
         // create the FrequentedRegion with this PangenomicGraph
@@ -748,32 +918,75 @@ class FrequentedRegion implements Comparable {
     /**
      * Algorithm 1 from Cleary, et al. generates the supporting path segments of this path for the given NodeSet and alpha and kappa parameters.
      *
+     * The kappa test on a candidate subpath is that no gap between consecutive positions of C's nodes in it is longer than kappa,
+     * so the maximal subpaths are the runs of C positions split at gaps longer than kappa, found in one sweep. Every other candidate
+     * lies inside one of these and has fewer of C's nodes, so each run is a supporting path segment iff it passes the alpha test.
+     * This gives the same segments as computeSupportReference in time linear in the path length.
+     *
      * @param nodes the NodeSet, or cluster C as it's called in Algorithm 1
      * @param alpha the penetrance parameter = minimum fraction of nodes in C that are in subpath
      * @param kappa the insertion parameter = maximum inserted number of nodes
      * @return the set of supporting path segments
      */
-    public List<Path> computeSupport(Path p) {
+    public List<Subpath> computeSupport(Path p) {
+        // m = the positions in the path of the path's nodes that are in C=nodes
+        int[] m = new int[p.getNodeCount()];
+        int mSize = 0;
+        for (int k=0; k<p.getNodeCount(); k++) {
+            if (nodes.contains(p.getNode(k))) m[mSize++] = k;
+        }
+        return computeSupport(p, m, 0, mSize);
+    }
+
+    /**
+     * Sweep the supporting path segments of path p from the ascending positions m[from..to) of the nodes in C along it.
+     */
+    List<Subpath> computeSupport(Path p, int[] m, int from, int to) {
         // s = the supporting subpaths
-        List<Path> s = new LinkedList<>();
-        // m = the list of the path's nodes that are in C=nodes
-        List<Node> m = new LinkedList<>();
-        for (Node n : p.getNodes()) {
-            if (nodes.contains(n)) m.add(n);
+        List<Subpath> s = new LinkedList<>();
+        if (kappa<0) {
+            // no subpath can pass a negative kappa test
+            for (int i=from; i<to; i++) System.err.println("ERROR: empty subpath; path="+this.toString()+" l="+m[i]+" r=-1");
+            return s;
+        }
+        // sweep the runs m[i..j] whose gaps are all at most kappa
+        int i = from;
+        while (i<to) {
+            int j = i;
+            while (j+1<to && m[j+1]-m[j]-1<=kappa) j++;
+            // alpha test on the run; num>0 always, which allows alpha=0
+            int num = j - i + 1;
+            if (num>=alpha*size) s.add(p.subpath(m[i], m[j]));
+            i = j + 1;
+        }
+        return s;
+    }
+
+    /**
+     * The original implementation of Algorithm 1, which tries every start and end pair and rescans the insertions between them.
+     * Kept as the reference that computeSupport is checked against.
+     */
+    List<Subpath> computeSupportReference(Path p) {
+        // s = the supporting subpaths
+        List<Subpath> s = new LinkedList<>();
+        // m = the positions in the path of the path's nodes that are in C=nodes
+        int[] m = new int[p.getNodeCount()];
+        int mSize = 0;
+        for (int k=0; k<p.getNodeCount(); k++) {
+            if (nodes.contains(p.getNode(k))) m[mSize++] = k;
         }
         // find maximal subpaths
-        for (int i=0; i<m.size(); i++) {
-            Node nl = m.get(i);
-            Node nr = null;
+        for (int i=0; i<mSize; i++) {
+            int l = m[i];
+            int r = -1;
             int num = 0;
-            for (int j=i; j<m.size(); j++) {
+            for (int j=i; j<mSize; j++) {
 		if (kappa<Integer.MAX_VALUE) {
-		    // kappa test
-		    Path subpath = p.subpath(nl, m.get(j));
+		    // kappa test on the nodes between positions l and m[j]
 		    int maxInsertion = 0; // max insertion
 		    int insertion = 0; // continguous insertion
-		    for (Node n : subpath.getNodes()) {
-			if (nodes.contains(n)) {
+		    for (int k=l; k<=m[j]; k++) {
+			if (nodes.contains(p.getNode(k))) {
 			    // reset and save previous insertion if large
 			    if (insertion>maxInsertion) maxInsertion = insertion;
 			    insertion = 0;
@@ -783,24 +996,24 @@ class FrequentedRegion implements Comparable {
 		    }
 		    if (maxInsertion>kappa) break;
 		}
-                // we're good, set nr from this cycle
-                nr = m.get(j);
+                // we're good, set r from this cycle
+                r = m[j];
                 num = j - i + 1; // number of this path's nodes in nodes collection
             }
+            // sanity check
+            if (r<l) {
+                System.err.println("ERROR: empty subpath; path="+this.toString()+" l="+l+" r="+r);
+                continue;
+            }
             // is this a subpath of an already counted subpath? (maximality test)
-            Path subpath = p.subpath(nl,nr);
+            Subpath subpath = p.subpath(l, r);
             boolean ignore = false;
-            for (Path checkpath : s) {
+            for (Subpath checkpath : s) {
                 if (checkpath.contains(subpath)) {
                     ignore = true;
                     break;
                 }
             }
-            // sanity check
-            if (subpath.getNodes().size()==0) {
-                System.err.println("ERROR: subpath.getNodes().size()=0; path="+this.toString()+" nl="+nl+" nr="+nr);
-                ignore = true;
-            }
             // alpha test on maximal subpath; use num>0 to allow alpha=0
             if (!ignore && num>0 && num>=alpha*size) s.add(subpath);
         }
@@ -819,4 +1032,95 @@ class FrequentedRegion implements Comparable {
 	}
 	return true;
     }
+
+    /**
+     * The positions of a set of nodes along the unique paths of a PackedGraph that traverse any of them, as a CSR:
+     * the positions along unique path uniques[k] are positions[offsets[k]..offsets[k+1]), with uniques and each run ascending.
+     */
+    static class Occurrences {
+        int[] uniques;
+        int[] offsets;
+        int[] positions;
+
+        /**
+         * Collect the positions of the given nodes from the core's node to unique path index.
+         */
+        static Occurrences of(PackedGraph core, NodeSet nodes) {
+            int total = 0;
+            for (Node n : nodes) {
+                int i = core.getNodeIndex(n.id);
+                if (i>=0) total += core.getNodeUniquePathCount(i);
+            }
+            // pack (unique path, position) pairs into longs so one sort orders them
+            long[] pairs = new long[total];
+            int count = 0;
+            for (Node n : nodes) {
+                int i = core.getNodeIndex(n.id);
+                if (i<0) continue;
+                for (int k=0; k<core.getNodeUniquePathCount(i); k++) {
+                    pairs[count++] = ((long) core.getNodeUniquePathIndex(i, k) << 32) | core.getNodeUniquePathPosition(i, k);
+                }
+            }
+            Arrays.sort(pairs);
+            Occurrences o = new Occurrences();
+            o.uniques = new int[total];
+            o.offsets = new int[total+1];
+            o.positions = new int[total];
+            int uniqueCount = 0;
+            for (int k=0; k<total; k++) {
+                int u = (int) (pairs[k] >>> 32);
+                if (uniqueCount==0 || o.uniques[uniqueCount-1]!=u) {
+                    o.offsets[uniqueCount] = k;
+                    o.uniques[uniqueCount++] = u;
+                }
+                o.positions[k] = (int) pairs[k];
+            }
+            o.offsets[uniqueCount] = total;
+            o.uniques = Arrays.copyOf(o.uniques, uniqueCount);
+            o.offsets = Arrays.copyOf(o.offsets, uniqueCount+1);
+            return o;
+        }
+
+        /**
+         * Merge the occurrences of two node sets into those of their union; a shared node's position appears once.
+         */
+        static Occurrences merge(Occurrences a, Occurrences b) {
+            Occurrences o = new Occurrences();
+            o.uniques = new int[a.uniques.length+b.uniques.length];
+            o.offsets = new int[o.uniques.length+1];
+            o.positions = new int[a.positions.length+b.positions.length];
+            int uniqueCount = 0;
+            int count = 0;
+            int ka = 0;
+            int kb = 0;
+            while (ka<a.uniques.length || kb<b.uniques.length) {
+                int ua = ka<a.uniques.length ? a.uniques[ka] : Integer.MAX_VALUE;
+                int ub = kb<b.uniques.length ? b.uniques[kb] : Integer.MAX_VALUE;
+                int u = Math.min(ua, ub);
+                int ia = ua==u ? a.offsets[ka] : 0;
+                int enda = ua==u ? a.offsets[ka+1] : 0;
+                int ib = ub==u ? b.offsets[kb] : 0;
+                int endb = ub==u ? b.offsets[kb+1] : 0;
+                o.offsets[uniqueCount] = count;
+                o.uniques[uniqueCount++] = u;
+                while (ia<enda || ib<endb) {
+                    if (ib==endb || (ia<enda && a.positions[ia]<b.positions[ib])) {
+                        o.positions[count++] = a.positions[ia++];
+                    } else if (ia==enda || b.positions[ib]<a.positions[ia]) {
+                        o.positions[count++] = b.positions[ib++];
+                    } else {
+                        o.positions[count++] = a.positions[ia++];
+                        ib++;
+                    }
+                }
+                if (ua==u) ka++;
+                if (ub==u) kb++;
+            }
+            o.offsets[uniqueCount] = count;
+            o.uniques = Arrays.copyOf(o.uniques, uniqueCount);
+            o.offsets = Arrays.copyOf(o.offsets, uniqueCount+1);
+            o.positions = Arrays.copyOf(o.positions, count);
+            return o;
+        }
+    }
 }
@@ -380,7 +380,7 @@ public class frGraphComponent extends mxGraphComponent implements ActionListener
                     currentFRIndex = firstIndex;
                 }
                 currentFR = frequentedRegions[currentFRIndex];
-                if (currentFR.subpaths==null) currentFR.updateSupport();
+                if (currentFR.core==null) currentFR.updateSupport();
                 fgxAdapter = new FGraphXAdapter(graph, currentFR, highlightedPath, decorateEdges, minorNodeFrac);
                 setGraph(fgxAdapter);
                 updateSidePanel();
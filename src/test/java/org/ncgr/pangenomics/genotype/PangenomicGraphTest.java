@@ -0,0 +1,261 @@
+package org.ncgr.pangenomics.genotype;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that appending the samples of a VCF to a stored graph, and merging the delta into its files, gives the graph rebuilt from all the samples
+ * up to node ids, and that a graph loaded from a .pgb snapshot equals the graph it was written from.
+ *
+ * @author Sam Hokin
+ */
+public class PangenomicGraphTest {
+
+    static final long SEED = 20211017L;
+
+    static final String[] ALLELES = { "A", "G", "T" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendEqualsRebuild() throws IOException {
+        Random random = new Random(SEED);
+        for (int t=0; t<5; t++) {
+            checkAppend(random, "t"+t, "txt");
+        }
+        checkAppend(random, "bin", "bin");
+        checkAppend(random, "deflate", "deflate");
+    }
+
+    /**
+     * A graph loaded from a .pgb snapshot, with its core built from the snapshot's index arrays and its paths materialized on demand,
+     * must equal the graph it was written from.
+     */
+    @Test
+    public void pgbEqualsGraph() throws IOException {
+        Random random = new Random(SEED);
+        for (int t=0; t<3; t++) {
+            String name = "pgb"+t;
+            String[][] genotypes = new String[20+random.nextInt(40)][10+random.nextInt(20)];
+            String[] ids = new String[genotypes.length];
+            List<String> labels = new ArrayList<>();
+            for (int i=0; i<genotypes.length; i++) {
+                ids[i] = "rs"+i;
+                for (int s=0; s<genotypes[i].length; s++) genotypes[i][s] = getAllele(random, 0.3)+"/"+getAllele(random, 0.3);
+            }
+            for (int s=0; s<genotypes[0].length; s++) labels.add(getSampleName(s)+"\t"+(random.nextBoolean() ? "case" : "ctrl"));
+            File vcf = writeVCF(name+".vcf", genotypes, ids, 0, genotypes[0].length);
+            PangenomicGraph graph = new PangenomicGraph(new File(folder.getRoot(), name).getPath());
+            graph.loadFromVCFPipelined(vcf, writeLines(name+".labels.txt", labels), 0.0, 1.0, 0, false, 1);
+            File pgbFile = new File(folder.getRoot(), name+".pgb");
+            graph.writePGB(pgbFile, null, null);
+            PangenomicGraph loaded = new PangenomicGraph(graph.name);
+            loaded.loadFromPGB(pgbFile);
+            PackedGraph core = graph.getCore();
+            PackedGraph loadedCore = loaded.getCore();
+            assertEquals(name, core.getUniquePathCount(), loadedCore.getUniquePathCount());
+            assertEquals(name, core.getEdgeCount(), loadedCore.getEdgeCount());
+            for (int i=0; i<core.getNodeCount(); i++) {
+                assertEquals(name, core.getNodePaths(i), loadedCore.getNodePaths(i));
+            }
+            assertEquals(name, getNodeLines(graph), getNodeLines(loaded));
+            assertEquals(name, getPathLines(graph), getPathLines(loaded));
+            assertEquals(name, graph.edgeSet().size(), loaded.edgeSet().size());
+        }
+    }
+
+    /**
+     * Build a graph from the first VCF's labeled samples, append the second's, and compare the appended graph with the graph built from
+     * a VCF of both, node by node key since new nodes have ids after the stored ones. The stored nodes must keep their ids, and the files
+     * merged from the delta must be those of the appended graph.
+     */
+    void checkAppend(Random random, String name, String pathsFormat) throws IOException {
+        int siteCount = 20 + random.nextInt(40);
+        int sampleCount1 = 10 + random.nextInt(20);
+        int sampleCount2 = 10 + random.nextInt(20);
+        // the genotypes of each site and sample; the second VCF's samples have more of the rare alleles, so their genotypes are often new
+        String[][] genotypes = new String[siteCount][sampleCount1+sampleCount2];
+        String[] ids = new String[siteCount];
+        for (int i=0; i<siteCount; i++) {
+            ids[i] = random.nextInt(5)==0 ? "." : "rs"+i;
+            for (int s=0; s<sampleCount1+sampleCount2; s++) {
+                double rare = s<sampleCount1 ? 0.1 : 0.4;
+                if (s>0 && random.nextInt(20)==0) {
+                    genotypes[i][s] = "./.";
+                } else {
+                    genotypes[i][s] = getAllele(random, rare)+(random.nextInt(10)==0 ? "|" : "/")+getAllele(random, rare);
+                }
+            }
+        }
+        File vcf1 = writeVCF(name+".1.vcf", genotypes, ids, 0, sampleCount1);
+        File vcf2 = writeVCF(name+".2.vcf", genotypes, ids, sampleCount1, sampleCount1+sampleCount2);
+        File vcf12 = writeVCF(name+".12.vcf", genotypes, ids, 0, sampleCount1+sampleCount2);
+        // label a random selection of each VCF's samples, so the genotype frequencies are over more samples than the paths
+        List<String> labels1 = new ArrayList<>();
+        List<String> labels2 = new ArrayList<>();
+        for (int s=0; s<sampleCount1+sampleCount2; s++) {
+            if (random.nextInt(4)==0) continue;
+            String label = getSampleName(s)+"\t"+(random.nextBoolean() ? "case" : "ctrl");
+            if (s<sampleCount1) labels1.add(label); else labels2.add(label);
+        }
+        File labelsFile1 = writeLines(name+".1.labels.txt", labels1);
+        File labelsFile2 = writeLines(name+".2.labels.txt", labels2);
+        List<String> labels12 = new ArrayList<>(labels1);
+        labels12.addAll(labels2);
+        File labelsFile12 = writeLines(name+".12.labels.txt", labels12);
+        // the stored graph
+        PangenomicGraph graph1 = new PangenomicGraph(new File(folder.getRoot(), name+".g1").getPath());
+        graph1.loadFromVCFPipelined(vcf1, labelsFile1, 0.0, 1.0, 0, false, 1);
+        File nodesFile = graph1.getNodesFile();
+        File pathsFile = new File(folder.getRoot(), name+".g1.paths");
+        writeGraph(graph1, nodesFile, pathsFile, pathsFormat);
+        // the rebuilt graph
+        PangenomicGraph rebuilt = new PangenomicGraph(new File(folder.getRoot(), name+".rebuilt").getPath());
+        rebuilt.loadFromVCFPipelined(vcf12, labelsFile12, 0.0, 1.0, 0, false, 1);
+        File rebuiltNodesFile = rebuilt.getNodesFile();
+        File rebuiltPathsFile = new File(folder.getRoot(), name+".rebuilt.paths");
+        writeGraph(rebuilt, rebuiltNodesFile, rebuiltPathsFile, pathsFormat);
+        // append to the stored graph, which must then equal the rebuilt graph
+        PangenomicGraph appended = new PangenomicGraph(graph1.name);
+        appended.loadFromTXT(nodesFile, pathsFile);
+        List<Sample> oldSamples = new ArrayList<>(appended.samples);
+        List<Node> deltaNodes = new ArrayList<>(appended.appendFromVCF(vcf2, labelsFile2));
+        List<Sample> deltaSamples = new ArrayList<>(appended.samples);
+        deltaSamples.removeAll(oldSamples);
+        for (Node n : graph1.getNodes()) {
+            assertEquals(name, getKey(n), getKey(appended.getNode(n.id)));
+        }
+        assertEquals(name, getKeyedNodeLines(rebuilt), getKeyedNodeLines(appended));
+        assertEquals(name, getKeyedPathLines(rebuilt), getKeyedPathLines(appended));
+        // merge the delta into the stored files, which must then be the appended graph's files
+        appended.writeDelta(deltaNodes, deltaSamples);
+        File mergedNodesFile = new File(folder.getRoot(), name+".merged.nodes.txt");
+        File mergedPathsFile = new File(folder.getRoot(), name+".merged.paths");
+        PangenomicGraph.mergeDelta(nodesFile, pathsFile, new File(appended.getDeltaNodesFilename()), new File(appended.getDeltaPathsFilename()),
+                                   mergedNodesFile, mergedPathsFile);
+        assertEquals(name, getNodeLines(appended), Files.readAllLines(mergedNodesFile.toPath()));
+        assertEquals(name, getPathLines(appended), readPaths(mergedPathsFile));
+    }
+
+    static String getAllele(Random random, double rare) {
+        double r = random.nextDouble();
+        return r<rare/2 ? ALLELES[2] : r<rare ? ALLELES[1] : ALLELES[0];
+    }
+
+    static String getSampleName(int s) {
+        return String.format("S%04d", s);
+    }
+
+    /**
+     * Write a VCF of the sites of the given genotypes with the samples from..to-1.
+     */
+    File writeVCF(String filename, String[][] genotypes, String[] ids, int from, int to) throws IOException {
+        File file = new File(folder.getRoot(), filename);
+        try (PrintStream out = new PrintStream(file)) {
+            out.println("##fileformat=VCFv4.2");
+            out.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+            out.println("##contig=<ID=1,length=1000000>");
+            StringBuilder header = new StringBuilder("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+            for (int s=from; s<to; s++) header.append("\t").append(getSampleName(s));
+            out.println(header);
+            for (int i=0; i<genotypes.length; i++) {
+                StringBuilder line = new StringBuilder("1\t"+(1000+10*i)+"\t"+ids[i]+"\tA\tG,T\t50\tPASS\t.\tGT");
+                for (int s=from; s<to; s++) line.append("\t").append(genotypes[i][s].replace("A", "0").replace("G", "1").replace("T", "2"));
+                out.println(line);
+            }
+        }
+        return file;
+    }
+
+    File writeLines(String filename, List<String> lines) throws IOException {
+        File file = new File(folder.getRoot(), filename);
+        Files.write(file.toPath(), lines);
+        return file;
+    }
+
+    static void writeGraph(PangenomicGraph graph, File nodesFile, File pathsFile, String pathsFormat) throws IOException {
+        try (PrintStream out = new PrintStream(nodesFile)) {
+            graph.printNodes(out);
+        }
+        graph.printPaths(pathsFile, pathsFormat);
+    }
+
+    static List<String> getNodeLines(PangenomicGraph graph) {
+        List<String> lines = new ArrayList<>();
+        for (Node n : graph.getNodes()) lines.add(PangenomicGraph.toString(n));
+        return lines;
+    }
+
+    static List<String> getPathLines(PangenomicGraph graph) {
+        List<String> lines = new ArrayList<>();
+        for (Path path : graph.paths) lines.add(path.toString());
+        return lines;
+    }
+
+    /**
+     * Return a key for a node from its nodes.txt rs, contig, start, end and genotype, the same whether it was loaded from a VCF or a nodes.txt.
+     */
+    static String getKey(Node n) {
+        String[] parts = PangenomicGraph.toString(n).split("\t");
+        return String.join(":", Arrays.copyOfRange(parts, 1, 6));
+    }
+
+    /**
+     * Return the graph's nodes.txt lines with the node ids replaced by node keys, sorted.
+     */
+    static List<String> getKeyedNodeLines(PangenomicGraph graph) {
+        List<String> lines = new ArrayList<>();
+        for (Node n : graph.getNodes()) {
+            String line = PangenomicGraph.toString(n);
+            lines.add(getKey(n)+line.substring(line.indexOf('\t')));
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    /**
+     * Return the graph's paths with the keys of their nodes, sorted, in place of the ids.
+     */
+    static List<String> getKeyedPathLines(PangenomicGraph graph) {
+        List<String> lines = new ArrayList<>();
+        for (Path path : graph.paths) {
+            List<String> keys = new ArrayList<>();
+            for (Node n : path.getNodes()) keys.add(getKey(n));
+            Collections.sort(keys);
+            lines.add(path.getSample().toString()+"\t"+keys);
+        }
+        return lines;
+    }
+
+    /**
+     * Return the paths of a paths.txt or binary paths file as paths.txt lines.
+     */
+    static List<String> readPaths(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        GraphConcatenator.PathStream paths = new GraphConcatenator.PathStream(file);
+        while (paths.sample!=null) {
+            StringBuilder line = new StringBuilder(paths.sample.toString()).append("\t[");
+            for (int k=0; k<paths.count; k++) line.append(k>0 ? "," : "").append(paths.ids[k]);
+            lines.add(line.append("]").toString());
+            paths.next();
+        }
+        paths.close();
+        return lines;
+    }
+}
@@ -0,0 +1,181 @@
+package org.ncgr.pangenomics.genotype.fr;
+
+import org.ncgr.pangenomics.genotype.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the linear computeSupport and the merge constructor against the reference Algorithm 1 on small random graphs.
+ *
+ * @author Sam Hokin
+ */
+public class FrequentedRegionTest {
+
+    static final long SEED = 20211017L;
+
+    static final double[] ALPHAS = { 0.0, 0.1, 0.3, 0.5, 0.7, 0.9, 1.0 };
+    static final int[] KAPPAS = { 0, 1, 2, 3, 5, 10, Integer.MAX_VALUE };
+
+    /**
+     * Compare with the reference for random FRs of random graphs at every alpha and kappa.
+     */
+    @Test
+    public void computeSupportMatchesReference() {
+        Random random = new Random(SEED);
+        for (int g=0; g<20; g++) {
+            PangenomicGraph graph = getRandomGraph(random, "random"+g);
+            for (double alpha : ALPHAS) {
+                for (int kappa : KAPPAS) {
+                    for (int t=0; t<5; t++) {
+                        String difference = checkSupport(graph, random, alpha, kappa);
+                        assertNull("graph "+g+" (seed="+SEED+"): "+difference, difference);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare with the reference for many random FRs of one graph, with random alpha values as well.
+     */
+    @Test
+    public void checkSupportPasses() {
+        Random random = new Random(SEED);
+        PangenomicGraph graph = getRandomGraph(random, "check");
+        assertNull(checkSupport(graph, 500, SEED));
+    }
+
+    /**
+     * Check computeSupport against computeSupportReference on every path of the graph for the given number of random FRs,
+     * with alpha and kappa drawn to include their edge values, from the given seed. Returns null if they all agree, else the first difference.
+     */
+    static String checkSupport(PangenomicGraph graph, int trials, long seed) {
+        Random random = new Random(seed);
+        for (int t=0; t<trials; t++) {
+            double alpha = random.nextBoolean() ? ALPHAS[random.nextInt(ALPHAS.length)] : random.nextDouble();
+            int kappa = KAPPAS[random.nextInt(KAPPAS.length)];
+            String difference = checkSupport(graph, random, alpha, kappa);
+            if (difference!=null) return difference+" (seed="+seed+", trial "+t+")";
+        }
+        return null;
+    }
+
+    /**
+     * Check a random FR's subpaths on every path of the graph against the reference Algorithm 1, and the subpaths and support
+     * of it and of its merge with another random FR, which may share nodes with it. Each FR takes a random selection of the nodes
+     * in a window of a random path, plus a few random graph nodes. Returns null if they all agree, else a description of the difference.
+     */
+    static String checkSupport(PangenomicGraph graph, Random random, double alpha, int kappa) {
+        List<Node> graphNodes = graph.getNodes();
+        List<Path> paths = new ArrayList<>(graph.paths);
+        FrequentedRegion fr = new FrequentedRegion(graph, getRandomNodes(random, paths, graphNodes), alpha, kappa, 0, null);
+        for (Path p : paths) {
+            List<Subpath> support = fr.computeSupport(p);
+            List<Subpath> reference = fr.computeSupportReference(p);
+            if (!support.equals(reference)) {
+                return "computeSupport differs from the reference for FR "+fr.nodes+" alpha="+alpha+" kappa="+kappa+" on path "+p.getName()+": "+support+" vs "+reference;
+            }
+        }
+        FrequentedRegion fr2 = new FrequentedRegion(graph, getRandomNodes(random, paths, graphNodes), alpha, kappa, 0, null);
+        FrequentedRegion merged = new FrequentedRegion(fr, fr2, 0, null);
+        for (FrequentedRegion f : new FrequentedRegion[] { fr, merged }) {
+            String difference = compareToReference(f);
+            if (difference!=null) {
+                return (f==fr ? "FR" : "merged FR")+" differs from the reference for FRs "+fr.nodes+" and "+fr2.nodes+" alpha="+alpha+" kappa="+kappa+": "+difference;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return null if the subpaths and support of the given FR agree with the reference Algorithm 1 on every path of its core,
+     * otherwise a description of the difference.
+     */
+    static String compareToReference(FrequentedRegion fr) {
+        List<Subpath> reference = new ArrayList<>();
+        int caseCount = 0;
+        int ctrlCount = 0;
+        for (int j=0; j<fr.core.getPathCount(); j++) {
+            Path path = fr.core.getPathAt(j);
+            List<Subpath> supportPaths = fr.computeSupportReference(path);
+            reference.addAll(supportPaths);
+            if (path.isCase()) caseCount += supportPaths.size();
+            if (path.isControl()) ctrlCount += supportPaths.size();
+        }
+        if (!fr.getSubpaths().equals(reference)) {
+            return "subpaths "+fr.getSubpaths()+" vs "+reference;
+        } else if (fr.support!=reference.size() || fr.caseSubpathSupport!=caseCount || fr.ctrlSubpathSupport!=ctrlCount) {
+            return "support "+fr.support+"/"+fr.caseSubpathSupport+"/"+fr.ctrlSubpathSupport+" vs "+reference.size()+"/"+caseCount+"/"+ctrlCount;
+        }
+        return null;
+    }
+
+    /**
+     * Return a random selection of the nodes in a window of a random path, plus a few random graph nodes, for checkSupport.
+     */
+    static NodeSet getRandomNodes(Random random, List<Path> paths, List<Node> graphNodes) {
+        Path path = paths.get(random.nextInt(paths.size()));
+        int start = random.nextInt(path.getNodeCount());
+        int end = Math.min(path.getNodeCount(), start + 1 + random.nextInt(30));
+        double fraction = random.nextDouble();
+        List<Node> frNodes = new ArrayList<>();
+        for (int k=start; k<end; k++) {
+            if (random.nextDouble()<fraction) frNodes.add(path.getNode(k));
+        }
+        int extra = random.nextInt(4);
+        for (int k=0; k<extra; k++) frNodes.add(graphNodes.get(random.nextInt(graphNodes.size())));
+        if (frNodes.size()==0) frNodes.add(path.getNode(start));
+        return new NodeSet(frNodes);
+    }
+
+    /**
+     * Return a random graph: a few loci with one to three genotype nodes each, and case and control paths which each take one genotype
+     * at most loci, skipping some to leave gaps. Some paths are copies of earlier ones so there are repeated unique paths.
+     */
+    static PangenomicGraph getRandomGraph(Random random, String name) {
+        int locusCount = 10 + random.nextInt(40);
+        List<List<Node>> loci = new ArrayList<>();
+        TreeMap<Long,Node> nodes = new TreeMap<>();
+        long id = 0;
+        for (int l=0; l<locusCount; l++) {
+            List<Node> locus = new ArrayList<>();
+            int genotypeCount = 1 + random.nextInt(3);
+            for (int k=0; k<genotypeCount; k++) {
+                Node n = new Node(++id, "rs"+l, "1", 100*l, 100*l, "G"+k, 0.0);
+                locus.add(n);
+                nodes.put(n.id, n);
+            }
+            loci.add(locus);
+        }
+        PangenomicGraph graph = new PangenomicGraph(name);
+        TreeSet<Path> paths = new TreeSet<>();
+        List<List<Node>> pathNodes = new ArrayList<>();
+        int pathCount = 10 + random.nextInt(30);
+        double skip = 0.4*random.nextDouble();
+        for (int j=0; j<pathCount; j++) {
+            List<Node> traversed;
+            if (j>0 && random.nextInt(4)==0) {
+                traversed = pathNodes.get(random.nextInt(j));
+            } else {
+                traversed = new ArrayList<>();
+                for (List<Node> locus : loci) {
+                    if (random.nextDouble()>=skip) traversed.add(locus.get(random.nextInt(locus.size())));
+                }
+                if (traversed.size()==0) traversed.add(loci.get(0).get(0));
+            }
+            pathNodes.add(traversed);
+            paths.add(new Path(graph, traversed, new Sample("sample"+j, random.nextBoolean() ? "case" : "ctrl")));
+        }
+        graph.buildGraph(nodes, paths);
+        graph.tallyLabelCounts();
+        return graph;
+    }
+}